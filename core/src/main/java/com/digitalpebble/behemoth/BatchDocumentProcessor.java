@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.util.List;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DocumentProcessor which can process several documents at once, e.g. to
+ * amortise the cost of a call to an external engine. Processors which don't
+ * implement this interface are called one document at a time by
+ * {@link DocumentBatch#process(DocumentProcessor, List, Reporter)}.
+ **/
+
+public interface BatchDocumentProcessor extends DocumentProcessor {
+
+    /**
+     * Processes a batch of documents
+     * 
+     * @return the outputs of each input document in the same order, the
+     *         elements can be null
+     **/
+    public List<BehemothDocument[]> processBatch(
+            List<BehemothDocument> inputDocs, Reporter reporter);
+
+}
@@ -18,9 +18,15 @@
 package com.digitalpebble.behemoth;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
 
 public class BehemothConfiguration extends org.apache.hadoop.conf.Configuration {
 
+    /** InputFormat used by the drivers to read a Behemoth corpus **/
+    public static final String INPUT_FORMAT_PARAM_NAME = "behemoth.input.format";
+
     private BehemothConfiguration() {
     }
 
@@ -31,6 +37,26 @@ public class BehemothConfiguration extends org.apache.hadoop.conf.Configuration
         return conf;
     }
 
+    /**
+     * Sets the InputFormat of a job reading a Behemoth corpus to the class
+     * specified with behemoth.input.format, SequenceFileInputFormat by
+     * default
+     **/
+    public static void setInputFormat(JobConf job) {
+        job.setInputFormat(getInputFormat(job));
+    }
+
+    /**
+     * Returns the InputFormat specified with behemoth.input.format,
+     * SequenceFileInputFormat by default
+     **/
+    @SuppressWarnings("rawtypes")
+    public static Class<? extends InputFormat> getInputFormat(
+            Configuration conf) {
+        return conf.getClass(INPUT_FORMAT_PARAM_NAME,
+                SequenceFileInputFormat.class, InputFormat.class);
+    }
+
     /** Add the standard Behemoth resources to {@link Configuration}. */
     private static Configuration addBehemothResources(Configuration conf) {
         conf.addResource("behemoth-default.xml");
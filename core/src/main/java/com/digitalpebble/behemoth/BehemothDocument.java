@@ -188,7 +188,7 @@ public class BehemothDocument implements Writable {
 
     public void writeCommon(DataOutput out) throws IOException {
         out.writeByte(CUR_VERSION); // write version
-        Text.writeString(out, url); // write url
+        Text.writeString(out, url != null ? url : ""); // write url
         if (content == null)
             out.writeInt(0); // write content
         else {
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Counters.Group;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Reporter which keeps the counters locally so that they can be aggregated
+ * into the Reporter of the task by a single thread. The status and progress
+ * are passed on to the delegate if there is one.
+ **/
+
+public class BufferedReporter implements Reporter {
+
+    private final Reporter delegate;
+
+    private Counters counters = new Counters();
+
+    /**
+     * @param delegate
+     *            Reporter to pass the status and progress to, can be null
+     **/
+    public BufferedReporter(Reporter delegate) {
+        this.delegate = delegate;
+    }
+
+    public void progress() {
+        if (delegate != null)
+            delegate.progress();
+    }
+
+    public void setStatus(String status) {
+        if (delegate != null)
+            delegate.setStatus(status);
+    }
+
+    public Counter getCounter(Enum<?> name) {
+        return counters.findCounter(name);
+    }
+
+    public Counter getCounter(String group, String name) {
+        return counters.findCounter(group, name);
+    }
+
+    public void incrCounter(Enum<?> key, long amount) {
+        counters.incrCounter(key, amount);
+    }
+
+    public void incrCounter(String group, String counter, long amount) {
+        counters.incrCounter(group, counter, amount);
+    }
+
+    public InputSplit getInputSplit() throws UnsupportedOperationException {
+        if (delegate == null)
+            throw new UnsupportedOperationException(
+                    "NULL reporter has no input");
+        return delegate.getInputSplit();
+    }
+
+    public float getProgress() {
+        if (delegate == null)
+            return 0;
+        return delegate.getProgress();
+    }
+
+    /** Returns the counters accumulated so far **/
+    public Counters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Adds the counters accumulated so far to a target Reporter and resets
+     * them
+     **/
+    public void flush(Reporter target) {
+        if (target == null)
+            return;
+        for (Group group : counters) {
+            for (Counter counter : group) {
+                if (counter.getValue() != 0)
+                    target.incrCounter(group.getName(), counter.getName(),
+                            counter.getValue());
+            }
+        }
+        counters = new Counters();
+    }
+
+}
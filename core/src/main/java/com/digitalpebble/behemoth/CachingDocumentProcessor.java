@@ -0,0 +1,560 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the outputs of a DocumentProcessor in a directory local to the node
+ * set with behemoth.cache.dir, so that documents which have already been
+ * processed with the same configuration are not processed again. The entries
+ * are keyed on the MD5 digest of the content, text, content type, annotations
+ * and metadata of the input document and a fingerprint of the configuration of
+ * the processor, which is made of the parameters starting with the prefixes
+ * declared in behemoth.cache.fingerprint.[processor simple class name] (by
+ * default the last part of the package of the processor followed by a dot,
+ * e.g. 'tika.'). Only the processors doing the actual work are cached, never a
+ * ChainedDocumentProcessor. The metadata added by the processor are stored
+ * separately so that those of the current document are kept on a hit and the
+ * URLs of the outputs starting with the URL of the cached document (e.g. its
+ * embedded documents) are rewritten with the URL of the current one. The
+ * documents for which the processor has streamed some of its outputs to a
+ * DocumentListener are not cached, as their entries would be incomplete. The
+ * least recently used entries are removed when the cache exceeds
+ * behemoth.cache.max.mb.
+ **/
+
+public class CachingDocumentProcessor implements BatchDocumentProcessor,
+        StreamingDocumentProcessor {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CachingDocumentProcessor.class);
+
+    /** Local directory of the cache, the cache is not used if not set **/
+    public static final String CACHE_DIR_PARAM_NAME = "behemoth.cache.dir";
+
+    public static final String CACHE_MAX_SIZE_PARAM_NAME = "behemoth.cache.max.mb";
+
+    public static final String FINGERPRINT_PARAM_PREFIX = "behemoth.cache.fingerprint.";
+
+    private static final String COUNTER_GROUP = "ProcessorCache";
+
+    /** Caches shared by the instances of a JVM, by directory **/
+    private static final Map<File, DiskCache> caches = new HashMap<File, DiskCache>();
+
+    private final DocumentProcessor delegate;
+
+    private final String name;
+
+    private final DiskCache cache;
+
+    private Configuration config;
+
+    /** Input documents for which outputs have been streamed **/
+    private final Set<BehemothDocument> streamed = Collections
+            .newSetFromMap(new IdentityHashMap<BehemothDocument, Boolean>());
+
+    public CachingDocumentProcessor(DocumentProcessor delegate,
+            Configuration conf) {
+        this.delegate = delegate;
+        this.config = conf;
+        DocumentProcessor named = delegate;
+        if (delegate instanceof TimeLimitedDocumentProcessor)
+            named = ((TimeLimitedDocumentProcessor) delegate).getDelegate();
+        this.name = named.getClass().getSimpleName();
+        String fingerprint = getFingerprint(conf, named.getClass());
+        File dir = new File(conf.get(CACHE_DIR_PARAM_NAME), name + "-"
+                + fingerprint);
+        long maxSize = conf.getLong(CACHE_MAX_SIZE_PARAM_NAME, 1024) * 1024 * 1024;
+        synchronized (caches) {
+            DiskCache c = caches.get(dir);
+            if (c == null) {
+                c = new DiskCache(dir, maxSize);
+                caches.put(dir, c);
+            }
+            this.cache = c;
+        }
+        LOG.info("Caching the outputs of " + name + " in " + dir);
+    }
+
+    /**
+     * Returns the processor wrapped in a CachingDocumentProcessor if
+     * behemoth.cache.dir is set, the processor itself otherwise
+     **/
+    public static DocumentProcessor wrap(DocumentProcessor processor,
+            Configuration conf) {
+        if (conf.get(CACHE_DIR_PARAM_NAME) == null
+                || processor instanceof ChainedDocumentProcessor)
+            return processor;
+        return new CachingDocumentProcessor(processor, conf);
+    }
+
+    /** Returns the processor whose outputs are cached **/
+    public DocumentProcessor getDelegate() {
+        return delegate;
+    }
+
+    public Configuration getConf() {
+        return config;
+    }
+
+    public void setConf(Configuration conf) {
+        config = conf;
+    }
+
+    public boolean setListener(final DocumentListener listener) {
+        if (!(delegate instanceof StreamingDocumentProcessor))
+            return false;
+        StreamingDocumentProcessor streaming = (StreamingDocumentProcessor) delegate;
+        if (listener == null)
+            return streaming.setListener(null);
+        return streaming.setListener(new DocumentListener() {
+            public void output(BehemothDocument input, BehemothDocument output)
+                    throws IOException {
+                streamed.add(input);
+                listener.output(input, output);
+            }
+        });
+    }
+
+    /**
+     * Returns a digest of the parameters which can affect the outputs of a
+     * processor
+     **/
+    static String getFingerprint(Configuration conf, Class<?> processorClass) {
+        String[] prefixes = conf.getStrings(FINGERPRINT_PARAM_PREFIX
+                + processorClass.getSimpleName());
+        if (prefixes == null) {
+            String pkg = processorClass.getPackage() == null ? ""
+                    : processorClass.getPackage().getName();
+            prefixes = new String[] { pkg.substring(pkg.lastIndexOf('.') + 1)
+                    + "." };
+        }
+        // sorted so that the order of the parameters does not matter
+        TreeMap<String, String> params = new TreeMap<String, String>();
+        for (Entry<String, String> entry : conf) {
+            for (String prefix : prefixes) {
+                if (entry.getKey().startsWith(prefix.trim())) {
+                    params.put(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+        MessageDigest md5 = newDigest();
+        update(md5, processorClass.getName());
+        for (Entry<String, String> param : params.entrySet()) {
+            update(md5, param.getKey());
+            update(md5, param.getValue());
+        }
+        return StringUtils.byteToHexString(md5.digest()).substring(0, 16);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest md5, String value) {
+        if (value == null) {
+            md5.update((byte) 0);
+            return;
+        }
+        try {
+            md5.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        md5.update((byte) 0);
+    }
+
+    /** Digest of the parts of a document which the processors look at **/
+    static String getKey(BehemothDocument doc) {
+        MessageDigest md5 = newDigest();
+        if (doc.getContent() != null)
+            md5.update(doc.getContent());
+        md5.update((byte) 0);
+        update(md5, doc.getText());
+        update(md5, doc.getContentType());
+        for (Annotation annot : doc.getAnnotations()) {
+            update(md5, annot.getType());
+            update(md5, Long.toString(annot.getStart()));
+            update(md5, Long.toString(annot.getEnd()));
+        }
+        md5.update((byte) 0);
+        if (doc.getMetadata() != null) {
+            // sorted as the order of a MapWritable is not deterministic
+            TreeMap<String, Writable> metadata = new TreeMap<String, Writable>();
+            for (Entry<Writable, Writable> entry : doc.getMetadata()
+                    .entrySet())
+                metadata.put(entry.getKey().toString(), entry.getValue());
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            for (Entry<String, Writable> entry : metadata.entrySet()) {
+                update(md5, entry.getKey());
+                Writable value = entry.getValue();
+                update(md5, value == null ? null : value.getClass().getName());
+                if (value == null)
+                    continue;
+                buffer.reset();
+                try {
+                    value.write(buffer);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                md5.update(buffer.getData(), 0, buffer.getLength());
+            }
+        }
+        return StringUtils.byteToHexString(md5.digest());
+    }
+
+    public BehemothDocument[] process(BehemothDocument inputDoc,
+            Reporter reporter) {
+        List<BehemothDocument> inputDocs = new ArrayList<BehemothDocument>(1);
+        inputDocs.add(inputDoc);
+        return processBatch(inputDocs, reporter).get(0);
+    }
+
+    public List<BehemothDocument[]> processBatch(
+            List<BehemothDocument> inputDocs, Reporter reporter) {
+        int num = inputDocs.size();
+        List<BehemothDocument[]> outputs = new ArrayList<BehemothDocument[]>(
+                num);
+        String[] keys = new String[num];
+        MapWritable[] metadata = new MapWritable[num];
+        List<BehemothDocument> misses = new ArrayList<BehemothDocument>(num);
+        for (int i = 0; i < num; i++) {
+            BehemothDocument inputDoc = inputDocs.get(i);
+            keys[i] = getKey(inputDoc);
+            BehemothDocument[] cached = lookup(keys[i], inputDoc);
+            outputs.add(cached);
+            if (cached != null) {
+                incrCounter(reporter, "HIT " + name);
+                continue;
+            }
+            incrCounter(reporter, "MISS " + name);
+            // the processors modify the metadata in place
+            if (inputDoc.getMetadata() != null) {
+                metadata[i] = new MapWritable();
+                metadata[i].putAll(inputDoc.getMetadata());
+            }
+            misses.add(inputDoc);
+        }
+        if (misses.isEmpty())
+            return outputs;
+
+        streamed.clear();
+        List<BehemothDocument[]> processed = DocumentBatch.process(delegate,
+                misses, reporter);
+        int j = 0;
+        for (int i = 0; i < num; i++) {
+            if (outputs.get(i) != null)
+                continue;
+            BehemothDocument[] docs = processed.get(j++);
+            outputs.set(i, docs);
+            if (streamed.contains(inputDocs.get(i)))
+                incrCounter(reporter, "STREAMED " + name);
+            else
+                store(keys[i], inputDocs.get(i), metadata[i], docs, reporter);
+        }
+        streamed.clear();
+        return outputs;
+    }
+
+    private static void incrCounter(Reporter reporter, String counter) {
+        if (reporter != null)
+            reporter.incrCounter(COUNTER_GROUP, counter, 1);
+    }
+
+    /** Returns the cached outputs for a document or null **/
+    private BehemothDocument[] lookup(String key, BehemothDocument inputDoc) {
+        byte[] entry = cache.get(key);
+        if (entry == null)
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    entry));
+            String cachedURL = in.readUTF();
+            int num = in.readInt();
+            BehemothDocument[] outputs = new BehemothDocument[num];
+            for (int i = 0; i < num; i++) {
+                BehemothDocument output = BehemothDocument.read(in);
+                boolean sameContent = in.readBoolean();
+                if (sameContent)
+                    output.setContent(inputDoc.getContent());
+                output.setUrl(rewrite(output.getUrl(), cachedURL,
+                        inputDoc.getUrl()));
+                if ("".equals(output.getContentType()))
+                    output.setContentType(null);
+                // metadata of the current document + those added
+                MapWritable added = output.getMetadata();
+                if (added != null) {
+                    // e.g. URL of the parent of an embedded document
+                    for (Entry<Writable, Writable> md : added.entrySet()) {
+                        if (!(md.getValue() instanceof Text))
+                            continue;
+                        String value = md.getValue().toString();
+                        String rewritten = rewrite(value, cachedURL,
+                                inputDoc.getUrl());
+                        if (rewritten != value)
+                            md.setValue(new Text(rewritten));
+                    }
+                }
+                if (inputDoc.getMetadata() != null) {
+                    MapWritable md = new MapWritable();
+                    md.putAll(inputDoc.getMetadata());
+                    if (added != null)
+                        md.putAll(added);
+                    output.setMetadata(md);
+                }
+                outputs[i] = output;
+            }
+            return outputs;
+        } catch (IOException e) {
+            LOG.warn("Corrupted cache entry " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the URL of the document which was cached in a URL of its
+     * outputs, which is either the URL of the document itself or of one of
+     * its sub-documents (parent!/attachment), with the URL of the current
+     * document. Returns the same instance if the URL is not derived from the
+     * one of the cached document.
+     **/
+    static String rewrite(String url, String cachedURL, String currentURL) {
+        if (url == null || cachedURL.length() == 0 || currentURL == null
+                || !url.startsWith(cachedURL))
+            return url;
+        if (url.length() > cachedURL.length()
+                && url.charAt(cachedURL.length()) != '!')
+            return url;
+        return currentURL + url.substring(cachedURL.length());
+    }
+
+    private void store(String key, BehemothDocument inputDoc,
+            MapWritable inputMD, BehemothDocument[] outputs, Reporter reporter) {
+        // don't cache the documents which could not be processed
+        if (outputs == null)
+            return;
+        for (BehemothDocument output : outputs) {
+            if (output.getMetadata() != null
+                    && output.getMetadata().containsKey(
+                            TimeLimitedDocumentProcessor.STATUS_KEY))
+                return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(inputDoc.getUrl() == null ? "" : inputDoc.getUrl());
+            out.writeInt(outputs.length);
+            for (BehemothDocument output : outputs) {
+                BehemothDocument copy = TimeLimitedDocumentProcessor
+                        .snapshot(output);
+                // the content is rarely changed, no need to store it twice
+                boolean sameContent = Arrays.equals(output.getContent(),
+                        inputDoc.getContent());
+                if (sameContent)
+                    copy.setContent(null);
+                copy.setMetadata(added(inputMD, output.getMetadata()));
+                copy.write(out);
+                out.writeBoolean(sameContent);
+            }
+            out.close();
+        } catch (IOException e) {
+            LOG.error("Can't serialize outputs of " + inputDoc.getUrl(), e);
+            return;
+        }
+        long evicted = cache.put(key, bytes.toByteArray());
+        if (evicted > 0 && reporter != null)
+            reporter.incrCounter(COUNTER_GROUP, "EVICTED", evicted);
+    }
+
+    /** Returns the metadata which are new or have a different value **/
+    private static MapWritable added(MapWritable before, MapWritable after) {
+        if (after == null)
+            return null;
+        MapWritable added = new MapWritable();
+        for (Entry<Writable, Writable> entry : after.entrySet()) {
+            Writable previous = before == null ? null : before.get(entry
+                    .getKey());
+            if (previous == null || !previous.equals(entry.getValue()))
+                added.put(entry.getKey(), entry.getValue());
+        }
+        return added;
+    }
+
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Entries stored as files in 256 subdirectories, the last modification time
+     * of a file being updated when it is read. Files are written under a
+     * temporary name then renamed so that several JVMs can share the cache.
+     **/
+    static class DiskCache {
+
+        private final File dir;
+
+        private final long maxSize;
+
+        /** estimated size of the cache, computed on the first eviction **/
+        private long size = -1;
+
+        private long written = 0;
+
+        DiskCache(File dir, long maxSize) {
+            this.dir = dir;
+            this.maxSize = maxSize;
+        }
+
+        private File getFile(String key) {
+            return new File(new File(dir, key.substring(0, 2)), key);
+        }
+
+        byte[] get(String key) {
+            File file = getFile(key);
+            if (!file.isFile())
+                return null;
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                byte[] entry = new byte[(int) file.length()];
+                IOUtils.readFully(in, entry, 0, entry.length);
+                file.setLastModified(System.currentTimeMillis());
+                return entry;
+            } catch (IOException e) {
+                // could have been evicted in the meantime
+                return null;
+            } finally {
+                IOUtils.closeStream(in);
+            }
+        }
+
+        /** Returns the number of entries evicted to make room for it **/
+        synchronized long put(String key, byte[] entry) {
+            File file = getFile(key);
+            File parent = file.getParentFile();
+            parent.mkdirs();
+            File tmp = new File(parent, key + "." + Thread.currentThread().getId()
+                    + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(tmp);
+                out.write(entry);
+                out.close();
+                out = null;
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    return 0;
+                }
+            } catch (IOException e) {
+                LOG.warn("Can't write cache entry " + file, e);
+                tmp.delete();
+                return 0;
+            } finally {
+                IOUtils.closeStream(out);
+            }
+            written += entry.length;
+            if (size == -1 || size + written > maxSize)
+                return evict();
+            return 0;
+        }
+
+        /**
+         * Computes the actual size of the cache and removes the least recently
+         * used entries until it is under 90% of its maximum
+         **/
+        private long evict() {
+            List<File> files = new ArrayList<File>();
+            File[] subdirs = dir.listFiles();
+            if (subdirs != null) {
+                for (File subdir : subdirs) {
+                    File[] entries = subdir.listFiles();
+                    if (entries != null)
+                        files.addAll(Arrays.asList(entries));
+                }
+            }
+            size = 0;
+            final Map<File, Long> lastModified = new HashMap<File, Long>();
+            for (File file : files) {
+                size += file.length();
+                lastModified.put(file, file.lastModified());
+            }
+            written = 0;
+            if (size <= maxSize)
+                return 0;
+            Collections.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    return lastModified.get(f1).compareTo(
+                            lastModified.get(f2));
+                }
+            });
+            long evicted = 0;
+            long target = maxSize / 10 * 9;
+            for (File file : files) {
+                if (size <= target)
+                    break;
+                long length = file.length();
+                if (file.delete()) {
+                    size -= length;
+                    evicted++;
+                }
+            }
+            LOG.info("Evicted " + evicted + " entries from " + dir);
+            return evicted;
+        }
+    }
+
+}
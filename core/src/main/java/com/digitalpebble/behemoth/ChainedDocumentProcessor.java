@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the documents through an ordered list of processors in memory so
+ * that several stages (e.g. Tika, language identification then GATE or UIMA)
+ * can be done in a single job. The processors are set as a comma separated
+ * list of DocumentProcessor or DocumentProcessorFactory classes with
+ * behemoth.chain.processors. A DocumentFilter can be applied to the output of
+ * the Nth processor by prefixing its parameters with behemoth.chain.filter.N.
+ * e.g. behemoth.chain.filter.2.document.filter.md.keep.lang=en ; 0 filters
+ * the documents before the first processor. Batches are passed on to the
+ * processors of the chain which support them.
+ **/
+
+public class ChainedDocumentProcessor implements BatchDocumentProcessor {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ChainedDocumentProcessor.class);
+
+    public static final String PROCESSORS_PARAM_NAME = "behemoth.chain.processors";
+    public static final String FILTER_PARAM_PREFIX = "behemoth.chain.filter.";
+
+    private static final String COUNTER_GROUP = "ProcessorChain";
+
+    private Configuration config;
+
+    private DocumentProcessor[] processors;
+
+    /**
+     * filters[i] is applied before processors[i], the last one to the output
+     * of the chain
+     **/
+    private DocumentFilter[] filters;
+
+    public Configuration getConf() {
+        return config;
+    }
+
+    public void setConf(Configuration conf) {
+        config = conf;
+        String[] classNames = conf.getStrings(PROCESSORS_PARAM_NAME);
+        if (classNames == null || classNames.length == 0)
+            throw new RuntimeException(PROCESSORS_PARAM_NAME + " not set");
+        processors = new DocumentProcessor[classNames.length];
+        filters = new DocumentFilter[classNames.length + 1];
+        for (int i = 0; i <= classNames.length; i++) {
+            filters[i] = getStageFilter(conf, i);
+            if (i == classNames.length)
+                break;
+            long start = System.currentTimeMillis();
+            processors[i] = ProcessorMapRunner.newProcessor(conf,
+                    classNames[i].trim());
+            LOG.info("Stage " + (i + 1) + " : " + classNames[i].trim()
+                    + " initialised in "
+                    + (System.currentTimeMillis() - start) + " msec");
+        }
+    }
+
+    /**
+     * Returns the DocumentFilter applied to the output of the Nth stage or
+     * null if none has been set
+     **/
+    static DocumentFilter getStageFilter(Configuration conf, int stage) {
+        String prefix = FILTER_PARAM_PREFIX + stage + ".";
+        Map<String, String> params = conf.getValByRegex("^"
+                + prefix.replace(".", "\\.") + ".+");
+        if (params.isEmpty())
+            return null;
+        Configuration stageConf = new Configuration(false);
+        for (Entry<String, String> param : params.entrySet()) {
+            stageConf.set(param.getKey().substring(prefix.length()),
+                    param.getValue());
+        }
+        if (!DocumentFilter.isRequired(stageConf))
+            return null;
+        LOG.info("Filter found after stage " + stage);
+        return DocumentFilter.getFilters(stageConf);
+    }
+
+    public BehemothDocument[] process(BehemothDocument inputDoc,
+            Reporter reporter) {
+        List<BehemothDocument> inputDocs = new ArrayList<BehemothDocument>(1);
+        inputDocs.add(inputDoc);
+        return processBatch(inputDocs, reporter).get(0);
+    }
+
+    public List<BehemothDocument[]> processBatch(
+            List<BehemothDocument> inputDocs, Reporter reporter) {
+        // documents at the current stage and the input they come from
+        List<BehemothDocument> current = new ArrayList<BehemothDocument>(
+                inputDocs);
+        List<Integer> origins = new ArrayList<Integer>(inputDocs.size());
+        for (int i = 0; i < inputDocs.size(); i++)
+            origins.add(i);
+
+        for (int i = 0; i <= processors.length; i++) {
+            if (filters[i] != null)
+                filter(current, origins, i, reporter);
+            if (i == processors.length || current.isEmpty())
+                break;
+            List<BehemothDocument[]> outputs = DocumentBatch.process(
+                    processors[i], current, reporter);
+            List<BehemothDocument> next = new ArrayList<BehemothDocument>(
+                    current.size());
+            List<Integer> nextOrigins = new ArrayList<Integer>(
+                    current.size());
+            for (int j = 0; j < outputs.size(); j++) {
+                if (outputs.get(j) == null)
+                    continue;
+                for (BehemothDocument output : outputs.get(j)) {
+                    next.add(output);
+                    nextOrigins.add(origins.get(j));
+                }
+            }
+            current = next;
+            origins = nextOrigins;
+        }
+
+        // group the outputs by input document
+        List<List<BehemothDocument>> grouped = new ArrayList<List<BehemothDocument>>(
+                inputDocs.size());
+        for (int i = 0; i < inputDocs.size(); i++)
+            grouped.add(new ArrayList<BehemothDocument>(1));
+        for (int j = 0; j < current.size(); j++)
+            grouped.get(origins.get(j)).add(current.get(j));
+        List<BehemothDocument[]> results = new ArrayList<BehemothDocument[]>(
+                inputDocs.size());
+        for (List<BehemothDocument> docs : grouped)
+            results.add(docs.toArray(new BehemothDocument[docs.size()]));
+        return results;
+    }
+
+    /** Removes the documents rejected by the filter of a stage **/
+    private void filter(List<BehemothDocument> docs, List<Integer> origins,
+            int stage, Reporter reporter) {
+        for (int j = docs.size() - 1; j >= 0; j--) {
+            if (filters[stage].keep(docs.get(j)))
+                continue;
+            docs.remove(j);
+            origins.remove(j);
+            if (reporter != null)
+                reporter.incrCounter(COUNTER_GROUP, "FILTERED AFTER STAGE "
+                        + stage, 1);
+        }
+    }
+
+    public void close() {
+        for (DocumentProcessor processor : processors) {
+            if (processor != null)
+                processor.close();
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileInputFormat;
+import org.apache.hadoop.mapred.lib.CombineFileRecordReader;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+/**
+ * Reads a Behemoth corpus made of many small files by packing several files
+ * (or blocks of larger files) into each split, so that the cost of starting a
+ * task and initialising the processors is shared by more documents. The
+ * files are grouped by node first then by rack; the maximum size of a split
+ * is set with behemoth.combine.split.size. The drivers use this format when
+ * behemoth.input.format is set to its class name.
+ **/
+public class CombineBehemothInputFormat extends
+        CombineFileInputFormat<Text, BehemothDocument> {
+
+    /** Maximum size of a split in bytes **/
+    public static final String SPLIT_SIZE_PARAM_NAME = "behemoth.combine.split.size";
+
+    public InputSplit[] getSplits(JobConf job, int numSplits)
+            throws IOException {
+        // rather than mapred.max.split.size which affects the other formats
+        setMaxSplitSize(job.getLong(SPLIT_SIZE_PARAM_NAME,
+                256L * 1024 * 1024));
+        return super.getSplits(job, numSplits);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public RecordReader<Text, BehemothDocument> getRecordReader(
+            InputSplit split, JobConf job, Reporter reporter)
+            throws IOException {
+        reporter.setStatus(split.toString());
+        return new CombineFileRecordReader<Text, BehemothDocument>(job,
+                (CombineFileSplit) split, reporter,
+                (Class) FileRecordReader.class);
+    }
+
+    /** Reads the portion of one of the files of a combined split **/
+    public static class FileRecordReader implements
+            RecordReader<Text, BehemothDocument> {
+
+        private final SequenceFileRecordReader<Text, BehemothDocument> reader;
+
+        public FileRecordReader(CombineFileSplit split, Configuration conf,
+                Reporter reporter, Integer index) throws IOException {
+            reader = new SequenceFileRecordReader<Text, BehemothDocument>(
+                    conf, new FileSplit(split.getPath(index),
+                            split.getOffset(index), split.getLength(index),
+                            split.getLocations()));
+        }
+
+        public boolean next(Text key, BehemothDocument value)
+                throws IOException {
+            return reader.next(key, value);
+        }
+
+        public Text createKey() {
+            return reader.createKey();
+        }
+
+        public BehemothDocument createValue() {
+            return reader.createValue();
+        }
+
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.net.NetworkTopology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a Behemoth corpus with splits of similar estimated processing cost
+ * instead of similar size, so that a split full of PDFs does not take much
+ * longer than the others. The cost of the documents is computed by the
+ * {@link CostModel} from their MIME type and size, which are read from a
+ * sidecar file per input file : [directory]/_costs/[file name]. The sidecars
+ * are generated with {@link com.digitalpebble.behemoth.util.CostIndexer} and
+ * list the offset, size and MIME type of the records; files without an up to
+ * date sidecar are split by size.
+ * 
+ * The number of splits is set with behemoth.cost.splits and defaults to the
+ * number of blocks of the input. The drivers use this format when
+ * behemoth.input.format is set to its class name.
+ **/
+public class CostBalancedInputFormat extends
+        SequenceFileInputFormat<Text, BehemothDocument> {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CostBalancedInputFormat.class);
+
+    public static final String SPLITS_PARAM_NAME = "behemoth.cost.splits";
+
+    /**
+     * Splits are only cut at sync points separated by at least this number of
+     * bytes, which limits the number of chunks kept in memory
+     **/
+    public static final String CHUNK_SIZE_PARAM_NAME = "behemoth.cost.chunk.size";
+
+    public static final String SIDECAR_DIR = "_costs";
+
+    /** Portion of a file starting at a sync point and its estimated cost **/
+    private static class Chunk {
+        final long start;
+        double cost;
+
+        Chunk(long start) {
+            this.start = start;
+        }
+    }
+
+    /** Returns the location of the sidecar of a file of a corpus **/
+    public static Path getSidecar(Path file) {
+        return new Path(new Path(file.getParent(), SIDECAR_DIR),
+                file.getName());
+    }
+
+    /**
+     * Writes the sidecar of a file of a corpus, one line per record with its
+     * offset, whether it starts after a sync point, its size and its MIME
+     * type. Returns the number of records.
+     **/
+    public static long writeSidecar(FileSystem fs, Path file,
+            Configuration conf) throws IOException {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, conf);
+        Writer writer = null;
+        long count = 0;
+        try {
+            writer = new OutputStreamWriter(fs.create(getSidecar(file), true),
+                    "UTF-8");
+            Text key = new Text();
+            BehemothDocument doc = new BehemothDocument();
+            long position = reader.getPosition();
+            while (reader.next(key, doc)) {
+                writer.write(position + "\t" + (reader.syncSeen() ? 1 : 0)
+                        + "\t" + CostModel.size(doc) + "\t"
+                        + CostModel.normalize(doc.getContentType()) + "\n");
+                count++;
+                position = reader.getPosition();
+            }
+        } finally {
+            reader.close();
+            if (writer != null)
+                writer.close();
+        }
+        return count;
+    }
+
+    public InputSplit[] getSplits(JobConf job, int numSplits)
+            throws IOException {
+        CostModel model = new CostModel(job);
+        long chunkSize = job.getLong(CHUNK_SIZE_PARAM_NAME, 1024 * 1024);
+        FileStatus[] files = listStatus(job);
+
+        List<FileStatus> statuses = new ArrayList<FileStatus>();
+        List<List<Chunk>> chunks = new ArrayList<List<Chunk>>();
+        double totalCost = 0;
+        long numBlocks = 0;
+        int indexed = 0;
+        for (FileStatus file : files) {
+            if (file.getLen() == 0)
+                continue;
+            FileSystem fs = file.getPath().getFileSystem(job);
+            List<Chunk> fileChunks = readSidecar(fs, file, model, chunkSize);
+            if (fileChunks != null)
+                indexed++;
+            else
+                fileChunks = sizeChunks(file, model);
+            for (Chunk chunk : fileChunks)
+                totalCost += chunk.cost;
+            statuses.add(file);
+            chunks.add(fileChunks);
+            numBlocks += (file.getLen() + file.getBlockSize() - 1)
+                    / file.getBlockSize();
+        }
+
+        int targetSplits = job.getInt(SPLITS_PARAM_NAME, 0);
+        if (targetSplits <= 0)
+            targetSplits = (int) Math.max(numSplits, numBlocks);
+        double targetCost = totalCost / Math.max(1, targetSplits);
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        NetworkTopology clusterMap = new NetworkTopology();
+        double maxCost = 0;
+        for (int i = 0; i < statuses.size(); i++) {
+            FileStatus file = statuses.get(i);
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(job);
+            BlockLocation[] locations = fs.getFileBlockLocations(file, 0,
+                    file.getLen());
+            long start = 0;
+            double cost = 0;
+            for (Chunk chunk : chunks.get(i)) {
+                if (cost > 0 && cost + chunk.cost > targetCost
+                        && chunk.start > start) {
+                    splits.add(new FileSplit(path, start, chunk.start - start,
+                            getSplitHosts(locations, start, chunk.start
+                                    - start, clusterMap)));
+                    maxCost = Math.max(maxCost, cost);
+                    start = chunk.start;
+                    cost = 0;
+                }
+                cost += chunk.cost;
+            }
+            splits.add(new FileSplit(path, start, file.getLen() - start,
+                    getSplitHosts(locations, start, file.getLen() - start,
+                            clusterMap)));
+            maxCost = Math.max(maxCost, cost);
+        }
+
+        LOG.info(splits.size() + " splits for " + statuses.size() + " files ("
+                + indexed + " with a sidecar), estimated cost "
+                + Math.round(totalCost) + ", target per split "
+                + Math.round(targetCost) + ", max " + Math.round(maxCost));
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    /**
+     * Returns the chunks of a file from its sidecar or null if it does not
+     * exist or is older than the file
+     **/
+    private List<Chunk> readSidecar(FileSystem fs, FileStatus file,
+            CostModel model, long chunkSize) throws IOException {
+        Path sidecar = getSidecar(file.getPath());
+        if (!fs.exists(sidecar))
+            return null;
+        if (fs.getFileStatus(sidecar).getModificationTime() < file
+                .getModificationTime()) {
+            LOG.warn("Ignoring sidecar older than " + file.getPath());
+            return null;
+        }
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        Chunk current = new Chunk(0);
+        chunks.add(current);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                fs.open(sidecar), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 4)
+                    continue;
+                long position = Long.parseLong(fields[0]);
+                // a split can start at the sync point preceding a record
+                if ("1".equals(fields[1])
+                        && position - current.start >= chunkSize) {
+                    current = new Chunk(position);
+                    chunks.add(current);
+                }
+                current.cost += model.estimate(fields[3],
+                        Long.parseLong(fields[2]));
+            }
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid sidecar " + sidecar, e);
+            return null;
+        } finally {
+            reader.close();
+        }
+        return chunks;
+    }
+
+    /** Chunks of the size of a block with a cost proportional to their size **/
+    private List<Chunk> sizeChunks(FileStatus file, CostModel model) {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        long blockSize = file.getBlockSize();
+        for (long start = 0; start < file.getLen(); start += blockSize) {
+            Chunk chunk = new Chunk(start);
+            chunk.cost = model.getDefaultWeight()
+                    * Math.min(blockSize, file.getLen() - start);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimates the cost of processing a document from its MIME type and size.
+ * The cost is the size of the document plus a fixed overhead
+ * (behemoth.cost.doc.bytes) multiplied by a weight per MIME type. The weights
+ * are learned from the summaries written by the
+ * {@link InstrumentedDocumentProcessor} during previous runs, found in the
+ * files or directories listed in behemoth.cost.metrics, and are expressed in
+ * microseconds per byte. The weights of all the processors found in the
+ * summaries are added up so that the cost of a chain of processors is that
+ * of its stages. MIME types which have not been seen get the weight of all
+ * the documents and, without any summary, all the weights are 1 so that the
+ * cost is proportional to the size.
+ **/
+public class CostModel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostModel.class);
+
+    /** Comma separated list of summaries or directories containing them **/
+    public static final String METRICS_PARAM_NAME = "behemoth.cost.metrics";
+
+    /** Fixed cost of a document expressed in bytes **/
+    public static final String DOC_BYTES_PARAM_NAME = "behemoth.cost.doc.bytes";
+
+    /** Total time, bytes and documents for a processor and MIME type **/
+    private static class Totals {
+        double micros;
+        long bytes;
+        long count;
+    }
+
+    private final long docBytes;
+
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+
+    private double defaultWeight = 1d;
+
+    public CostModel(Configuration conf) throws IOException {
+        docBytes = conf.getLong(DOC_BYTES_PARAM_NAME, 1024);
+        String[] locations = conf.getStrings(METRICS_PARAM_NAME);
+        if (locations == null)
+            return;
+        Map<String, Totals> mimeTypes = new HashMap<String, Totals>();
+        Map<String, Totals> all = new HashMap<String, Totals>();
+        for (String location : locations) {
+            Path path = new Path(location.trim());
+            FileSystem fs = path.getFileSystem(conf);
+            if (!fs.exists(path)) {
+                LOG.warn("Metrics " + path + " not found");
+                continue;
+            }
+            load(fs, fs.getFileStatus(path), mimeTypes, all);
+        }
+        // add up the weights of the processors
+        for (Entry<String, Totals> entry : mimeTypes.entrySet()) {
+            String mimetype = entry.getKey().substring(
+                    entry.getKey().indexOf('\t') + 1);
+            Double weight = weights.get(mimetype);
+            weights.put(mimetype, (weight != null ? weight : 0d)
+                    + getWeight(entry.getValue()));
+        }
+        if (!all.isEmpty()) {
+            defaultWeight = 0d;
+            for (Totals totals : all.values())
+                defaultWeight += getWeight(totals);
+        }
+        LOG.info("Cost weights for " + weights.size()
+                + " MIME types, default " + defaultWeight);
+    }
+
+    private double getWeight(Totals totals) {
+        long bytes = totals.bytes + totals.count * docBytes;
+        if (bytes <= 0)
+            return 0d;
+        return totals.micros / bytes;
+    }
+
+    /** Reads a summary or the summaries found in a directory **/
+    private void load(FileSystem fs, FileStatus status,
+            Map<String, Totals> mimeTypes, Map<String, Totals> all)
+            throws IOException {
+        if (status.isDir()) {
+            for (FileStatus child : fs.listStatus(status.getPath())) {
+                if (child.isDir()
+                        || child.getPath().getName()
+                                .startsWith(InstrumentedDocumentProcessor.SUMMARY_PREFIX))
+                    load(fs, child, mimeTypes, all);
+            }
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                fs.open(status.getPath()), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#"))
+                    continue;
+                // see InstrumentedDocumentProcessor.SUMMARY_HEADER
+                String[] fields = line.split("\t");
+                if (fields.length < 10)
+                    continue;
+                Map<String, Totals> target;
+                String key;
+                if (InstrumentedDocumentProcessor.DIMENSION_MIMETYPE
+                        .equals(fields[1])) {
+                    target = mimeTypes;
+                    key = fields[0] + "\t" + normalize(fields[2]);
+                } else if (InstrumentedDocumentProcessor.DIMENSION_ALL
+                        .equals(fields[1])) {
+                    target = all;
+                    key = fields[0];
+                } else
+                    continue;
+                Totals totals = target.get(key);
+                if (totals == null) {
+                    totals = new Totals();
+                    target.put(key, totals);
+                }
+                try {
+                    long count = Long.parseLong(fields[3]);
+                    totals.count += count;
+                    totals.micros += count * Double.parseDouble(fields[4]);
+                    totals.bytes += Long.parseLong(fields[9]);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid line in " + status.getPath() + " : "
+                            + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Returns the MIME type without its parameters and in lowercase **/
+    public static String normalize(String mimetype) {
+        if (mimetype == null || mimetype.length() == 0)
+            return "unknown";
+        int semicolon = mimetype.indexOf(';');
+        if (semicolon != -1)
+            mimetype = mimetype.substring(0, semicolon);
+        return mimetype.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /** Returns the weight of a MIME type in microseconds per byte **/
+    public double getWeight(String mimetype) {
+        Double weight = weights.get(normalize(mimetype));
+        return weight != null ? weight : defaultWeight;
+    }
+
+    /** Weight used for the MIME types which have not been seen **/
+    public double getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /** Returns the estimated cost of processing a document **/
+    public double estimate(String mimetype, long size) {
+        return getWeight(mimetype) * (size + docBytes);
+    }
+
+    public double estimate(BehemothDocument doc) {
+        return estimate(doc.getContentType(), size(doc));
+    }
+
+    /** Size of the binary content and of the text of a document **/
+    public static long size(BehemothDocument doc) {
+        return InstrumentedDocumentProcessor.size(doc);
+    }
+
+}
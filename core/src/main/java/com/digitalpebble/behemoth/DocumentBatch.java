@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Accumulates documents and their keys until either behemoth.batch.size
+ * documents or behemoth.batch.bytes bytes of content and text have been added.
+ **/
+
+public class DocumentBatch {
+
+    /** Maximum number of documents in a batch, 1 for no batching **/
+    public static final String SIZE_PARAM_NAME = "behemoth.batch.size";
+
+    /** Maximum size of the documents of a batch, 0 for no limit **/
+    public static final String BYTES_PARAM_NAME = "behemoth.batch.bytes";
+
+    private final int maxDocs;
+
+    private final long maxBytes;
+
+    private final List<Text> keys;
+
+    private final List<BehemothDocument> documents;
+
+    private long bytes = 0;
+
+    public DocumentBatch(Configuration conf) {
+        this(conf.getInt(SIZE_PARAM_NAME, 1), conf.getLong(BYTES_PARAM_NAME,
+                0));
+    }
+
+    public DocumentBatch(int maxDocs, long maxBytes) {
+        this.maxDocs = Math.max(1, maxDocs);
+        this.maxBytes = maxBytes;
+        keys = new ArrayList<Text>(this.maxDocs);
+        documents = new ArrayList<BehemothDocument>(this.maxDocs);
+    }
+
+    /** Returns true if the configuration specifies batches of several docs **/
+    public static boolean isRequired(Configuration conf) {
+        return conf.getInt(SIZE_PARAM_NAME, 1) > 1;
+    }
+
+    public void add(Text key, BehemothDocument doc) {
+        keys.add(key);
+        documents.add(doc);
+        bytes += InstrumentedDocumentProcessor.size(doc);
+    }
+
+    /** Returns true if no more documents should be added **/
+    public boolean isFull() {
+        return documents.size() >= maxDocs
+                || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    public boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public List<Text> getKeys() {
+        return keys;
+    }
+
+    public List<BehemothDocument> getDocuments() {
+        return documents;
+    }
+
+    /** Processes the documents of the batch **/
+    public List<BehemothDocument[]> process(DocumentProcessor processor,
+            Reporter reporter) {
+        return process(processor, documents, reporter);
+    }
+
+    /**
+     * Processes a list of documents in a single call if the processor is a
+     * BatchDocumentProcessor or one document at a time otherwise
+     **/
+    public static List<BehemothDocument[]> process(
+            DocumentProcessor processor, List<BehemothDocument> docs,
+            Reporter reporter) {
+        if (processor instanceof BatchDocumentProcessor)
+            return ((BatchDocumentProcessor) processor).processBatch(docs,
+                    reporter);
+        List<BehemothDocument[]> outputs = new ArrayList<BehemothDocument[]>(
+                docs.size());
+        for (BehemothDocument doc : docs)
+            outputs.add(processor.process(doc, reporter));
+        return outputs;
+    }
+
+}
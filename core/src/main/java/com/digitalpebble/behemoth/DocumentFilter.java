@@ -16,6 +16,7 @@
  */
 package com.digitalpebble.behemoth;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -30,13 +31,22 @@ import org.apache.hadoop.io.Writable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.digitalpebble.behemoth.util.URLListFilter;
+
 /**
  * Filters used by Mappers / Reducers to skip Behemoth documents based on their
  * metadata. Can have either positive or negative filters but not both. The
  * filters values are regular expressions and the document will be kept or
  * skipped if it matches ANY of the filters in OR mode or all the constraints if
  * document.filter.md.mode is set to 'AND'. It can filter based on the document
- * URL and or mime-type using regular expressions.
+ * URL and or mime-type using regular expressions. More complex selections
+ * mixing positive and negative constraints can be expressed in a single pass
+ * with a boolean expression set in document.filter.expression. Large lists of
+ * hosts or URL prefixes to keep or skip can be loaded from files (e.g. passed
+ * with -files) and are matched in a time proportional to the length of the
+ * URL.
+ * 
+ * @see com.digitalpebble.behemoth.FilterExpression
  **/
 public class DocumentFilter {
 
@@ -49,6 +59,11 @@ public class DocumentFilter {
     public static final String DocumentFilterParamNameURLFilterKeep = "document.filter.url.keep";
     public static final String DocumentFilterParamNameMimeTypeFilterKeep = "document.filter.mimetype.keep";
     public static final String DocumentFilterParamNameLength = "document.filter.max.content.length";
+    public static final String DocumentFilterParamNameExpression = "document.filter.expression";
+    public static final String DocumentFilterParamNameURLHostsKeep = "document.filter.url.hosts.keep";
+    public static final String DocumentFilterParamNameURLHostsSkip = "document.filter.url.hosts.skip";
+    public static final String DocumentFilterParamNameURLPrefixesKeep = "document.filter.url.prefixes.keep";
+    public static final String DocumentFilterParamNameURLPrefixesSkip = "document.filter.url.prefixes.skip";
 
     private Map<String, String> KVpatterns = new HashMap<String, String>();
 
@@ -62,10 +77,26 @@ public class DocumentFilter {
 
     private String medataMode = "AND";
 
+    private FilterExpression expression;
+
+    private URLListFilter URLHostsKeep;
+
+    private URLListFilter URLHostsSkip;
+
+    private URLListFilter URLPrefixesKeep;
+
+    private URLListFilter URLPrefixesSkip;
+
     /**
      * Checks whether any filters have been specified in the configuration
      **/
     public static boolean isRequired(Configuration conf) {
+        // don't load the lists just to find out whether they are set
+        if (conf.get(DocumentFilterParamNameURLHostsKeep) != null
+                || conf.get(DocumentFilterParamNameURLHostsSkip) != null
+                || conf.get(DocumentFilterParamNameURLPrefixesKeep) != null
+                || conf.get(DocumentFilterParamNameURLPrefixesSkip) != null)
+            return true;
         DocumentFilter filter = DocumentFilter.getFilters(conf);
         if (filter.KVpatterns.size() > 0)
             return true;
@@ -75,16 +106,19 @@ public class DocumentFilter {
             return true;
         if (filter.maxContentLength != -1)
             return true;
+        if (filter.expression != null)
+            return true;
         return false;
     }
 
     /** Builds a document filter given a Configuration object **/
     public static DocumentFilter getFilters(Configuration conf) {
-        // extracts the patterns
-        Map<String, String> PositiveKVpatterns = conf
-                .getValByRegex(DocumentFilterParamNamePrefixKeep + ".+");
-        Map<String, String> NegativeKVpatterns = conf
-                .getValByRegex(DocumentFilterParamNamePrefixSkip + ".+");
+        // extracts the patterns - anchored so that the prefixed filters of
+        // a processor chain are not picked up
+        Map<String, String> PositiveKVpatterns = conf.getValByRegex("^"
+                + DocumentFilterParamNamePrefixKeep + ".+");
+        Map<String, String> NegativeKVpatterns = conf.getValByRegex("^"
+                + DocumentFilterParamNamePrefixSkip + ".+");
 
         Map<String, String> tmpMap;
 
@@ -149,9 +183,48 @@ public class DocumentFilter {
         filter.maxContentLength = conf
                 .getInt(DocumentFilterParamNameLength, -1);
 
+        filter.URLHostsKeep = loadURLList(conf,
+                DocumentFilterParamNameURLHostsKeep, false);
+        filter.URLHostsSkip = loadURLList(conf,
+                DocumentFilterParamNameURLHostsSkip, false);
+        filter.URLPrefixesKeep = loadURLList(conf,
+                DocumentFilterParamNameURLPrefixesKeep, true);
+        filter.URLPrefixesSkip = loadURLList(conf,
+                DocumentFilterParamNameURLPrefixesSkip, true);
+
+        // the expression is compiled once and for all
+        String expressionS = conf.get(DocumentFilterParamNameExpression, "")
+                .trim();
+        if (expressionS.length() > 0) {
+            filter.expression = FilterExpression.parse(expressionS);
+            LOG.info("Filter expression found : " + expressionS);
+        }
+
         return filter;
     }
 
+    private static URLListFilter loadURLList(Configuration conf,
+            String paramName, boolean prefixes) {
+        String location = conf.get(paramName, "").trim();
+        if (location.length() == 0)
+            return null;
+        URLListFilter list;
+        try {
+            if (prefixes)
+                list = URLListFilter.forPrefixes(URLListFilter.readList(conf,
+                        location));
+            else
+                list = URLListFilter.forHosts(URLListFilter.readList(conf,
+                        location));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load URL list " + location
+                    + " for " + paramName, e);
+        }
+        LOG.info("URL list loaded for " + paramName + " : " + list.size()
+                + " entries from " + location);
+        return list;
+    }
+
     /** Returns true if the document can be kept, false otherwise **/
     public boolean keep(BehemothDocument input) {
         // filter if null
@@ -173,6 +246,22 @@ public class DocumentFilter {
                 return false;
         }
 
+        // check on the lists of hosts and prefixes
+        if (URLHostsKeep != null || URLHostsSkip != null
+                || URLPrefixesKeep != null || URLPrefixesSkip != null) {
+            String url = input.getUrl();
+            if (url == null)
+                return false;
+            if (URLHostsKeep != null && !URLHostsKeep.matches(url))
+                return false;
+            if (URLPrefixesKeep != null && !URLPrefixesKeep.matches(url))
+                return false;
+            if (URLHostsSkip != null && URLHostsSkip.matches(url))
+                return false;
+            if (URLPrefixesSkip != null && URLPrefixesSkip.matches(url))
+                return false;
+        }
+
         // check on the MimeType
         if (MimetypeRegex != null) {
             if (input.getContentType() == null)
@@ -183,6 +272,10 @@ public class DocumentFilter {
                 return false;
         }
 
+        // check on the boolean expression
+        if (expression != null && !expression.matches(input))
+            return false;
+
         MapWritable metadata = input.getMetadata();
         // no rules at all -> fine!
         if (KVpatterns.size() == 0)
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+
+/**
+ * Receives the documents produced by a StreamingDocumentProcessor as soon as
+ * they are ready, instead of getting them in the array returned by process().
+ **/
+
+public interface DocumentListener {
+
+    /**
+     * @param input
+     *            the document passed to the processor which produced the
+     *            output
+     **/
+    public void output(BehemothDocument input, BehemothDocument output)
+            throws IOException;
+
+}
@@ -0,0 +1,580 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.digitalpebble.behemoth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Boolean expression evaluated against a BehemothDocument. The expression is
+ * parsed and its regular expressions compiled once, typically when the
+ * DocumentFilter is built for a task, e.g.
+ *
+ * <pre>
+ * md.lang = "en" AND NOT mimetype ~ "image/.*" AND length &lt; 5MB
+ * </pre>
+ *
+ * Fields are <i>url</i>, <i>mimetype</i>, <i>length</i> (of the binary
+ * content), <i>textlength</i>, <i>md.KEY</i> for a metadata value,
+ * <i>annotations</i> for the number of annotations and
+ * <i>annotations.TYPE</i> for the number of annotations of a given type.
+ * Operators are = != ~ (regular expression) !~ &lt; &lt;= &gt; &gt;=,
+ * <i>field IN [min, max]</i> for an inclusive range and <i>EXISTS field</i>.
+ * Terms can be combined with AND, OR, NOT and parentheses. Numbers can have a
+ * K, M or G suffix (powers of 1024).
+ **/
+public abstract class FilterExpression {
+
+    /** Returns true if the document satisfies the expression **/
+    public abstract boolean matches(BehemothDocument doc);
+
+    /**
+     * Parses an expression
+     *
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     **/
+    public static FilterExpression parse(String expression) {
+        Parser parser = new Parser(expression);
+        FilterExpression expr = parser.parseOr();
+        if (parser.peek() != null)
+            throw parser.error("Unexpected token '" + parser.peek().text
+                    + "'");
+        return expr;
+    }
+
+    // ----------------------------------------------------------------------
+    // boolean operators
+    // ----------------------------------------------------------------------
+
+    private static class And extends FilterExpression {
+        private final FilterExpression[] terms;
+
+        And(List<FilterExpression> terms) {
+            this.terms = terms.toArray(new FilterExpression[terms.size()]);
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            for (FilterExpression term : terms) {
+                if (!term.matches(doc))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends FilterExpression {
+        private final FilterExpression[] terms;
+
+        Or(List<FilterExpression> terms) {
+            this.terms = terms.toArray(new FilterExpression[terms.size()]);
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            for (FilterExpression term : terms) {
+                if (term.matches(doc))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class Not extends FilterExpression {
+        private final FilterExpression term;
+
+        Not(FilterExpression term) {
+            this.term = term;
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            return !term.matches(doc);
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // predicates
+    // ----------------------------------------------------------------------
+
+    private static class Exists extends FilterExpression {
+        private final Field field;
+
+        Exists(Field field) {
+            this.field = field;
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            return field.exists(doc);
+        }
+    }
+
+    private static class RegexMatch extends FilterExpression {
+        private final Field field;
+        private final Pattern pattern;
+
+        RegexMatch(Field field, Pattern pattern) {
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            String value = field.stringValue(doc);
+            if (value == null)
+                return false;
+            return pattern.matcher(value).matches();
+        }
+    }
+
+    private static class Equals extends FilterExpression {
+        private final Field field;
+        private final String expected;
+        private final Double expectedNumber;
+
+        Equals(Field field, String expected) {
+            this.field = field;
+            this.expected = expected;
+            this.expectedNumber = field.isNumeric() ? parseNumber(expected)
+                    : null;
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            if (expectedNumber != null) {
+                Double value = field.numericValue(doc);
+                return value != null
+                        && value.doubleValue() == expectedNumber.doubleValue();
+            }
+            String value = field.stringValue(doc);
+            return value != null && value.equals(expected);
+        }
+    }
+
+    private static class Range extends FilterExpression {
+        private final Field field;
+        private final double min;
+        private final double max;
+
+        Range(Field field, double min, double max) {
+            this.field = field;
+            this.min = min;
+            this.max = max;
+        }
+
+        public boolean matches(BehemothDocument doc) {
+            Double value = field.numericValue(doc);
+            if (value == null)
+                return false;
+            return value.doubleValue() >= min && value.doubleValue() <= max;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // fields
+    // ----------------------------------------------------------------------
+
+    private static abstract class Field {
+
+        /** Returns the value as a String or null if not set **/
+        abstract String stringValue(BehemothDocument doc);
+
+        boolean exists(BehemothDocument doc) {
+            return stringValue(doc) != null;
+        }
+
+        boolean isNumeric() {
+            return false;
+        }
+
+        Double numericValue(BehemothDocument doc) {
+            String value = stringValue(doc);
+            if (value == null)
+                return null;
+            return parseNumber(value.trim());
+        }
+
+        static Field forName(String name) {
+            String lname = name.toLowerCase(Locale.ENGLISH);
+            if (lname.equals("url"))
+                return new Field() {
+                    String stringValue(BehemothDocument doc) {
+                        return doc.getUrl();
+                    }
+                };
+            if (lname.equals("mimetype"))
+                return new Field() {
+                    String stringValue(BehemothDocument doc) {
+                        return doc.getContentType();
+                    }
+                };
+            if (lname.equals("length"))
+                return new NumericField() {
+                    long value(BehemothDocument doc) {
+                        return doc.getContent() == null ? -1
+                                : doc.getContent().length;
+                    }
+                };
+            if (lname.equals("textlength"))
+                return new NumericField() {
+                    long value(BehemothDocument doc) {
+                        return doc.getText() == null ? -1 : doc.getText()
+                                .length();
+                    }
+                };
+            if (lname.equals("annotations"))
+                return new NumericField() {
+                    long value(BehemothDocument doc) {
+                        return doc.getAnnotations().size();
+                    }
+                };
+            if (lname.startsWith("annotations.")
+                    && name.length() > "annotations.".length())
+                return new AnnotationCountField(name.substring("annotations."
+                        .length()));
+            if (lname.startsWith("md.") && name.length() > "md.".length())
+                return new MetadataField(name.substring("md.".length()));
+            return null;
+        }
+    }
+
+    /** A field with a numerical value, -1 meaning that it is not set **/
+    private static abstract class NumericField extends Field {
+
+        abstract long value(BehemothDocument doc);
+
+        String stringValue(BehemothDocument doc) {
+            long value = value(doc);
+            return value == -1 ? null : Long.toString(value);
+        }
+
+        boolean isNumeric() {
+            return true;
+        }
+
+        Double numericValue(BehemothDocument doc) {
+            long value = value(doc);
+            return value == -1 ? null : Double.valueOf(value);
+        }
+    }
+
+    private static class AnnotationCountField extends NumericField {
+        private final String type;
+
+        AnnotationCountField(String type) {
+            this.type = type;
+        }
+
+        long value(BehemothDocument doc) {
+            long count = 0;
+            for (Annotation annot : doc.getAnnotations()) {
+                if (type.equals(annot.getType()))
+                    count++;
+            }
+            return count;
+        }
+    }
+
+    private static class MetadataField extends Field {
+        private final Text key;
+
+        MetadataField(String key) {
+            this.key = new Text(key);
+        }
+
+        String stringValue(BehemothDocument doc) {
+            MapWritable metadata = doc.getMetadata();
+            if (metadata == null)
+                return null;
+            Writable value = metadata.get(key);
+            if (value == null)
+                return null;
+            return value.toString();
+        }
+
+        boolean exists(BehemothDocument doc) {
+            MapWritable metadata = doc.getMetadata();
+            return metadata != null && metadata.containsKey(key);
+        }
+    }
+
+    /**
+     * Returns the numerical value of a String possibly ending with a K, M or G
+     * suffix (optionally followed by B) or null if it is not a number
+     **/
+    static Double parseNumber(String s) {
+        if (s == null || s.length() == 0)
+            return null;
+        String upper = s.toUpperCase(Locale.ENGLISH);
+        if (upper.endsWith("B") && upper.length() > 1
+                && "KMG".indexOf(upper.charAt(upper.length() - 2)) != -1)
+            upper = upper.substring(0, upper.length() - 1);
+        double multiplier = 1;
+        char last = upper.charAt(upper.length() - 1);
+        if (last == 'K')
+            multiplier = 1024d;
+        else if (last == 'M')
+            multiplier = 1024d * 1024d;
+        else if (last == 'G')
+            multiplier = 1024d * 1024d * 1024d;
+        if (multiplier != 1)
+            upper = upper.substring(0, upper.length() - 1);
+        try {
+            return Double.valueOf(Double.parseDouble(upper) * multiplier);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // tokenizer and recursive descent parser
+    // ----------------------------------------------------------------------
+
+    private static class Token {
+        final String text;
+        // true if the token was a quoted string
+        final boolean quoted;
+        final int position;
+
+        Token(String text, boolean quoted, int position) {
+            this.text = text;
+            this.quoted = quoted;
+            this.position = position;
+        }
+
+        boolean is(String keyword) {
+            return !quoted && text.equalsIgnoreCase(keyword);
+        }
+    }
+
+    private static class Parser {
+
+        private static final String OPERATORS = "=!~<>";
+
+        private final String expression;
+        private final List<Token> tokens = new ArrayList<Token>();
+        private int current = 0;
+
+        Parser(String expression) {
+            this.expression = expression;
+            tokenize();
+        }
+
+        private void tokenize() {
+            int i = 0;
+            int length = expression.length();
+            while (i < length) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"' || c == '\'') {
+                    StringBuilder value = new StringBuilder();
+                    int start = i++;
+                    boolean closed = false;
+                    while (i < length) {
+                        char q = expression.charAt(i++);
+                        if (q == '\\' && i < length) {
+                            value.append(expression.charAt(i++));
+                        } else if (q == c) {
+                            closed = true;
+                            break;
+                        } else
+                            value.append(q);
+                    }
+                    if (!closed)
+                        throw new IllegalArgumentException(
+                                "Unterminated string at position " + start
+                                        + " in filter expression '"
+                                        + expression + "'");
+                    tokens.add(new Token(value.toString(), true, start));
+                } else if (c == '(' || c == ')' || c == '[' || c == ']'
+                        || c == ',') {
+                    tokens.add(new Token(String.valueOf(c), false, i));
+                    i++;
+                } else if (OPERATORS.indexOf(c) != -1) {
+                    int start = i++;
+                    if (i < length && expression.charAt(i) == '='
+                            && c != '=' && c != '~')
+                        i++;
+                    else if (i < length && c == '!'
+                            && expression.charAt(i) == '~')
+                        i++;
+                    tokens.add(new Token(expression.substring(start, i),
+                            false, start));
+                } else {
+                    int start = i;
+                    while (i < length) {
+                        char w = expression.charAt(i);
+                        if (Character.isWhitespace(w) || w == '"' || w == '\''
+                                || "()[],".indexOf(w) != -1
+                                || OPERATORS.indexOf(w) != -1)
+                            break;
+                        i++;
+                    }
+                    tokens.add(new Token(expression.substring(start, i),
+                            false, start));
+                }
+            }
+        }
+
+        Token peek() {
+            if (current < tokens.size())
+                return tokens.get(current);
+            return null;
+        }
+
+        Token next() {
+            Token token = peek();
+            if (token == null)
+                throw error("Unexpected end of expression");
+            current++;
+            return token;
+        }
+
+        void expect(String text) {
+            Token token = next();
+            if (!token.is(text))
+                throw error("Expected '" + text + "' but found '" + token.text
+                        + "'");
+        }
+
+        IllegalArgumentException error(String message) {
+            Token token = peek();
+            int position = token != null ? token.position : expression
+                    .length();
+            return new IllegalArgumentException(message + " at position "
+                    + position + " in filter expression '" + expression + "'");
+        }
+
+        FilterExpression parseOr() {
+            List<FilterExpression> terms = new ArrayList<FilterExpression>();
+            terms.add(parseAnd());
+            while (peek() != null && peek().is("OR")) {
+                current++;
+                terms.add(parseAnd());
+            }
+            if (terms.size() == 1)
+                return terms.get(0);
+            return new Or(terms);
+        }
+
+        FilterExpression parseAnd() {
+            List<FilterExpression> terms = new ArrayList<FilterExpression>();
+            terms.add(parseNot());
+            while (peek() != null && peek().is("AND")) {
+                current++;
+                terms.add(parseNot());
+            }
+            if (terms.size() == 1)
+                return terms.get(0);
+            return new And(terms);
+        }
+
+        FilterExpression parseNot() {
+            if (peek() != null && peek().is("NOT")) {
+                current++;
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        FilterExpression parsePrimary() {
+            Token token = peek();
+            if (token == null)
+                throw error("Unexpected end of expression");
+            if (token.is("(")) {
+                current++;
+                FilterExpression expr = parseOr();
+                expect(")");
+                return expr;
+            }
+            if (token.is("EXISTS")) {
+                current++;
+                return new Exists(parseField());
+            }
+            Field field = parseField();
+            Token operator = next();
+            if (operator.is("IN")) {
+                expect("[");
+                double min = parseNumericValue();
+                expect(",");
+                double max = parseNumericValue();
+                expect("]");
+                return new Range(field, min, max);
+            }
+            if (operator.quoted)
+                throw error("Expected an operator but found '" + operator.text
+                        + "'");
+            String op = operator.text;
+            if (op.equals("=") || op.equals("!=")) {
+                FilterExpression expr = new Equals(field, next().text);
+                return op.equals("=") ? expr : new Not(expr);
+            }
+            if (op.equals("~") || op.equals("!~")) {
+                Token value = next();
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(value.text);
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException(
+                            "Invalid regular expression '" + value.text
+                                    + "' in filter expression '" + expression
+                                    + "'", e);
+                }
+                FilterExpression expr = new RegexMatch(field, pattern);
+                return op.equals("~") ? expr : new Not(expr);
+            }
+            double bound = parseNumericValue();
+            if (op.equals("<"))
+                return new Range(field, Double.NEGATIVE_INFINITY,
+                        Math.nextAfter(bound, Double.NEGATIVE_INFINITY));
+            if (op.equals("<="))
+                return new Range(field, Double.NEGATIVE_INFINITY, bound);
+            if (op.equals(">"))
+                return new Range(field, Math.nextUp(bound),
+                        Double.POSITIVE_INFINITY);
+            if (op.equals(">="))
+                return new Range(field, bound, Double.POSITIVE_INFINITY);
+            current--;
+            throw error("Unknown operator '" + op + "'");
+        }
+
+        Field parseField() {
+            Token token = next();
+            Field field = token.quoted ? null : Field.forName(token.text);
+            if (field == null) {
+                current--;
+                throw error("Unknown field '" + token.text + "'");
+            }
+            return field;
+        }
+
+        double parseNumericValue() {
+            Token token = next();
+            Double value = parseNumber(token.text);
+            if (value == null) {
+                current--;
+                throw error("Expected a number but found '" + token.text + "'");
+            }
+            return value.doubleValue();
+        }
+    }
+
+}
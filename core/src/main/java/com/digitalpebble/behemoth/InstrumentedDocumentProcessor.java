@@ -0,0 +1,367 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.util.LatencyHistogram;
+
+/**
+ * Wraps a DocumentProcessor and records the time spent processing each
+ * document in latency histograms, for all the documents and broken down by
+ * MIME type and size, along with the bytes in and out and the number of
+ * annotations created. The totals are reported as counters in the group
+ * "Metrics [name of the processor]". When all the instances of a task have
+ * been closed, a summary of the histograms is written to the file
+ * _metrics-[task id] in the directory set by behemoth.metrics.dir or in the
+ * work output directory of the task. The summary is a tab separated file with
+ * one line per processor and breakdown, the fields being listed in
+ * {@link #SUMMARY_HEADER}. Latencies are in microseconds; when a batch of
+ * documents is processed in a single call, its time is divided evenly between
+ * its documents.
+ **/
+
+public class InstrumentedDocumentProcessor implements BatchDocumentProcessor,
+        StreamingDocumentProcessor {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(InstrumentedDocumentProcessor.class);
+
+    /** Activates the instrumentation of the processors **/
+    public static final String METRICS_PARAM_NAME = "behemoth.metrics";
+
+    /** Directory where the summaries are written **/
+    public static final String METRICS_DIR_PARAM_NAME = "behemoth.metrics.dir";
+
+    public static final String SUMMARY_PREFIX = "_metrics-";
+
+    public static final String SUMMARY_HEADER = "#processor\tdimension\tvalue\tcount\tmean\tp50\tp90\tp99\tmax\tbytes_in\tbytes_out\tannotations";
+
+    public static final String DIMENSION_ALL = "all";
+    public static final String DIMENSION_MIMETYPE = "mimetype";
+    public static final String DIMENSION_SIZE = "size";
+
+    /** Above this number of MIME types, the others are grouped together **/
+    private static final int MAX_MIMETYPES = 100;
+
+    private static final long[] SIZE_BOUNDARIES = { 1024L, 10 * 1024L,
+            100 * 1024L, 1024 * 1024L, 10 * 1024 * 1024L };
+
+    private static final String[] SIZE_LABELS = { "0-1K", "1K-10K",
+            "10K-100K", "100K-1M", "1M-10M", "10M+" };
+
+    /** Metrics of the instances of a task closed so far **/
+    private static final Map<String, Stats> closedStats = new TreeMap<String, Stats>();
+
+    private static int openInstances = 0;
+
+    /** Latencies and volumes for one processor and breakdown **/
+    static class Stats {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long bytesIn;
+        long bytesOut;
+        long annotations;
+
+        void add(Stats other) {
+            latencies.add(other.latencies);
+            bytesIn += other.bytesIn;
+            bytesOut += other.bytesOut;
+            annotations += other.annotations;
+        }
+    }
+
+    private final DocumentProcessor delegate;
+
+    private final String name;
+
+    private final String counterGroup;
+
+    private final Map<String, Stats> stats = new HashMap<String, Stats>();
+
+    private int numMimeTypes = 0;
+
+    private Configuration config;
+
+    private boolean closed = false;
+
+    public InstrumentedDocumentProcessor(DocumentProcessor delegate) {
+        this.delegate = delegate;
+        DocumentProcessor named = delegate;
+        if (named instanceof CachingDocumentProcessor)
+            named = ((CachingDocumentProcessor) named).getDelegate();
+        if (named instanceof TimeLimitedDocumentProcessor)
+            named = ((TimeLimitedDocumentProcessor) named).getDelegate();
+        this.name = named.getClass().getSimpleName();
+        this.counterGroup = "Metrics " + name;
+        this.config = delegate.getConf();
+        synchronized (closedStats) {
+            openInstances++;
+        }
+    }
+
+    /**
+     * Returns the processor wrapped in an InstrumentedDocumentProcessor if
+     * behemoth.metrics is true, the processor itself otherwise
+     **/
+    public static DocumentProcessor wrap(DocumentProcessor processor,
+            Configuration conf) {
+        if (!conf.getBoolean(METRICS_PARAM_NAME, false)
+                || processor instanceof InstrumentedDocumentProcessor)
+            return processor;
+        InstrumentedDocumentProcessor instrumented = new InstrumentedDocumentProcessor(
+                processor);
+        instrumented.config = conf;
+        return instrumented;
+    }
+
+    /** Returns the processor being instrumented **/
+    public DocumentProcessor getDelegate() {
+        return delegate;
+    }
+
+    public Configuration getConf() {
+        return config;
+    }
+
+    /** The delegate is expected to be configured already **/
+    public void setConf(Configuration conf) {
+        config = conf;
+    }
+
+    /** The outputs streamed by the delegate are not instrumented **/
+    public boolean setListener(DocumentListener listener) {
+        return delegate instanceof StreamingDocumentProcessor
+                && ((StreamingDocumentProcessor) delegate)
+                        .setListener(listener);
+    }
+
+    public BehemothDocument[] process(BehemothDocument inputDoc,
+            Reporter reporter) {
+        // the processors modify the document in place
+        long bytesIn = size(inputDoc);
+        int annotationsIn = inputDoc.getAnnotations().size();
+        String mimetype = inputDoc.getContentType();
+
+        long start = System.nanoTime();
+        BehemothDocument[] outputs = delegate.process(inputDoc, reporter);
+        long micros = (System.nanoTime() - start) / 1000;
+
+        record(outputs, micros, bytesIn, annotationsIn, mimetype, reporter);
+        return outputs;
+    }
+
+    public List<BehemothDocument[]> processBatch(
+            List<BehemothDocument> inputDocs, Reporter reporter) {
+        if (!(delegate instanceof BatchDocumentProcessor)) {
+            List<BehemothDocument[]> outputs = new ArrayList<BehemothDocument[]>(
+                    inputDocs.size());
+            for (BehemothDocument inputDoc : inputDocs)
+                outputs.add(process(inputDoc, reporter));
+            return outputs;
+        }
+
+        int num = inputDocs.size();
+        long[] bytesIn = new long[num];
+        int[] annotationsIn = new int[num];
+        String[] mimetypes = new String[num];
+        for (int i = 0; i < num; i++) {
+            BehemothDocument inputDoc = inputDocs.get(i);
+            bytesIn[i] = size(inputDoc);
+            annotationsIn[i] = inputDoc.getAnnotations().size();
+            mimetypes[i] = inputDoc.getContentType();
+        }
+
+        long start = System.nanoTime();
+        List<BehemothDocument[]> outputs = ((BatchDocumentProcessor) delegate)
+                .processBatch(inputDocs, reporter);
+        long micros = (System.nanoTime() - start) / 1000 / Math.max(1, num);
+
+        for (int i = 0; i < num; i++)
+            record(outputs.get(i), micros, bytesIn[i], annotationsIn[i],
+                    mimetypes[i], reporter);
+        return outputs;
+    }
+
+    private void record(BehemothDocument[] outputs, long micros,
+            long bytesIn, int annotationsIn, String mimetype,
+            Reporter reporter) {
+        long bytesOut = 0;
+        long annotations = -annotationsIn;
+        if (outputs != null) {
+            for (BehemothDocument output : outputs) {
+                bytesOut += size(output);
+                annotations += output.getAnnotations().size();
+                if (mimetype == null)
+                    mimetype = output.getContentType();
+            }
+        }
+        if (annotations < 0)
+            annotations = 0;
+
+        record(DIMENSION_ALL, "*", micros, bytesIn, bytesOut, annotations);
+        record(DIMENSION_MIMETYPE, mimeTypeKey(mimetype), micros, bytesIn,
+                bytesOut, annotations);
+        record(DIMENSION_SIZE, sizeBucket(bytesIn), micros, bytesIn,
+                bytesOut, annotations);
+
+        if (reporter != null) {
+            reporter.incrCounter(counterGroup, "DOCS", 1);
+            reporter.incrCounter(counterGroup, "TIME MICROS", micros);
+            reporter.incrCounter(counterGroup, "BYTES IN", bytesIn);
+            reporter.incrCounter(counterGroup, "BYTES OUT", bytesOut);
+            reporter.incrCounter(counterGroup, "ANNOTATIONS", annotations);
+        }
+    }
+
+    /** Size of the binary content and of the text of a document **/
+    static long size(BehemothDocument doc) {
+        long size = 0;
+        if (doc.getContent() != null)
+            size += doc.getContent().length;
+        if (doc.getText() != null)
+            size += doc.getText().length();
+        return size;
+    }
+
+    static String sizeBucket(long size) {
+        for (int i = 0; i < SIZE_BOUNDARIES.length; i++) {
+            if (size < SIZE_BOUNDARIES[i])
+                return SIZE_LABELS[i];
+        }
+        return SIZE_LABELS[SIZE_LABELS.length - 1];
+    }
+
+    private String mimeTypeKey(String mimetype) {
+        if (mimetype == null || mimetype.length() == 0)
+            return "unknown";
+        // remove the parameters e.g. charset
+        int semicolon = mimetype.indexOf(';');
+        if (semicolon != -1)
+            mimetype = mimetype.substring(0, semicolon).trim();
+        if (stats.containsKey(DIMENSION_MIMETYPE + "\t" + mimetype))
+            return mimetype;
+        if (numMimeTypes >= MAX_MIMETYPES)
+            return "other";
+        numMimeTypes++;
+        return mimetype;
+    }
+
+    private void record(String dimension, String value, long micros,
+            long bytesIn, long bytesOut, long annotations) {
+        String key = dimension + "\t" + value;
+        Stats s = stats.get(key);
+        if (s == null) {
+            s = new Stats();
+            stats.put(key, s);
+        }
+        s.latencies.record(micros);
+        s.bytesIn += bytesIn;
+        s.bytesOut += bytesOut;
+        s.annotations += annotations;
+    }
+
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            delegate.close();
+        } finally {
+            Map<String, Stats> toWrite = null;
+            synchronized (closedStats) {
+                for (Entry<String, Stats> entry : stats.entrySet()) {
+                    String key = name + "\t" + entry.getKey();
+                    Stats s = closedStats.get(key);
+                    if (s == null) {
+                        s = new Stats();
+                        closedStats.put(key, s);
+                    }
+                    s.add(entry.getValue());
+                }
+                openInstances--;
+                if (openInstances == 0 && !closedStats.isEmpty()) {
+                    toWrite = new TreeMap<String, Stats>(closedStats);
+                    closedStats.clear();
+                }
+            }
+            if (toWrite != null)
+                writeSummary(toWrite);
+        }
+    }
+
+    private void writeSummary(Map<String, Stats> summary) {
+        for (Entry<String, Stats> entry : summary.entrySet()) {
+            if (entry.getKey().endsWith(DIMENSION_ALL + "\t*"))
+                LOG.info(entry.getKey().replace("\t*", "").replace('\t', ' ')
+                        + " : " + entry.getValue().latencies);
+        }
+        String dir = config.get(METRICS_DIR_PARAM_NAME,
+                config.get("mapred.work.output.dir"));
+        if (dir == null)
+            return;
+        String task = config.get("mapred.task.id", "local");
+        Writer writer = null;
+        try {
+            Path path = new Path(dir, SUMMARY_PREFIX + task);
+            FileSystem fs = path.getFileSystem(config);
+            for (int i = 1; fs.exists(path); i++)
+                path = new Path(dir, SUMMARY_PREFIX + task + "-" + i);
+            writer = new OutputStreamWriter(fs.create(path), "UTF-8");
+            writer.write(SUMMARY_HEADER);
+            writer.write('\n');
+            for (Entry<String, Stats> entry : summary.entrySet()) {
+                Stats s = entry.getValue();
+                LatencyHistogram h = s.latencies;
+                writer.write(entry.getKey() + "\t" + h.getCount() + "\t"
+                        + Math.round(h.getMean()) + "\t"
+                        + h.getValueAtPercentile(50) + "\t"
+                        + h.getValueAtPercentile(90) + "\t"
+                        + h.getValueAtPercentile(99) + "\t" + h.getMax()
+                        + "\t" + s.bytesIn + "\t" + s.bytesOut + "\t"
+                        + s.annotations + "\n");
+            }
+            LOG.info("Metrics written to " + path);
+        } catch (IOException e) {
+            LOG.error("Can't write metrics summary to " + dir, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    LOG.error("Can't close metrics summary", e);
+                }
+            }
+        }
+    }
+
+}
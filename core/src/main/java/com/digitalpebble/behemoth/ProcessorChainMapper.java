@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Processes the documents with a {@link ChainedDocumentProcessor} and writes
+ * only the output of its last stage, filtered with the DocumentFilter of the
+ * job if any.
+ **/
+
+public class ProcessorChainMapper extends MapReduceBase implements
+        Mapper<Text, BehemothDocument, Text, BehemothDocument> {
+
+    private ChainedDocumentProcessor processor;
+
+    private DocumentFilter filter;
+
+    private boolean doFilter;
+
+    public void configure(JobConf job) {
+        processor = new ChainedDocumentProcessor();
+        processor.setConf(job);
+        filter = DocumentFilter.getFilters(job);
+        doFilter = DocumentFilter.isRequired(job);
+    }
+
+    public void map(Text key, BehemothDocument inputDoc,
+            OutputCollector<Text, BehemothDocument> output, Reporter reporter)
+            throws IOException {
+        BehemothDocument[] documents = processor.process(inputDoc, reporter);
+        for (BehemothDocument doc : documents) {
+            if (doFilter && !filter.keep(doc)) {
+                reporter.incrCounter("ProcessorChain",
+                        "DOC SKIPPED BY FILTERS", 1);
+                continue;
+            }
+            output.collect(key, doc);
+        }
+    }
+
+    public void close() throws IOException {
+        processor.close();
+    }
+
+}
@@ -0,0 +1,517 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MapRunnable which processes the documents of a split with several threads,
+ * each of them using its own instance of a DocumentProcessor. The processor is
+ * set with behemoth.processor.class, which can be either a DocumentProcessor
+ * or a DocumentProcessorFactory. At most behemoth.runner.queue.size documents
+ * are read ahead of the output and the order of the input is preserved unless
+ * behemoth.runner.ordered is set to false. The counters of the processors are
+ * buffered per document and aggregated by the main thread. If
+ * behemoth.batch.size is greater than 1, the documents are passed to the
+ * processors in batches (see {@link DocumentBatch}) and the queue size is
+ * expressed in batches. If behemoth.runner.lookahead is greater than 1, that
+ * number of batches is read ahead and they are submitted to the threads by
+ * decreasing estimated cost (see {@link CostModel}), so that a few large
+ * documents at the end of a split do not keep a single thread busy while the
+ * others are idle. The output is still written in the order of the input in
+ * ordered mode. The outputs streamed by a {@link StreamingDocumentProcessor}
+ * (e.g. the documents embedded in an archive) are written as soon as they are
+ * produced, or in ordered mode as soon as the documents before the one they
+ * come from have been written.
+ **/
+
+public class ProcessorMapRunner implements
+        MapRunnable<Text, BehemothDocument, Text, BehemothDocument> {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ProcessorMapRunner.class);
+
+    public static final String PROCESSOR_PARAM_NAME = "behemoth.processor.class";
+    public static final String THREADS_PARAM_NAME = "behemoth.runner.threads";
+    public static final String QUEUE_SIZE_PARAM_NAME = "behemoth.runner.queue.size";
+    public static final String ORDERED_PARAM_NAME = "behemoth.runner.ordered";
+    public static final String LOOKAHEAD_PARAM_NAME = "behemoth.runner.lookahead";
+
+    private JobConf job;
+
+    private int numThreads;
+
+    private int maxInFlight;
+
+    private boolean ordered;
+
+    private int lookahead;
+
+    private CostModel costModel;
+
+    private DocumentFilter filter;
+
+    private boolean doFilter;
+
+    /** All the processors created so far, closed at the end of the task **/
+    private final List<DocumentProcessor> processors = new ArrayList<DocumentProcessor>();
+
+    private final ThreadLocal<Worker> localWorker = new ThreadLocal<Worker>() {
+        protected Worker initialValue() {
+            return createWorker();
+        }
+    };
+
+    /** Held while writing the output **/
+    private final Object outputLock = new Object();
+
+    private OutputCollector<Text, BehemothDocument> output;
+
+    /** Number of tasks created so far **/
+    private long numTasks = 0;
+
+    /** Sequence of the last task written in ordered mode **/
+    private long written = -1;
+
+    /**
+     * Sets the processor class used by the runner and uses the runner instead
+     * of the mapper of the job if more than one thread has been specified with
+     * behemoth.runner.threads or batches with behemoth.batch.size
+     * 
+     * @param processorClass
+     *            a DocumentProcessor or DocumentProcessorFactory
+     * @return true if the job will use the runner
+     **/
+    public static boolean configure(JobConf job, Class<?> processorClass) {
+        job.set(PROCESSOR_PARAM_NAME, processorClass.getName());
+        if (job.getInt(THREADS_PARAM_NAME, 1) <= 1
+                && !DocumentBatch.isRequired(job))
+            return false;
+        job.setMapRunnerClass(ProcessorMapRunner.class);
+        return true;
+    }
+
+    /**
+     * Returns a new DocumentProcessor given the name of a class implementing
+     * either DocumentProcessor or DocumentProcessorFactory, with a time limit
+     * per document if behemoth.processor.timeout is set, a cache of its
+     * outputs if behemoth.cache.dir is set and instrumented if
+     * behemoth.metrics is true. A ChainedDocumentProcessor is returned as is
+     * as each of its stages is wrapped individually.
+     **/
+    public static DocumentProcessor newProcessor(Configuration conf,
+            String className) {
+        DocumentProcessorFactory factory = getFactory(conf, className);
+        DocumentProcessor processor = factory.newProcessor(conf);
+        if (processor instanceof ChainedDocumentProcessor)
+            return processor;
+        processor = TimeLimitedDocumentProcessor.wrap(processor, factory, conf);
+        processor = CachingDocumentProcessor.wrap(processor, conf);
+        return InstrumentedDocumentProcessor.wrap(processor, conf);
+    }
+
+    /**
+     * Returns a factory for the name of a class implementing either
+     * DocumentProcessor or DocumentProcessorFactory
+     **/
+    public static DocumentProcessorFactory getFactory(Configuration conf,
+            String className) {
+        final Class<?> clazz;
+        try {
+            clazz = conf.getClassByName(className);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Can't find processor class "
+                    + className, e);
+        }
+        if (DocumentProcessorFactory.class.isAssignableFrom(clazz)) {
+            return (DocumentProcessorFactory) ReflectionUtils.newInstance(
+                    clazz, null);
+        }
+        if (DocumentProcessor.class.isAssignableFrom(clazz)) {
+            return new DocumentProcessorFactory() {
+                public DocumentProcessor newProcessor(Configuration conf) {
+                    // calls setConf()
+                    return (DocumentProcessor) ReflectionUtils.newInstance(
+                            clazz, conf);
+                }
+            };
+        }
+        throw new RuntimeException(className
+                + " is neither a DocumentProcessor nor a DocumentProcessorFactory");
+    }
+
+    public void configure(JobConf job) {
+        this.job = job;
+        numThreads = Math.max(1, job.getInt(THREADS_PARAM_NAME, 1));
+        maxInFlight = Math.max(numThreads,
+                job.getInt(QUEUE_SIZE_PARAM_NAME, numThreads * 2));
+        ordered = job.getBoolean(ORDERED_PARAM_NAME, true);
+        lookahead = job.getInt(LOOKAHEAD_PARAM_NAME, 0);
+        if (lookahead > 1) {
+            try {
+                costModel = new CostModel(job);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't load the cost model", e);
+            }
+            // the batches read ahead are submitted together
+            maxInFlight = Math.max(maxInFlight, lookahead);
+        }
+        filter = DocumentFilter.getFilters(job);
+        doFilter = DocumentFilter.isRequired(job);
+        if (job.get(PROCESSOR_PARAM_NAME) == null)
+            throw new RuntimeException(PROCESSOR_PARAM_NAME + " not set");
+        LOG.info("Processing with " + numThreads + " threads, "
+                + maxInFlight + " batches of at most "
+                + Math.max(1, job.getInt(DocumentBatch.SIZE_PARAM_NAME, 1))
+                + " documents in flight, ordered : " + ordered
+                + ", lookahead : " + lookahead);
+    }
+
+    /** Called once by each thread **/
+    private Worker createWorker() {
+        // the initialisation of some processors is not thread safe
+        synchronized (processors) {
+            long start = System.currentTimeMillis();
+            DocumentProcessor processor = newProcessor(job,
+                    job.get(PROCESSOR_PARAM_NAME));
+            processors.add(processor);
+            LOG.info("Processor " + processors.size() + " initialised in "
+                    + (System.currentTimeMillis() - start) + " msec");
+            Worker worker = new Worker(processor);
+            if (processor instanceof StreamingDocumentProcessor
+                    && ((StreamingDocumentProcessor) processor)
+                            .setListener(worker)) {
+                worker.streaming = true;
+                LOG.info("Streaming the outputs of processor "
+                        + processors.size());
+            }
+            return worker;
+        }
+    }
+
+    /**
+     * Processor of a thread, which receives the outputs it streams for the
+     * task being processed
+     **/
+    private class Worker implements DocumentListener {
+        final DocumentProcessor processor;
+        boolean streaming = false;
+        /** set by the thread, read by the one of a time limited processor **/
+        volatile Task task;
+
+        Worker(DocumentProcessor processor) {
+            this.processor = processor;
+        }
+
+        public void output(BehemothDocument input, BehemothDocument doc)
+                throws IOException {
+            Task current = task;
+            Text key = current.getKey(input);
+            synchronized (outputLock) {
+                if (!ordered || written == current.seq - 1) {
+                    current.flushStreamed();
+                    write(key, doc, current.counters);
+                } else {
+                    current.streamedKeys.add(key);
+                    current.streamedDocs.add(doc);
+                }
+            }
+        }
+    }
+
+    private static class Result {
+        final Task task;
+        final List<Text> keys;
+        final List<BehemothDocument[]> documents;
+        final BufferedReporter counters;
+
+        Result(Task task, List<Text> keys, List<BehemothDocument[]> documents,
+                BufferedReporter counters) {
+            this.task = task;
+            this.keys = keys;
+            this.documents = documents;
+            this.counters = counters;
+        }
+    }
+
+    private class Task implements Callable<Result> {
+        private final DocumentBatch batch;
+        private final Reporter reporter;
+        private final long seq;
+        private double cost;
+        private volatile BufferedReporter counters;
+        /** outputs streamed before the previous tasks were written **/
+        private final List<Text> streamedKeys = new ArrayList<Text>(0);
+        private final List<BehemothDocument> streamedDocs = new ArrayList<BehemothDocument>(
+                0);
+
+        Task(DocumentBatch batch, Reporter reporter) {
+            this.batch = batch;
+            this.reporter = reporter;
+            this.seq = numTasks++;
+            if (costModel != null) {
+                for (BehemothDocument doc : batch.getDocuments())
+                    cost += costModel.estimate(doc);
+            }
+        }
+
+        public Result call() throws Exception {
+            counters = new BufferedReporter(reporter);
+            Worker worker = localWorker.get();
+            worker.task = this;
+            try {
+                List<BehemothDocument[]> outputs = batch.process(
+                        worker.processor, counters);
+                return new Result(this, batch.getKeys(), outputs, counters);
+            } finally {
+                worker.task = null;
+            }
+        }
+
+        /** Returns the key of an input document of the batch **/
+        Text getKey(BehemothDocument input) throws IOException {
+            List<BehemothDocument> docs = batch.getDocuments();
+            for (int i = 0; i < docs.size(); i++) {
+                if (docs.get(i) == input)
+                    return batch.getKeys().get(i);
+            }
+            throw new IOException("Output streamed for an unknown document "
+                    + input.getUrl());
+        }
+
+        /** Writes the outputs streamed so far, called with the output lock **/
+        void flushStreamed() throws IOException {
+            for (int i = 0; i < streamedDocs.size(); i++)
+                write(streamedKeys.get(i), streamedDocs.get(i), counters);
+            streamedKeys.clear();
+            streamedDocs.clear();
+        }
+    }
+
+    public void run(RecordReader<Text, BehemothDocument> input,
+            OutputCollector<Text, BehemothDocument> output, Reporter reporter)
+            throws IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "processor-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        CompletionService<Result> completion = new ExecutorCompletionService<Result>(
+                executor);
+        this.output = output;
+        // futures in the order of the input, used in ordered mode only
+        LinkedList<Future<Result>> pending = new LinkedList<Future<Result>>();
+        // batches read ahead and not submitted yet
+        List<Task> readAhead = new ArrayList<Task>();
+        int inFlight = 0;
+
+        try {
+            Text key = input.createKey();
+            BehemothDocument value = input.createValue();
+            DocumentBatch batch = new DocumentBatch(job);
+            boolean more = true;
+            while (more) {
+                more = input.next(key, value);
+                if (more) {
+                    batch.add(key, value);
+                    // new instances as the previous ones are being processed
+                    key = input.createKey();
+                    value = input.createValue();
+                }
+                if (batch.isEmpty() || (more && !batch.isFull()))
+                    continue;
+                readAhead.add(new Task(batch, reporter));
+                batch = new DocumentBatch(job);
+                if (more && readAhead.size() < lookahead)
+                    continue;
+                submit(readAhead, executor, completion, pending);
+                inFlight += readAhead.size();
+                readAhead.clear();
+                // write out what is ready, block if the window is full
+                while (inFlight > 0) {
+                    Future<Result> done = nextDone(completion, pending,
+                            inFlight >= maxInFlight);
+                    if (done == null)
+                        break;
+                    inFlight--;
+                    collect(getResult(done), reporter);
+                }
+            }
+            while (inFlight > 0) {
+                collect(getResult(nextDone(completion, pending, true)),
+                        reporter);
+                inFlight--;
+            }
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (processors) {
+                for (DocumentProcessor processor : processors)
+                    processor.close();
+                processors.clear();
+            }
+        }
+    }
+
+    /**
+     * Submits the tasks read ahead by decreasing cost when reordering is
+     * activated. In ordered mode the futures are kept in the order of the
+     * input.
+     **/
+    private void submit(final List<Task> tasks, ExecutorService executor,
+            CompletionService<Result> completion,
+            LinkedList<Future<Result>> pending) {
+        if (tasks.size() == 1 || costModel == null) {
+            for (Task task : tasks) {
+                if (ordered)
+                    pending.add(executor.submit(task));
+                else
+                    completion.submit(task);
+            }
+            return;
+        }
+        // indices of the tasks by decreasing cost
+        Integer[] byCost = new Integer[tasks.size()];
+        for (int i = 0; i < byCost.length; i++)
+            byCost[i] = i;
+        Arrays.sort(byCost, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(tasks.get(i2).cost, tasks.get(i1).cost);
+            }
+        });
+        if (!ordered) {
+            for (int i : byCost)
+                completion.submit(tasks.get(i));
+            return;
+        }
+        List<FutureTask<Result>> futures = new ArrayList<FutureTask<Result>>(
+                tasks.size());
+        for (Task task : tasks) {
+            FutureTask<Result> future = new FutureTask<Result>(task);
+            futures.add(future);
+            pending.add(future);
+        }
+        for (int i : byCost)
+            executor.execute(futures.get(i));
+    }
+
+    /**
+     * Returns the next completed task or null if none is available and block
+     * is false
+     **/
+    private Future<Result> nextDone(CompletionService<Result> completion,
+            LinkedList<Future<Result>> pending, boolean block)
+            throws IOException {
+        if (ordered) {
+            Future<Result> head = pending.peek();
+            if (head == null || (!block && !head.isDone()))
+                return null;
+            return pending.poll();
+        }
+        try {
+            if (block)
+                return completion.take();
+            return completion.poll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private Result getResult(Future<Result> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void collect(Result result, Reporter reporter) throws IOException {
+        synchronized (outputLock) {
+            result.task.flushStreamed();
+            result.counters.flush(reporter);
+            for (int i = 0; i < result.keys.size(); i++) {
+                BehemothDocument[] documents = result.documents.get(i);
+                if (documents == null)
+                    continue;
+                for (BehemothDocument doc : documents)
+                    write(result.keys.get(i), doc, reporter);
+            }
+            written = result.task.seq;
+        }
+        reporter.progress();
+    }
+
+    /** Writes an output if it passes the filters, called with the lock **/
+    private void write(Text key, BehemothDocument doc, Reporter reporter)
+            throws IOException {
+        if (doFilter && !filter.keep(doc)) {
+            reporter.incrCounter("ProcessorMapRunner",
+                    "DOC SKIPPED BY FILTERS", 1);
+            return;
+        }
+        output.collect(key, doc);
+    }
+
+}
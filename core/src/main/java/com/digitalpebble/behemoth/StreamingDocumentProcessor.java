@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+/**
+ * DocumentProcessor which can hand some of its outputs over to a
+ * DocumentListener while a document is being processed, e.g. the documents
+ * embedded in an archive, so that they don't have to be kept in memory until
+ * process() returns. The outputs passed to the listener are not returned by
+ * process(). The wrappers of the processors implement this interface and pass
+ * the listener on to the processor they wrap.
+ **/
+
+public interface StreamingDocumentProcessor extends DocumentProcessor {
+
+    /**
+     * Sets the listener of the outputs or removes it if null
+     * 
+     * @return false if the outputs can't be streamed, in which case they are
+     *         all returned by process()
+     **/
+    public boolean setListener(DocumentListener listener);
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Multi-valued metadata of a BehemothDocument. Lives in core so that the
+ * documents can be read by any module. toString() joins the values with
+ * commas, which is how the multiple values used to be stored as a single Text.
+ **/
+public class TextArrayWritable extends ArrayWritable {
+
+    public TextArrayWritable() {
+        super(Text.class);
+    }
+
+    public TextArrayWritable(String[] values) {
+        // the String[] constructor of ArrayWritable uses UTF8
+        super(Text.class);
+        Text[] texts = new Text[values.length];
+        for (int i = 0; i < values.length; i++)
+            texts[i] = new Text(values[i]);
+        set(texts);
+    }
+
+    /** Returns the values as Strings **/
+    public String[] getValues() {
+        return toStrings();
+    }
+
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        String[] values = toStrings();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                buff.append(",");
+            buff.append(values[i]);
+        }
+        return buff.toString();
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof TextArrayWritable))
+            return false;
+        return Arrays.equals(get(), ((TextArrayWritable) o).get());
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(get());
+    }
+}
@@ -0,0 +1,550 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gives each document a maximum processing time set in milliseconds with
+ * behemoth.processor.timeout. The documents are processed on a separate
+ * thread and through a view which copies their metadata and annotations only
+ * when they are modified. When the time is exceeded the thread is interrupted
+ * and its processor is closed once the thread has stopped or after another
+ * timeout, a new instance of the processor being created to replace it. The
+ * document is returned as it was before the processing with the metadata
+ * behemoth.status set to timeout:[name of the processor], and its URL and
+ * size are written to the file _quarantine-[task id] in the directory set by
+ * behemoth.quarantine.dir or in the work output directory of the task. The
+ * outputs streamed by the processor are passed on to the DocumentListener
+ * until the time is exceeded, the ones produced afterwards are discarded.
+ **/
+
+public class TimeLimitedDocumentProcessor implements
+        StreamingDocumentProcessor {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(TimeLimitedDocumentProcessor.class);
+
+    /** Time budget per document in msec, 0 for no limit **/
+    public static final String TIMEOUT_PARAM_NAME = "behemoth.processor.timeout";
+
+    /** Directory where the quarantined documents are listed **/
+    public static final String QUARANTINE_DIR_PARAM_NAME = "behemoth.quarantine.dir";
+
+    public static final String QUARANTINE_PREFIX = "_quarantine-";
+
+    /** Metadata set on the documents which have not been processed **/
+    public static final Text STATUS_KEY = new Text("behemoth.status");
+
+    private static final String COUNTER_GROUP = "TimeLimitedProcessor";
+
+    /** Interval at which the task is kept alive while waiting **/
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    /** Quarantine file shared by the instances of a task **/
+    private static Writer quarantine;
+
+    private static int openInstances = 0;
+
+    private final DocumentProcessorFactory factory;
+
+    private final long timeout;
+
+    private Configuration config;
+
+    private DocumentProcessor delegate;
+
+    private ExecutorService executor;
+
+    private String name;
+
+    private boolean closed = false;
+
+    private DocumentListener listener;
+
+    /** Listener set on the current instance of the processor **/
+    private Forward forward;
+
+    /**
+     * @param factory
+     *            used to replace the processor after a timeout
+     * @param processor
+     *            first instance of the processor, created with the factory if
+     *            null
+     **/
+    public TimeLimitedDocumentProcessor(DocumentProcessorFactory factory,
+            DocumentProcessor processor, Configuration conf) {
+        this.factory = factory;
+        this.delegate = processor != null ? processor : factory
+                .newProcessor(conf);
+        this.name = delegate.getClass().getSimpleName();
+        this.config = conf;
+        this.timeout = conf.getLong(TIMEOUT_PARAM_NAME, 0);
+        synchronized (TimeLimitedDocumentProcessor.class) {
+            openInstances++;
+        }
+    }
+
+    /**
+     * Returns the processor wrapped in a TimeLimitedDocumentProcessor if
+     * behemoth.processor.timeout is set, the processor itself otherwise
+     **/
+    public static DocumentProcessor wrap(DocumentProcessor processor,
+            DocumentProcessorFactory factory, Configuration conf) {
+        if (conf.getLong(TIMEOUT_PARAM_NAME, 0) <= 0)
+            return processor;
+        return new TimeLimitedDocumentProcessor(factory, processor, conf);
+    }
+
+    /** Returns the current instance of the processor **/
+    public DocumentProcessor getDelegate() {
+        return delegate;
+    }
+
+    public Configuration getConf() {
+        return config;
+    }
+
+    public void setConf(Configuration conf) {
+        config = conf;
+    }
+
+    public boolean setListener(DocumentListener listener) {
+        this.listener = listener;
+        return listen();
+    }
+
+    /** Sets a new Forward on the current instance of the processor **/
+    private boolean listen() {
+        forward = null;
+        if (!(delegate instanceof StreamingDocumentProcessor))
+            return false;
+        StreamingDocumentProcessor streaming = (StreamingDocumentProcessor) delegate;
+        if (listener == null)
+            return streaming.setListener(null);
+        forward = new Forward(listener);
+        return streaming.setListener(forward);
+    }
+
+    /**
+     * Passes on the outputs streamed by an instance of the processor with the
+     * document being processed, as the processor gets a view of it, until it
+     * is closed after a timeout
+     **/
+    private static class Forward implements DocumentListener {
+
+        private final DocumentListener listener;
+
+        private BehemothDocument input;
+
+        private boolean closed = false;
+
+        Forward(DocumentListener listener) {
+            this.listener = listener;
+        }
+
+        synchronized void setInput(BehemothDocument input) {
+            this.input = input;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        public synchronized void output(BehemothDocument view,
+                BehemothDocument output) throws IOException {
+            if (closed || input == null)
+                return;
+            listener.output(input, output);
+        }
+    }
+
+    public BehemothDocument[] process(final BehemothDocument inputDoc,
+            Reporter reporter) {
+        if (delegate == null) {
+            delegate = factory.newProcessor(config);
+            listen();
+        }
+        if (executor == null)
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "time-limited-" + name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        // the processors modify the documents in place, the input is kept
+        // intact in case it has to be returned after a timeout
+        final BehemothDocument view = view(inputDoc);
+        final BufferedReporter buffer = new BufferedReporter(reporter);
+        final DocumentProcessor processor = delegate;
+        final Forward streaming = forward;
+        if (streaming != null)
+            streaming.setInput(inputDoc);
+        Future<BehemothDocument[]> future = executor
+                .submit(new Callable<BehemothDocument[]>() {
+                    public BehemothDocument[] call() {
+                        return processor.process(view, buffer);
+                    }
+                });
+
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new TimeoutException();
+                try {
+                    BehemothDocument[] outputs = future.get(
+                            Math.min(remaining, PROGRESS_INTERVAL),
+                            TimeUnit.MILLISECONDS);
+                    buffer.flush(reporter);
+                    return outputs;
+                } catch (TimeoutException e) {
+                    if (reporter != null)
+                        reporter.progress();
+                }
+            }
+        } catch (TimeoutException e) {
+            return timedOut(future, inputDoc, reporter);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            buffer.flush(reporter);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            if (streaming != null)
+                streaming.setInput(null);
+        }
+    }
+
+    private BehemothDocument[] timedOut(Future<BehemothDocument[]> future,
+            BehemothDocument inputDoc, Reporter reporter) {
+        LOG.warn("Processing of " + inputDoc.getUrl() + " by " + name
+                + " exceeded " + timeout + " msec");
+        // interrupt the thread in case the processor takes notice
+        future.cancel(true);
+        if (forward != null)
+            forward.close();
+        executor.shutdownNow();
+        closeWhenStopped(executor, delegate);
+        executor = null;
+        delegate = factory.newProcessor(config);
+        listen();
+        if (reporter != null)
+            reporter.incrCounter(COUNTER_GROUP, "DOC TIMED OUT", 1);
+        inputDoc.getMetadata(true).put(STATUS_KEY,
+                new Text("timeout:" + name));
+        quarantine(inputDoc);
+        return new BehemothDocument[] { inputDoc };
+    }
+
+    /**
+     * Closes the processor which timed out once its thread has stopped, or
+     * after another timeout if it ignores the interruption, without blocking
+     * the processing of the next documents
+     **/
+    private void closeWhenStopped(final ExecutorService stopped,
+            final DocumentProcessor abandoned) {
+        Thread closer = new Thread("close-" + name) {
+            public void run() {
+                try {
+                    if (!stopped.awaitTermination(timeout,
+                            TimeUnit.MILLISECONDS))
+                        LOG.warn("Closing " + name
+                                + " while it is still running");
+                } catch (InterruptedException e) {
+                    // close it anyway
+                }
+                try {
+                    abandoned.close();
+                } catch (Throwable t) {
+                    LOG.error("Can't close " + name, t);
+                }
+            }
+        };
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /**
+     * Returns a document which shares the fields of the original and copies
+     * its metadata and annotations only when they are modified
+     **/
+    static BehemothDocument view(BehemothDocument doc) {
+        BehemothDocument view = new BehemothDocument();
+        view.setUrl(doc.getUrl());
+        view.setContentType(doc.getContentType());
+        view.setText(doc.getText());
+        view.setContent(doc.getContent());
+        if (doc.getMetadata() != null)
+            view.setMetadata(new CopyOnWriteMapWritable(doc.getMetadata()));
+        view.setAnnotations(new CopyOnWriteList<Annotation>(doc
+                .getAnnotations()));
+        return view;
+    }
+
+    /**
+     * Returns a copy of the document which is not affected by the changes
+     * made to the original. The binary content is shared as the processors
+     * don't modify it.
+     **/
+    static BehemothDocument snapshot(BehemothDocument doc) {
+        BehemothDocument copy = new BehemothDocument();
+        copy.setUrl(doc.getUrl());
+        copy.setContentType(doc.getContentType());
+        copy.setText(doc.getText());
+        copy.setContent(doc.getContent());
+        if (doc.getMetadata() != null) {
+            MapWritable metadata = new MapWritable();
+            metadata.putAll(doc.getMetadata());
+            copy.setMetadata(metadata);
+        }
+        copy.setAnnotations(new ArrayList<Annotation>(doc.getAnnotations()));
+        return copy;
+    }
+
+    /** Reads from a map until it is modified, then from a copy of it **/
+    private static class CopyOnWriteMapWritable extends MapWritable {
+
+        /** null once copied **/
+        private MapWritable source;
+
+        CopyOnWriteMapWritable(MapWritable source) {
+            this.source = source;
+        }
+
+        private void copy() {
+            if (source == null)
+                return;
+            MapWritable original = source;
+            source = null;
+            super.putAll(original);
+        }
+
+        public Writable get(Object key) {
+            return source != null ? source.get(key) : super.get(key);
+        }
+
+        public boolean containsKey(Object key) {
+            return source != null ? source.containsKey(key) : super
+                    .containsKey(key);
+        }
+
+        public boolean containsValue(Object value) {
+            return source != null ? source.containsValue(value) : super
+                    .containsValue(value);
+        }
+
+        public boolean isEmpty() {
+            return source != null ? source.isEmpty() : super.isEmpty();
+        }
+
+        public int size() {
+            return source != null ? source.size() : super.size();
+        }
+
+        // the views can be used to modify the map
+
+        public Set<Map.Entry<Writable, Writable>> entrySet() {
+            copy();
+            return super.entrySet();
+        }
+
+        public Set<Writable> keySet() {
+            copy();
+            return super.keySet();
+        }
+
+        public Collection<Writable> values() {
+            copy();
+            return super.values();
+        }
+
+        public Writable put(Writable key, Writable value) {
+            copy();
+            return super.put(key, value);
+        }
+
+        public void putAll(Map<? extends Writable, ? extends Writable> t) {
+            copy();
+            super.putAll(t);
+        }
+
+        public Writable remove(Object key) {
+            copy();
+            return super.remove(key);
+        }
+
+        public void clear() {
+            source = null;
+            super.clear();
+        }
+
+        public void write(DataOutput out) throws IOException {
+            if (source != null)
+                source.write(out);
+            else
+                super.write(out);
+        }
+
+        public void readFields(DataInput in) throws IOException {
+            source = null;
+            super.readFields(in);
+        }
+    }
+
+    /** Reads from a list until it is modified, then from a copy of it **/
+    private static class CopyOnWriteList<T> extends AbstractList<T> {
+
+        private List<T> list;
+
+        private boolean copied = false;
+
+        CopyOnWriteList(List<T> source) {
+            this.list = source;
+        }
+
+        private List<T> copy() {
+            if (!copied) {
+                list = new ArrayList<T>(list);
+                copied = true;
+            }
+            return list;
+        }
+
+        public T get(int index) {
+            return list.get(index);
+        }
+
+        public int size() {
+            return list.size();
+        }
+
+        public T set(int index, T element) {
+            return copy().set(index, element);
+        }
+
+        public void add(int index, T element) {
+            copy().add(index, element);
+            modCount++;
+        }
+
+        public T remove(int index) {
+            modCount++;
+            return copy().remove(index);
+        }
+
+        public void clear() {
+            // nothing worth copying
+            list = new ArrayList<T>();
+            copied = true;
+            modCount++;
+        }
+    }
+
+    private void quarantine(BehemothDocument doc) {
+        long size = doc.getContent() != null ? doc.getContent().length
+                : (doc.getText() != null ? doc.getText().length() : 0);
+        synchronized (TimeLimitedDocumentProcessor.class) {
+            try {
+                if (quarantine == null) {
+                    String dir = config.get(QUARANTINE_DIR_PARAM_NAME,
+                            config.get("mapred.work.output.dir"));
+                    if (dir == null)
+                        return;
+                    String task = config.get("mapred.task.id", "local");
+                    Path path = new Path(dir, QUARANTINE_PREFIX + task);
+                    FileSystem fs = path.getFileSystem(config);
+                    for (int i = 1; fs.exists(path); i++)
+                        path = new Path(dir, QUARANTINE_PREFIX + task + "-"
+                                + i);
+                    LOG.info("Writing quarantined documents to " + path);
+                    quarantine = new OutputStreamWriter(fs.create(path),
+                            "UTF-8");
+                }
+                quarantine.write(doc.getUrl() + "\t" + size + "\t" + name
+                        + "\t" + timeout + "\n");
+                quarantine.flush();
+            } catch (IOException e) {
+                LOG.error("Can't write to quarantine file", e);
+            }
+        }
+    }
+
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (executor != null)
+                executor.shutdown();
+            if (delegate != null)
+                delegate.close();
+        } finally {
+            synchronized (TimeLimitedDocumentProcessor.class) {
+                openInstances--;
+                if (openInstances == 0 && quarantine != null) {
+                    try {
+                        quarantine.close();
+                    } catch (IOException e) {
+                        LOG.error("Can't close quarantine file", e);
+                    }
+                    quarantine = null;
+                }
+            }
+        }
+    }
+
+}
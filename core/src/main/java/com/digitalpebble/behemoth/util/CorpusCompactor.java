@@ -0,0 +1,421 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.InputSampler;
+import org.apache.hadoop.mapred.lib.TotalOrderPartitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+
+/**
+ * Rewrites a corpus into fewer files of a target size. The documents are
+ * sorted within each file by URL (default) or by host, the hosts being
+ * reversed (com.example.www) so that the subdomains of a domain are next to
+ * each other. With the option -sort the files are also range partitioned, so
+ * that the corpus as a whole is sorted. The documents without a URL are
+ * sorted by their key. The documents keep their key unless -u is set, in
+ * which case the ones which have a URL get it as key. The compression of the
+ * input is kept unless specified otherwise. The number of documents written
+ * is checked against the number of documents read.
+ **/
+public class CorpusCompactor extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CorpusCompactor.class);
+
+    private static final String CORPUS_COMPACTOR = "CorpusCompactor";
+
+    /** url or host **/
+    public static final String SORT_KEY_PARAM_NAME = "behemoth.compactor.sort.key";
+
+    /** Writes the documents with their URL as key instead of the original **/
+    public static final String URL_KEYS_PARAM_NAME = "behemoth.compactor.url.keys";
+
+    /** Original key of a document while it is sorted **/
+    private static final Text KEY_KEY = new Text("behemoth.compactor.key");
+
+    private static final String COUNTER_GROUP = "CorpusCompactor";
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(BehemothConfiguration.create(),
+                new CorpusCompactor(), args);
+        System.exit(res);
+    }
+
+    /** Returns the key used to sort a document **/
+    static String getSortKey(String sortKey, String url) {
+        if (!"host".equals(sortKey))
+            return url;
+        String host = URLListFilter.getHost(url);
+        if (host == null)
+            return url;
+        String[] parts = host.split("\\.");
+        StringBuilder reversed = new StringBuilder(url.length() + 1
+                + host.length());
+        for (int i = parts.length - 1; i >= 0; i--) {
+            reversed.append(parts[i]);
+            if (i > 0)
+                reversed.append('.');
+        }
+        // space sorts before the characters allowed in a host name
+        return reversed.append(' ').append(url).toString();
+    }
+
+    /**
+     * Reads a Behemoth corpus with the InputFormat set in
+     * behemoth.input.format but with the sort key of the documents as key, so
+     * that they can be sampled to build the partitions. The original key is
+     * kept in the metadata of the documents, it is the sort key of the ones
+     * without a URL.
+     **/
+    public static class SortKeyInputFormat implements
+            InputFormat<Text, BehemothDocument> {
+
+        @SuppressWarnings("unchecked")
+        private InputFormat<Text, BehemothDocument> getDelegate(JobConf job) {
+            return ReflectionUtils.newInstance(
+                    BehemothConfiguration.getInputFormat(job), job);
+        }
+
+        public InputSplit[] getSplits(JobConf job, int numSplits)
+                throws IOException {
+            return getDelegate(job).getSplits(job, numSplits);
+        }
+
+        public RecordReader<Text, BehemothDocument> getRecordReader(
+                InputSplit split, JobConf job, Reporter reporter)
+                throws IOException {
+            final RecordReader<Text, BehemothDocument> reader = getDelegate(
+                    job).getRecordReader(split, job, reporter);
+            final String sortKey = job.get(SORT_KEY_PARAM_NAME, "url");
+            return new RecordReader<Text, BehemothDocument>() {
+                public boolean next(Text key, BehemothDocument value)
+                        throws IOException {
+                    if (!reader.next(key, value))
+                        return false;
+                    value.getMetadata(true).put(KEY_KEY, new Text(key));
+                    String url = value.getUrl();
+                    if (url != null && url.length() > 0)
+                        key.set(getSortKey(sortKey, url));
+                    return true;
+                }
+
+                public Text createKey() {
+                    return reader.createKey();
+                }
+
+                public BehemothDocument createValue() {
+                    return reader.createValue();
+                }
+
+                public long getPos() throws IOException {
+                    return reader.getPos();
+                }
+
+                public void close() throws IOException {
+                    reader.close();
+                }
+
+                public float getProgress() throws IOException {
+                    return reader.getProgress();
+                }
+            };
+        }
+    }
+
+    /** Counts the documents read **/
+    public static class CompactorMapper extends MapReduceBase implements
+            Mapper<Text, BehemothDocument, Text, BehemothDocument> {
+
+        public void map(Text key, BehemothDocument doc,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            reporter.incrCounter(COUNTER_GROUP, "DOC IN", 1);
+            if (doc.getUrl() == null || doc.getUrl().length() == 0)
+                reporter.incrCounter(COUNTER_GROUP, "DOC WITHOUT URL", 1);
+            output.collect(key, doc);
+        }
+    }
+
+    /**
+     * Writes the documents with their original key or with their URL if
+     * behemoth.compactor.url.keys is true
+     **/
+    public static class CompactorReducer extends MapReduceBase implements
+            Reducer<Text, BehemothDocument, Text, BehemothDocument> {
+
+        private final Text outputKey = new Text();
+
+        private boolean urlKeys;
+
+        public void configure(JobConf job) {
+            urlKeys = job.getBoolean(URL_KEYS_PARAM_NAME, false);
+        }
+
+        public void reduce(Text key, Iterator<BehemothDocument> values,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            while (values.hasNext()) {
+                BehemothDocument doc = values.next();
+                Writable original = doc.getMetadata().remove(KEY_KEY);
+                if (doc.getMetadata().isEmpty())
+                    doc.setMetadata(null);
+                String url = doc.getUrl();
+                if (urlKeys && url != null && url.length() > 0)
+                    outputKey.set(url);
+                else
+                    outputKey.set(original.toString());
+                output.collect(outputKey, doc);
+                reporter.incrCounter(COUNTER_GROUP, "DOC OUT", 1);
+            }
+        }
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Options options = new Options();
+        // automatically generate the help statement
+        HelpFormatter formatter = new HelpFormatter();
+        // create the parser
+        CommandLineParser parser = new GnuParser();
+
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("i", "input", true, "input Behemoth corpus");
+        options.addOption("o", "output", true, "output Behemoth corpus");
+        options.addOption("s", "size", true,
+                "target size of the output files in MB (default 256)");
+        options.addOption("k", "key", true,
+                "sort the documents by 'url' (default) or 'host'");
+        options.addOption("sort", "sort", false,
+                "range partition the documents so that the whole corpus is sorted");
+        options.addOption("u", "urlkeys", false,
+                "use the URLs of the documents as keys instead of the original ones");
+        options.addOption("c", "compression", true,
+                "compression type NONE, RECORD or BLOCK (default same as input)");
+        options.addOption("codec", "codec", true,
+                "compression codec class (default same as input)");
+        options.addOption("w", "overwrite", false, "overwrite the output");
+
+        // parse the command line arguments
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                formatter.printHelp(CORPUS_COMPACTOR, options);
+                return 0;
+            }
+            if (!line.hasOption("i") || !line.hasOption("o")) {
+                formatter.printHelp(CORPUS_COMPACTOR, options);
+                return -1;
+            }
+        } catch (ParseException e) {
+            formatter.printHelp(CORPUS_COMPACTOR, options);
+            return -1;
+        }
+
+        Path inputPath = new Path(line.getOptionValue("i"));
+        Path outputPath = new Path(line.getOptionValue("o"));
+        long targetSize = Long.parseLong(line.getOptionValue("s", "256")) * 1024 * 1024;
+        String sortKey = line.getOptionValue("k", "url").toLowerCase(
+                Locale.ENGLISH);
+        if (!sortKey.equals("url") && !sortKey.equals("host")) {
+            formatter.printHelp(CORPUS_COMPACTOR, options);
+            return -1;
+        }
+
+        JobConf job = new JobConf(getConf());
+        job.setJarByClass(this.getClass());
+        job.set(SORT_KEY_PARAM_NAME, sortKey);
+        job.setBoolean(URL_KEYS_PARAM_NAME, line.hasOption("u"));
+
+        FileSystem fs = outputPath.getFileSystem(job);
+        if (fs.exists(outputPath)) {
+            if (!line.hasOption("w")) {
+                System.out.println("Output path " + outputPath
+                        + " already exists. Use option -w to overwrite.");
+                return -1;
+            }
+            fs.delete(outputPath, true);
+        }
+
+        FileSystem inputFS = inputPath.getFileSystem(job);
+        long inputSize = inputFS.getContentSummary(inputPath).getLength();
+        int numFiles = (int) Math.max(1, (inputSize + targetSize - 1)
+                / targetSize);
+        LOG.info("Compacting " + inputSize + " bytes into " + numFiles
+                + " files sorted by " + sortKey);
+
+        job.setJobName("CorpusCompactor : " + inputPath);
+        job.setInputFormat(SortKeyInputFormat.class);
+        job.setOutputFormat(SequenceFileOutputFormat.class);
+        job.setMapperClass(CompactorMapper.class);
+        job.setReducerClass(CompactorReducer.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(BehemothDocument.class);
+        job.setNumReduceTasks(numFiles);
+        FileInputFormat.addInputPath(job, inputPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        setCompression(job, inputFS, inputPath, line.getOptionValue("c"),
+                line.getOptionValue("codec"));
+
+        Path partitionFile = null;
+        if (line.hasOption("sort") && numFiles > 1) {
+            partitionFile = new Path(outputPath + "-partitions-"
+                    + System.currentTimeMillis());
+            TotalOrderPartitioner.setPartitionFile(job, partitionFile);
+            job.setPartitionerClass(TotalOrderPartitioner.class);
+            InputSampler.Sampler<Text, BehemothDocument> sampler = new InputSampler.RandomSampler<Text, BehemothDocument>(
+                    0.01, 10000, 100);
+            InputSampler.writePartitionFile(job, sampler);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            RunningJob rj = JobClient.runJob(job);
+            long finish = System.currentTimeMillis();
+            LOG.info("CorpusCompactor completed. Timing: " + (finish - start)
+                    + " ms");
+            if (!rj.isSuccessful())
+                return -1;
+            Counters counters = rj.getCounters();
+            long in = counters.findCounter(COUNTER_GROUP, "DOC IN")
+                    .getValue();
+            long invalid = counters.findCounter(COUNTER_GROUP,
+                    "DOC WITHOUT URL").getValue();
+            long out = counters.findCounter(COUNTER_GROUP, "DOC OUT")
+                    .getValue();
+            if (in != out) {
+                LOG.error("Wrote " + out + " documents instead of " + in);
+                return -1;
+            }
+            LOG.info(out + " documents written, " + invalid
+                    + " of them without URL");
+        } catch (Exception e) {
+            LOG.error("Exception", e);
+            return -1;
+        } finally {
+            if (partitionFile != null)
+                partitionFile.getFileSystem(job).delete(partitionFile, false);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Sets the compression of the output, copied from the first file of the
+     * input for what is not specified
+     **/
+    private void setCompression(JobConf job, FileSystem fs, Path input,
+            String type, String codec) throws IOException,
+            ClassNotFoundException {
+        CompressionType compressionType = null;
+        Class<? extends CompressionCodec> codecClass = null;
+        if (type != null)
+            compressionType = CompressionType.valueOf(type
+                    .toUpperCase(Locale.ENGLISH));
+        if (codec != null) {
+            codecClass = job.getClassByName(codec).asSubclass(
+                    CompressionCodec.class);
+        }
+        if (compressionType == null || codecClass == null) {
+            Path first = firstFile(fs, input);
+            if (first != null) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                        first, job);
+                try {
+                    if (compressionType == null)
+                        compressionType = reader.isBlockCompressed() ? CompressionType.BLOCK
+                                : (reader.isCompressed() ? CompressionType.RECORD
+                                        : CompressionType.NONE);
+                    if (codecClass == null && reader.getCompressionCodec() != null)
+                        codecClass = reader.getCompressionCodec().getClass();
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        if (compressionType == null)
+            compressionType = CompressionType.NONE;
+        LOG.info("Output compression : " + compressionType + " "
+                + (codecClass != null ? codecClass.getName() : ""));
+        SequenceFileOutputFormat.setOutputCompressionType(job,
+                compressionType);
+        FileOutputFormat.setCompressOutput(job,
+                compressionType != CompressionType.NONE);
+        if (codecClass != null)
+            FileOutputFormat.setOutputCompressorClass(job, codecClass);
+    }
+
+    private static Path firstFile(FileSystem fs, Path path) throws IOException {
+        FileStatus status = fs.getFileStatus(path);
+        if (!status.isDir())
+            return path;
+        for (FileStatus child : fs.listStatus(path)) {
+            String name = child.getPath().getName();
+            if (name.startsWith("_") || name.startsWith("."))
+                continue;
+            Path first = firstFile(fs, child.getPath());
+            if (first != null)
+                return first;
+        }
+        return null;
+    }
+
+}
@@ -31,7 +31,6 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -95,7 +94,7 @@ public class CorpusFilter extends Configured implements Tool {
 
         job.setJobName("CorpusFilter : " + inputPath.toString());
 
-        job.setInputFormat(SequenceFileInputFormat.class);
+        BehemothConfiguration.setInputFormat(job);
         job.setOutputFormat(SequenceFileOutputFormat.class);
 
         job.setMapOutputKeyClass(Text.class);
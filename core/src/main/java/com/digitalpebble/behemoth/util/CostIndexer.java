@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.IOException;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.CostBalancedInputFormat;
+
+/**
+ * Generates the sidecars used by the {@link CostBalancedInputFormat} for the
+ * files of a corpus, with one map task per file. The sidecars need to be
+ * generated again when the files of the corpus are modified.
+ **/
+public class CostIndexer extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CostIndexer.class);
+
+    private static final String COST_INDEXER = "CostIndexer";
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(BehemothConfiguration.create(),
+                new CostIndexer(), args);
+        System.exit(res);
+    }
+
+    /** One split per file **/
+    public static class WholeFileInputFormat extends
+            SequenceFileInputFormat<Text, BehemothDocument> {
+        protected boolean isSplitable(FileSystem fs, Path filename) {
+            return false;
+        }
+    }
+
+    /** Reads the file of the split directly to get the sync points **/
+    public static class IndexerRunner implements
+            MapRunnable<Text, BehemothDocument, NullWritable, NullWritable> {
+
+        private JobConf job;
+
+        public void configure(JobConf job) {
+            this.job = job;
+        }
+
+        public void run(RecordReader<Text, BehemothDocument> input,
+                OutputCollector<NullWritable, NullWritable> output,
+                Reporter reporter) throws IOException {
+            input.close();
+            Path file = new Path(job.get("map.input.file"));
+            reporter.setStatus("Indexing " + file);
+            long count = CostBalancedInputFormat.writeSidecar(
+                    file.getFileSystem(job), file, job);
+            reporter.incrCounter(COST_INDEXER, "DOCS", count);
+            reporter.incrCounter(COST_INDEXER, "FILES", 1);
+        }
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Options options = new Options();
+        // automatically generate the help statement
+        HelpFormatter formatter = new HelpFormatter();
+        // create the parser
+        CommandLineParser parser = new GnuParser();
+
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("i", "input", true, "input Behemoth corpus");
+
+        // parse the command line arguments
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                formatter.printHelp(COST_INDEXER, options);
+                return 0;
+            }
+            if (!line.hasOption("i")) {
+                formatter.printHelp(COST_INDEXER, options);
+                return -1;
+            }
+        } catch (ParseException e) {
+            formatter.printHelp(COST_INDEXER, options);
+            return -1;
+        }
+
+        Path inputPath = new Path(line.getOptionValue("i"));
+
+        JobConf job = new JobConf(getConf());
+        job.setJarByClass(this.getClass());
+        job.setJobName("CostIndexer : " + inputPath);
+
+        job.setInputFormat(WholeFileInputFormat.class);
+        job.setMapRunnerClass(IndexerRunner.class);
+        job.setOutputFormat(NullOutputFormat.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+        job.setNumReduceTasks(0);
+        // two attempts would write to the same sidecar
+        job.setMapSpeculativeExecution(false);
+
+        FileInputFormat.addInputPath(job, inputPath);
+
+        try {
+            long start = System.currentTimeMillis();
+            RunningJob rj = JobClient.runJob(job);
+            long finish = System.currentTimeMillis();
+            LOG.info("CostIndexer completed. Timing: " + (finish - start)
+                    + " ms");
+            if (!rj.isSuccessful())
+                return -1;
+        } catch (Exception e) {
+            LOG.error("Exception", e);
+            return -1;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,597 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.ChainedDocumentProcessor;
+import com.digitalpebble.behemoth.DocumentFilter;
+import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
+
+/**
+ * Processes a new version of a corpus by reusing the outputs of a previous run
+ * for the documents whose URL and content haven't changed, e.g.
+ * 
+ * <pre>
+ * hadoop jar behemoth-job.jar com.digitalpebble.behemoth.util.DeltaProcessorDriver \
+ *  -p com.digitalpebble.behemoth.tika.TikaProcessor -i crawl-week2 -prev processed-week1 -o processed-week2
+ * </pre>
+ * 
+ * A first job builds a Bloom filter of the URL and content digest of the
+ * documents of the new corpus, which is used by the second one to discard the
+ * documents of the previous corpus which can't match before they are
+ * shuffled. The second job joins both corpora on the URL; the documents
+ * unchanged since the previous run are carried over along with all the other
+ * outputs derived from them (e.g. the attachments extracted by Tika) while the
+ * new or modified ones are processed by the chain of processors
+ * (behemoth.chain.processors or -p) in the reducers, whose number is set with
+ * -r (by default the reduce capacity of the cluster). Only the first of the
+ * documents sharing the same URL in the new corpus is kept. The documents
+ * without a URL can't be matched, they are all processed and written under
+ * their original key. The digest of the content is kept in the metadata
+ * behemoth.digest so that it does not need to be recomputed in the next run;
+ * the outputs derived from a document get its digest and its URL in
+ * behemoth.delta.root.
+ **/
+public class DeltaProcessorDriver extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(DeltaProcessorDriver.class);
+
+    private static final String DELTA_PROCESSOR_DRIVER = "DeltaProcessorDriver";
+
+    /** Expected number of documents in the new corpus **/
+    public static final String BLOOM_SIZE_PARAM_NAME = "behemoth.delta.bloom.size";
+
+    /** Rate of false positives of the Bloom filter **/
+    public static final String BLOOM_ERROR_PARAM_NAME = "behemoth.delta.bloom.error";
+
+    private static final String BLOOM_PATH_PARAM_NAME = "behemoth.delta.bloom.path";
+
+    public static final Text DIGEST_KEY = new Text("behemoth.digest");
+
+    /** URL of the document an output was derived from, if different **/
+    public static final Text ROOT_KEY = new Text("behemoth.delta.root");
+
+    /** Set by Tika on the embedded documents of the previous corpus **/
+    private static final Text PARENT_KEY = new Text("tika.parent");
+
+    private static final Text DEPTH_KEY = new Text("tika.depth");
+
+    /** Marks the documents coming from the previous corpus **/
+    private static final Text PREVIOUS_KEY = new Text("behemoth.delta.previous");
+
+    private static final String COUNTER_GROUP = "DeltaProcessor";
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(BehemothConfiguration.create(),
+                new DeltaProcessorDriver(), args);
+        System.exit(res);
+    }
+
+    /**
+     * Returns the digest of the content of a document, read from its metadata
+     * if it has already been computed
+     **/
+    public static String getDigest(BehemothDocument doc) {
+        if (doc.getMetadata() != null) {
+            Writable digest = doc.getMetadata().get(DIGEST_KEY);
+            if (digest != null)
+                return digest.toString();
+        }
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        if (doc.getContent() != null && doc.getContent().length > 0)
+            md5.update(doc.getContent());
+        else if (doc.getText() != null) {
+            try {
+                md5.update(doc.getText().getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return StringUtils.byteToHexString(md5.digest());
+    }
+
+    private static boolean hasURL(BehemothDocument doc) {
+        return doc.getUrl() != null && doc.getUrl().length() > 0;
+    }
+
+    /**
+     * Returns the URL of the input document an output was derived from,
+     * given by behemoth.delta.root or by the nesting of the documents
+     * embedded by Tika, the URL of the document itself otherwise
+     **/
+    static String getRootURL(BehemothDocument doc) {
+        String url = doc.getUrl();
+        MapWritable metadata = doc.getMetadata();
+        if (metadata == null)
+            return url;
+        Writable root = metadata.get(ROOT_KEY);
+        if (root != null)
+            return root.toString();
+        Writable parent = metadata.get(PARENT_KEY);
+        if (parent == null)
+            return url;
+        // the URL of an embedded document is the one of its parent
+        // followed by !/ and its name
+        String rootURL = parent.toString();
+        Writable depth = metadata.get(DEPTH_KEY);
+        int levels = depth == null ? 1 : Integer.parseInt(depth.toString());
+        for (int i = 1; i < levels; i++) {
+            int pos = rootURL.lastIndexOf("!/");
+            if (pos == -1)
+                break;
+            rootURL = rootURL.substring(0, pos);
+        }
+        return rootURL;
+    }
+
+    private static Key bloomKey(String url, String digest) {
+        try {
+            return new Key((url + "#" + digest).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static BloomFilter newBloomFilter(Configuration conf) {
+        long n = Math.max(1000, conf.getLong(BLOOM_SIZE_PARAM_NAME, 10000000));
+        double p = conf.getFloat(BLOOM_ERROR_PARAM_NAME, 0.01f);
+        double ln2 = Math.log(2);
+        int vectorSize = (int) Math.min(Integer.MAX_VALUE - 64,
+                Math.ceil(-n * Math.log(p) / (ln2 * ln2)));
+        int nbHash = Math.max(1,
+                (int) Math.round((double) vectorSize / n * ln2));
+        return new BloomFilter(vectorSize, nbHash, Hash.MURMUR_HASH);
+    }
+
+    /** Adds the URL and digest of the new documents to a Bloom filter **/
+    public static class BloomMapper extends MapReduceBase implements
+            Mapper<Text, BehemothDocument, NullWritable, BloomFilter> {
+
+        private BloomFilter filter;
+
+        private OutputCollector<NullWritable, BloomFilter> output;
+
+        public void configure(JobConf job) {
+            filter = newBloomFilter(job);
+        }
+
+        public void map(Text key, BehemothDocument doc,
+                OutputCollector<NullWritable, BloomFilter> output,
+                Reporter reporter) throws IOException {
+            this.output = output;
+            if (hasURL(doc))
+                filter.add(bloomKey(doc.getUrl(), getDigest(doc)));
+        }
+
+        public void close() throws IOException {
+            if (output != null)
+                output.collect(NullWritable.get(), filter);
+        }
+    }
+
+    /** Merges the Bloom filters of the map tasks **/
+    public static class BloomReducer extends MapReduceBase implements
+            Reducer<NullWritable, BloomFilter, NullWritable, BloomFilter> {
+
+        private BloomFilter filter;
+
+        public void configure(JobConf job) {
+            filter = newBloomFilter(job);
+        }
+
+        public void reduce(NullWritable key, Iterator<BloomFilter> values,
+                OutputCollector<NullWritable, BloomFilter> output,
+                Reporter reporter) throws IOException {
+            while (values.hasNext())
+                filter.or(values.next());
+            output.collect(key, filter);
+        }
+    }
+
+    /**
+     * Tags the new documents with their digest, the ones without a URL are
+     * passed on under their key
+     **/
+    public static class NewCorpusMapper extends MapReduceBase implements
+            Mapper<Text, BehemothDocument, Text, BehemothDocument> {
+
+        public void map(Text key, BehemothDocument doc,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            if (!hasURL(doc)) {
+                output.collect(key, doc);
+                return;
+            }
+            doc.getMetadata(true).put(DIGEST_KEY, new Text(getDigest(doc)));
+            output.collect(new Text(doc.getUrl()), doc);
+        }
+    }
+
+    /**
+     * Passes on the documents of the previous corpus derived from a document
+     * which has probably the same URL and digest as a new one, grouped by the
+     * URL of that document. The embedded documents which have not got the
+     * digest of their root are passed on without being checked.
+     **/
+    public static class PreviousCorpusMapper extends MapReduceBase implements
+            Mapper<Text, BehemothDocument, Text, BehemothDocument> {
+
+        private BloomFilter filter;
+
+        public void configure(JobConf job) {
+            filter = newBloomFilter(job);
+            Path path = new Path(job.get(BLOOM_PATH_PARAM_NAME));
+            SequenceFile.Reader reader = null;
+            try {
+                FileSystem fs = path.getFileSystem(job);
+                for (FileStatus status : fs.listStatus(path)) {
+                    if (!status.getPath().getName().startsWith("part-"))
+                        continue;
+                    reader = new SequenceFile.Reader(fs, status.getPath(),
+                            job);
+                    reader.next(NullWritable.get(), filter);
+                    reader.close();
+                    reader = null;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Can't read Bloom filter from "
+                        + path, e);
+            } finally {
+                IOUtils.closeStream(reader);
+            }
+        }
+
+        public void map(Text key, BehemothDocument doc,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            // the new documents without a URL are all processed again
+            if (!hasURL(doc)) {
+                reporter.incrCounter(COUNTER_GROUP, "PREVIOUS DISCARDED", 1);
+                return;
+            }
+            String root = getRootURL(doc);
+            boolean derived = !root.equals(doc.getUrl());
+            if (!derived || doc.getMetadata().containsKey(DIGEST_KEY)) {
+                String digest = getDigest(doc);
+                if (!filter.membershipTest(bloomKey(root, digest))) {
+                    reporter.incrCounter(COUNTER_GROUP, "PREVIOUS DISCARDED",
+                            1);
+                    return;
+                }
+                doc.getMetadata(true).put(DIGEST_KEY, new Text(digest));
+            }
+            doc.getMetadata(true).put(PREVIOUS_KEY, NullWritable.get());
+            output.collect(new Text(root), doc);
+        }
+    }
+
+    /**
+     * Carries over the outputs of the previous run for the unchanged documents
+     * and processes the others
+     **/
+    public static class DeltaReducer extends MapReduceBase implements
+            Reducer<Text, BehemothDocument, Text, BehemothDocument> {
+
+        private DocumentProcessor processor;
+
+        private DocumentFilter filter;
+
+        private boolean doFilter;
+
+        public void configure(JobConf job) {
+            processor = ProcessorMapRunner.newProcessor(job,
+                    ChainedDocumentProcessor.class.getName());
+            filter = DocumentFilter.getFilters(job);
+            doFilter = DocumentFilter.isRequired(job);
+        }
+
+        public void reduce(Text url, Iterator<BehemothDocument> values,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            BehemothDocument current = null;
+            List<BehemothDocument> previous = new ArrayList<BehemothDocument>(
+                    1);
+            List<BehemothDocument> withoutURL = new ArrayList<BehemothDocument>(
+                    0);
+            while (values.hasNext()) {
+                BehemothDocument doc = values.next();
+                // the values are reused by the iterator
+                BehemothDocument copy = new BehemothDocument();
+                copy.setUrl(doc.getUrl());
+                copy.setContentType(doc.getContentType());
+                copy.setContent(doc.getContent());
+                copy.setText(doc.getText());
+                copy.setMetadata(doc.getMetadata());
+                copy.setAnnotations(doc.getAnnotations());
+                if (doc.getMetadata(true).remove(PREVIOUS_KEY) != null)
+                    previous.add(copy);
+                else if (!hasURL(doc))
+                    withoutURL.add(copy);
+                else if (current == null)
+                    current = copy;
+                else {
+                    // only the first one is kept
+                    LOG.warn("Duplicate URL in the new corpus : " + url);
+                    reporter.incrCounter(COUNTER_GROUP, "DUPLICATE DROPPED",
+                            1);
+                }
+            }
+            // can't be matched with the previous corpus
+            for (BehemothDocument doc : withoutURL) {
+                reporter.incrCounter(COUNTER_GROUP, "NEW WITHOUT URL", 1);
+                process(url, doc, null, output, reporter);
+            }
+            // removed from the new corpus
+            if (current == null) {
+                reporter.incrCounter(COUNTER_GROUP, "PREVIOUS DROPPED",
+                        previous.size());
+                return;
+            }
+            String digest = getDigest(current);
+            List<BehemothDocument> carried = new ArrayList<BehemothDocument>(
+                    previous.size());
+            List<BehemothDocument> unchecked = new ArrayList<BehemothDocument>(
+                    0);
+            for (BehemothDocument doc : previous) {
+                Writable previousDigest = doc.getMetadata().get(DIGEST_KEY);
+                if (previousDigest == null)
+                    unchecked.add(doc);
+                else if (digest.equals(previousDigest.toString()))
+                    carried.add(doc);
+            }
+            if (!carried.isEmpty()) {
+                // along with the embedded documents which have no digest
+                carried.addAll(unchecked);
+                reporter.incrCounter(COUNTER_GROUP, "CARRIED OVER", 1);
+                for (BehemothDocument doc : carried)
+                    collect(url, doc, output, reporter);
+                return;
+            }
+            reporter.incrCounter(COUNTER_GROUP, previous.isEmpty() ? "NEW"
+                    : "CHANGED", 1);
+            process(url, current, digest, output, reporter);
+        }
+
+        /**
+         * Processes a new document, the outputs derived from it are marked
+         * with its URL and digest so that they can be carried over with it
+         **/
+        private void process(Text key, BehemothDocument doc, String digest,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            String url = doc.getUrl();
+            BehemothDocument[] outputs = processor.process(doc, reporter);
+            if (outputs == null)
+                return;
+            for (BehemothDocument out : outputs) {
+                if (digest != null) {
+                    MapWritable metadata = out.getMetadata(true);
+                    metadata.put(DIGEST_KEY, new Text(digest));
+                    if (!url.equals(out.getUrl()))
+                        metadata.put(ROOT_KEY, new Text(url));
+                }
+                collect(key, out, output, reporter);
+            }
+        }
+
+        private void collect(Text url, BehemothDocument doc,
+                OutputCollector<Text, BehemothDocument> output,
+                Reporter reporter) throws IOException {
+            if (doFilter && !filter.keep(doc)) {
+                reporter.incrCounter(COUNTER_GROUP, "DOC SKIPPED BY FILTERS",
+                        1);
+                return;
+            }
+            output.collect(url, doc);
+        }
+
+        public void close() throws IOException {
+            processor.close();
+        }
+    }
+
+    /**
+     * Returns the number of reducers set with -r or the number of reduce slots
+     * of the cluster, so that the new and changed documents are not all
+     * processed by a single reducer
+     **/
+    private static int getNumReducers(CommandLine line, JobConf job)
+            throws IOException {
+        if (line.hasOption("r"))
+            return Math.max(1, Integer.parseInt(line.getOptionValue("r")));
+        int slots = new JobClient(job).getClusterStatus().getMaxReduceTasks();
+        LOG.info("Using " + Math.max(1, slots)
+                + " reducers, the reduce capacity of the cluster");
+        return Math.max(1, slots);
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Options options = new Options();
+        // automatically generate the help statement
+        HelpFormatter formatter = new HelpFormatter();
+        // create the parser
+        CommandLineParser parser = new GnuParser();
+
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("i", "input", true, "new Behemoth corpus");
+        options.addOption("prev", "previous", true,
+                "output of the previous run");
+        options.addOption("o", "output", true, "output Behemoth corpus");
+        options.addOption("p", "processors", true,
+                "comma separated list of DocumentProcessor or DocumentProcessorFactory classes (default "
+                        + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME
+                        + ")");
+        options.addOption("r", "reducers", true,
+                "number of reduce tasks processing the documents (default : the reduce capacity of the cluster)");
+        options.addOption("w", "overwrite", false, "overwrite the output");
+
+        // parse the command line arguments
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                formatter.printHelp(DELTA_PROCESSOR_DRIVER, options);
+                return 0;
+            }
+            if (!line.hasOption("i") || !line.hasOption("prev")
+                    || !line.hasOption("o")) {
+                formatter.printHelp(DELTA_PROCESSOR_DRIVER, options);
+                return -1;
+            }
+        } catch (ParseException e) {
+            formatter.printHelp(DELTA_PROCESSOR_DRIVER, options);
+            return -1;
+        }
+
+        Path inputPath = new Path(line.getOptionValue("i"));
+        Path previousPath = new Path(line.getOptionValue("prev"));
+        Path outputPath = new Path(line.getOptionValue("o"));
+
+        Configuration conf = getConf();
+        if (line.hasOption("p"))
+            conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                    line.getOptionValue("p"));
+        if (conf.getStrings(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME) == null) {
+            System.err.println("No processors specified with -p or "
+                    + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME);
+            return -1;
+        }
+
+        FileSystem fs = outputPath.getFileSystem(conf);
+        if (fs.exists(outputPath)) {
+            if (!line.hasOption("w")) {
+                System.out.println("Output path " + outputPath
+                        + " already exists. Use option -w to overwrite.");
+                return -1;
+            }
+            fs.delete(outputPath, true);
+        }
+
+        Path bloomPath = new Path(outputPath + "-bloom-"
+                + System.currentTimeMillis());
+
+        try {
+            long start = System.currentTimeMillis();
+
+            JobConf bloomJob = new JobConf(conf);
+            bloomJob.setJarByClass(this.getClass());
+            bloomJob.setJobName("DeltaProcessor bloom : " + inputPath);
+            BehemothConfiguration.setInputFormat(bloomJob);
+            bloomJob.setOutputFormat(SequenceFileOutputFormat.class);
+            bloomJob.setMapperClass(BloomMapper.class);
+            bloomJob.setCombinerClass(BloomReducer.class);
+            bloomJob.setReducerClass(BloomReducer.class);
+            bloomJob.setOutputKeyClass(NullWritable.class);
+            bloomJob.setOutputValueClass(BloomFilter.class);
+            bloomJob.setNumReduceTasks(1);
+            FileInputFormat.addInputPath(bloomJob, inputPath);
+            FileOutputFormat.setOutputPath(bloomJob, bloomPath);
+            RunningJob rj = JobClient.runJob(bloomJob);
+            if (!rj.isSuccessful())
+                return -1;
+
+            JobConf job = new JobConf(conf);
+            job.setJarByClass(this.getClass());
+            job.setJobName("DeltaProcessor : " + inputPath + " "
+                    + previousPath);
+            job.set(BLOOM_PATH_PARAM_NAME, bloomPath.toString());
+            MultipleInputs.addInputPath(job, inputPath,
+                    BehemothConfiguration.getInputFormat(job),
+                    NewCorpusMapper.class);
+            MultipleInputs.addInputPath(job, previousPath,
+                    BehemothConfiguration.getInputFormat(job),
+                    PreviousCorpusMapper.class);
+            job.setOutputFormat(SequenceFileOutputFormat.class);
+            job.setReducerClass(DeltaReducer.class);
+            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputValueClass(BehemothDocument.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(BehemothDocument.class);
+            job.setNumReduceTasks(getNumReducers(line, job));
+            FileOutputFormat.setOutputPath(job, outputPath);
+            rj = JobClient.runJob(job);
+            long finish = System.currentTimeMillis();
+            LOG.info("DeltaProcessorDriver completed. Timing: "
+                    + (finish - start) + " ms");
+            if (!rj.isSuccessful())
+                return -1;
+        } catch (Exception e) {
+            LOG.error("Exception", e);
+            return -1;
+        } finally {
+            fs.delete(bloomPath, true);
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+/**
+ * Histogram of positive values (e.g. latencies in microseconds) with buckets
+ * of logarithmically increasing width in the manner of HdrHistogram : each
+ * power of two is divided into 32 linear sub-buckets so that the values are
+ * recorded with a relative error below 3% whatever their magnitude, in a
+ * fixed amount of memory. Not thread safe.
+ **/
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS)
+            * SUB_BUCKETS;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+
+    private long count = 0;
+
+    private long total = 0;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max = 0;
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS
+                + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /** Returns the largest value which falls in a bucket **/
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /** Records a value, negative values are recorded as 0 **/
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[bucketIndex(value)]++;
+        count++;
+        total += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    /** Adds the values recorded by another histogram to this one **/
+    public void add(LatencyHistogram other) {
+        if (other.count == 0)
+            return;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the values fall,
+     * e.g. getValueAtPercentile(99) for the 99th percentile
+     **/
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long target = (long) Math.ceil(percentile / 100d * count);
+        if (target < 1)
+            target = 1;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(Math.max(highestValue(i), min), max);
+        }
+        return max;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(count);
+        sb.append(" mean=").append(Math.round(getMean()));
+        sb.append(" p50=").append(getValueAtPercentile(50));
+        sb.append(" p90=").append(getValueAtPercentile(90));
+        sb.append(" p99=").append(getValueAtPercentile(99));
+        sb.append(" max=").append(max);
+        return sb.toString();
+    }
+
+}
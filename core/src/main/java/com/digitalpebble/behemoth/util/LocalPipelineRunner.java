@@ -0,0 +1,450 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Counters.Group;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.BufferedReporter;
+import com.digitalpebble.behemoth.ChainedDocumentProcessor;
+import com.digitalpebble.behemoth.DocumentBatch;
+import com.digitalpebble.behemoth.DocumentFilter;
+import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.InstrumentedDocumentProcessor;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
+
+/**
+ * Processes a corpus in the current JVM without submitting a job, which is
+ * faster than the LocalJobRunner for small to medium corpora. The documents
+ * are read from a Behemoth corpus or from the files of a directory by a single
+ * thread and processed by a pool of workers, each of them with its own
+ * processor and writing its own part file. The processors are configured with
+ * the same parameters as the drivers i.e. behemoth.chain.processors (or -p)
+ * for a chain of processors, behemoth.processor.class for a single one,
+ * behemoth.runner.threads for the number of workers, behemoth.batch.size and
+ * behemoth.batch.bytes for passing the documents in batches and the
+ * document.filter.* parameters for filtering the output. The processors are
+ * initialised one at a time. The documents are written with the key of the
+ * input document they come from, the files read from a directory are keyed by
+ * their URL.
+ **/
+public class LocalPipelineRunner extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LocalPipelineRunner.class);
+
+    private static final String LOCAL_PIPELINE_RUNNER = "LocalPipelineRunner";
+
+    /** Marks the end of the input in the queue **/
+    private static final Input END = new Input(null, null);
+
+    private BufferedReporter reporter;
+
+    /** the initialisation of some processors is not thread safe **/
+    private final Object initLock = new Object();
+
+    /** Document read from the input with its key **/
+    private static class Input {
+        final Text key;
+        final BehemothDocument doc;
+
+        Input(Text key, BehemothDocument doc) {
+            this.key = key;
+            this.doc = doc;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(BehemothConfiguration.create(),
+                new LocalPipelineRunner(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Options options = new Options();
+        // automatically generate the help statement
+        HelpFormatter formatter = new HelpFormatter();
+        // create the parser
+        CommandLineParser parser = new GnuParser();
+
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("i", "input", true,
+                "input Behemoth corpus or directory");
+        options.addOption("o", "output", true, "output Behemoth corpus");
+        options.addOption("p", "processors", true,
+                "comma separated list of DocumentProcessor or DocumentProcessorFactory classes (default "
+                        + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME
+                        + ")");
+        options.addOption("t", "threads", true,
+                "number of worker threads (default "
+                        + ProcessorMapRunner.THREADS_PARAM_NAME
+                        + " or the number of cores)");
+        options.addOption("f", "files", false,
+                "input is a directory of files instead of a Behemoth corpus");
+        options.addOption("w", "overwrite", false, "overwrite the output");
+
+        // parse the command line arguments
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                formatter.printHelp(LOCAL_PIPELINE_RUNNER, options);
+                return 0;
+            }
+            if (!line.hasOption("i") || !line.hasOption("o")) {
+                formatter.printHelp(LOCAL_PIPELINE_RUNNER, options);
+                return -1;
+            }
+        } catch (ParseException e) {
+            formatter.printHelp(LOCAL_PIPELINE_RUNNER, options);
+            return -1;
+        }
+
+        Configuration conf = getConf();
+        // the metrics summaries go with the output unless specified otherwise
+        if (conf.get(InstrumentedDocumentProcessor.METRICS_DIR_PARAM_NAME) == null)
+            conf.set(InstrumentedDocumentProcessor.METRICS_DIR_PARAM_NAME,
+                    line.getOptionValue("o"));
+        if (line.hasOption("p"))
+            conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                    line.getOptionValue("p"));
+
+        int threads = conf.getInt(ProcessorMapRunner.THREADS_PARAM_NAME, 1);
+        if (threads <= 1)
+            threads = Runtime.getRuntime().availableProcessors();
+        if (line.hasOption("t"))
+            threads = Integer.parseInt(line.getOptionValue("t"));
+
+        Path inputPath = new Path(line.getOptionValue("i"));
+        Path outputPath = new Path(line.getOptionValue("o"));
+
+        FileSystem fs = outputPath.getFileSystem(conf);
+        if (fs.exists(outputPath)) {
+            if (!line.hasOption("w")) {
+                System.out.println("Output path " + outputPath
+                        + " already exists. Use option -w to overwrite.");
+                return -1;
+            }
+            fs.delete(outputPath, true);
+        }
+
+        long start = System.currentTimeMillis();
+        long count = process(inputPath, line.hasOption("f"), outputPath,
+                threads);
+        long finish = System.currentTimeMillis();
+        for (Group group : reporter.getCounters()) {
+            for (Counter counter : group) {
+                LOG.info(group.getDisplayName() + " : "
+                        + counter.getDisplayName() + " = "
+                        + counter.getValue());
+            }
+        }
+        LOG.info("LocalPipelineRunner completed. Timing: " + (finish - start)
+                + " ms");
+        LOG.info(count + " docs written");
+        return 0;
+    }
+
+    /**
+     * Returns the counters of the last call to process() or null if it hasn't
+     * been called
+     **/
+    public BufferedReporter getReporter() {
+        return reporter;
+    }
+
+    /**
+     * Processes the input with the given number of threads and returns the
+     * number of documents written to the output directory
+     **/
+    public long process(Path input, boolean rawFiles, Path output,
+            int numThreads) throws IOException {
+        final Configuration conf = getConf();
+        reporter = new BufferedReporter(null);
+        FileSystem outFS = output.getFileSystem(conf);
+        outFS.mkdirs(output);
+
+        // bounded so that the reader does not get too far ahead
+        BlockingQueue<Input> queue = new ArrayBlockingQueue<Input>(
+                numThreads * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Long>> workers = new ArrayList<Future<Long>>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            Path part = new Path(output, String.format("part-%05d", i));
+            workers.add(executor.submit(new Worker(conf, queue, part)));
+        }
+        executor.shutdown();
+
+        long read = 0;
+        try {
+            FileSystem inFS = input.getFileSystem(conf);
+            if (rawFiles)
+                read = readFiles(inFS, inFS.getFileStatus(input), queue,
+                        workers);
+            else
+                read = readCorpus(conf, inFS, input, queue, workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            // one end marker per worker, unless they have all died
+            for (int i = 0; i < numThreads; i++) {
+                try {
+                    while (!queue.offer(END, 1, TimeUnit.SECONDS)) {
+                        if (allDone(workers))
+                            break;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        reporter.incrCounter(LOCAL_PIPELINE_RUNNER, "DOC READ", read);
+
+        long written = 0;
+        IOException failure = null;
+        for (Future<Long> worker : workers) {
+            try {
+                written += worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                LOG.error("Worker failed", e.getCause());
+                if (failure == null)
+                    failure = new IOException(e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return written;
+    }
+
+    private static boolean allDone(List<Future<Long>> workers) {
+        for (Future<Long> worker : workers) {
+            if (!worker.isDone())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Puts a document in the queue, gives up if all the workers have stopped
+     **/
+    private static void put(BlockingQueue<Input> queue, Text key,
+            BehemothDocument doc, List<Future<Long>> workers)
+            throws InterruptedException, IOException {
+        while (!queue.offer(new Input(key, doc), 1, TimeUnit.SECONDS)) {
+            if (allDone(workers))
+                throw new IOException("All the workers have stopped");
+        }
+    }
+
+    /** Reads the documents from the SequenceFiles of a Behemoth corpus **/
+    private long readCorpus(Configuration conf, FileSystem fs, Path input,
+            BlockingQueue<Input> queue, List<Future<Long>> workers)
+            throws IOException, InterruptedException {
+        List<Path> paths = new ArrayList<Path>();
+        if (fs.getFileStatus(input).isDir()) {
+            for (FileStatus status : fs.listStatus(input)) {
+                String name = status.getPath().getName();
+                // skip _SUCCESS, _logs, .crc files etc...
+                if (status.isDir() || name.startsWith("_")
+                        || name.startsWith("."))
+                    continue;
+                paths.add(status.getPath());
+            }
+        } else
+            paths.add(input);
+
+        long count = 0;
+        for (Path path : paths) {
+            LOG.info("Reading " + path);
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, path,
+                    conf);
+            try {
+                Text key = new Text();
+                BehemothDocument value = new BehemothDocument();
+                while (reader.next(key, value)) {
+                    put(queue, key, value, workers);
+                    count++;
+                    // the previous instances belong to the workers now
+                    key = new Text();
+                    value = new BehemothDocument();
+                }
+            } finally {
+                IOUtils.closeStream(reader);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the files of a directory recursively, the documents get their URL
+     * and content as with the CorpusGenerator. Archives are not unpacked.
+     **/
+    private long readFiles(FileSystem fs, FileStatus status,
+            BlockingQueue<Input> queue, List<Future<Long>> workers)
+            throws IOException, InterruptedException {
+        String name = status.getPath().getName();
+        if (name.startsWith("."))
+            return 0;
+        if (status.isDir()) {
+            long count = 0;
+            for (FileStatus child : fs.listStatus(status.getPath()))
+                count += readFiles(fs, child, queue, workers);
+            return count;
+        }
+        byte[] content = new byte[(int) status.getLen()];
+        FSDataInputStream fis = fs.open(status.getPath());
+        try {
+            fis.readFully(0, content);
+        } finally {
+            fis.close();
+        }
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl(status.getPath().toUri().toString());
+        doc.setContent(content);
+        put(queue, new Text(doc.getUrl()), doc, workers);
+        return 1;
+    }
+
+    /**
+     * Processes the documents from the queue and writes the results to its own
+     * part file
+     **/
+    private class Worker implements Callable<Long> {
+
+        private final Configuration conf;
+        private final BlockingQueue<Input> queue;
+        private final Path part;
+
+        Worker(Configuration conf, BlockingQueue<Input> queue,
+                Path part) {
+            this.conf = conf;
+            this.queue = queue;
+            this.part = part;
+        }
+
+        public Long call() throws Exception {
+            DocumentProcessor processor;
+            synchronized (initLock) {
+                processor = newProcessor(conf);
+            }
+            DocumentFilter filter = DocumentFilter.getFilters(conf);
+            boolean doFilter = DocumentFilter.isRequired(conf);
+            BufferedReporter counters = new BufferedReporter(null);
+            long written = 0;
+            SequenceFile.Writer writer = SequenceFile.createWriter(
+                    part.getFileSystem(conf), conf, part, Text.class,
+                    BehemothDocument.class);
+            try {
+                DocumentBatch batch = new DocumentBatch(conf);
+                boolean more = true;
+                while (more) {
+                    Input input = queue.take();
+                    more = input != END;
+                    if (more)
+                        batch.add(input.key, input.doc);
+                    if (batch.isEmpty() || (more && !batch.isFull()))
+                        continue;
+                    List<BehemothDocument[]> results = batch.process(
+                            processor, counters);
+                    for (int i = 0; i < results.size(); i++) {
+                        BehemothDocument[] outputs = results.get(i);
+                        if (outputs == null)
+                            continue;
+                        for (BehemothDocument output : outputs) {
+                            if (doFilter && !filter.keep(output)) {
+                                counters.incrCounter(LOCAL_PIPELINE_RUNNER,
+                                        "DOC SKIPPED BY FILTERS", 1);
+                                continue;
+                            }
+                            writer.append(batch.getKeys().get(i), output);
+                            written++;
+                        }
+                    }
+                    batch = new DocumentBatch(conf);
+                }
+            } finally {
+                IOUtils.closeStream(writer);
+                processor.close();
+                synchronized (reporter) {
+                    counters.flush(reporter);
+                }
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Returns a chain of processors if behemoth.chain.processors is set or the
+     * processor specified in behemoth.processor.class
+     **/
+    static DocumentProcessor newProcessor(Configuration conf) {
+        String[] chain = conf
+                .getStrings(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME);
+        if (chain != null && chain.length > 0) {
+            DocumentProcessor processor = new ChainedDocumentProcessor();
+            processor.setConf(conf);
+            return processor;
+        }
+        String className = conf.get(ProcessorMapRunner.PROCESSOR_PARAM_NAME);
+        if (className == null)
+            throw new RuntimeException("Neither "
+                    + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME + " nor "
+                    + ProcessorMapRunner.PROCESSOR_PARAM_NAME + " set");
+        return ProcessorMapRunner.newProcessor(conf, className);
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.ChainedDocumentProcessor;
+import com.digitalpebble.behemoth.ProcessorChainMapper;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
+
+/**
+ * Processes a Behemoth corpus with a chain of DocumentProcessors in a single
+ * map-only job, e.g.
+ * 
+ * <pre>
+ * hadoop jar behemoth-job.jar com.digitalpebble.behemoth.util.ProcessorChainDriver \
+ *  -archives ANNIE.zip -D gate.application.path=ANNIE.zip \
+ *  -D behemoth.chain.filter.2.document.filter.md.keep.lang=en \
+ *  -p com.digitalpebble.behemoth.tika.TikaProcessor,com.digitalpebble.behemoth.languageidentification.LanguageIdProcessor,com.digitalpebble.behemoth.gate.GATEProcessorFactory \
+ *  -i input -o output
+ * </pre>
+ * 
+ * The job jar must contain all the modules used by the chain.
+ * 
+ * @see com.digitalpebble.behemoth.ChainedDocumentProcessor
+ **/
+public class ProcessorChainDriver extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ProcessorChainDriver.class);
+
+    private static final String PROCESSOR_CHAIN_DRIVER = "ProcessorChainDriver";
+
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(BehemothConfiguration.create(),
+                new ProcessorChainDriver(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Options options = new Options();
+        // automatically generate the help statement
+        HelpFormatter formatter = new HelpFormatter();
+        // create the parser
+        CommandLineParser parser = new GnuParser();
+
+        options.addOption("h", "help", false, "print this message");
+        options.addOption("i", "input", true, "input Behemoth corpus");
+        options.addOption("o", "output", true, "output Behemoth corpus");
+        options.addOption("p", "processors", true,
+                "comma separated list of DocumentProcessor or DocumentProcessorFactory classes (default "
+                        + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME
+                        + ")");
+        options.addOption("w", "overwrite", false, "overwrite the output");
+
+        // parse the command line arguments
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                formatter.printHelp(PROCESSOR_CHAIN_DRIVER, options);
+                return 0;
+            }
+            if (!line.hasOption("i") || !line.hasOption("o")) {
+                formatter.printHelp(PROCESSOR_CHAIN_DRIVER, options);
+                return -1;
+            }
+        } catch (ParseException e) {
+            formatter.printHelp(PROCESSOR_CHAIN_DRIVER, options);
+            return -1;
+        }
+
+        Path inputPath = new Path(line.getOptionValue("i"));
+        Path outputPath = new Path(line.getOptionValue("o"));
+
+        JobConf job = new JobConf(getConf());
+        job.setJarByClass(this.getClass());
+
+        if (line.hasOption("p"))
+            job.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                    line.getOptionValue("p"));
+
+        String[] processors = job
+                .getStrings(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME);
+        if (processors == null || processors.length == 0) {
+            System.err.println("No processors specified with -p or "
+                    + ChainedDocumentProcessor.PROCESSORS_PARAM_NAME);
+            return -1;
+        }
+
+        FileSystem fs = outputPath.getFileSystem(job);
+        if (fs.exists(outputPath)) {
+            if (!line.hasOption("w")) {
+                System.out.println("Output path " + outputPath
+                        + " already exists. Use option -w to overwrite.");
+                return -1;
+            }
+            fs.delete(outputPath, true);
+        }
+
+        job.setJobName("ProcessorChain : " + inputPath + " "
+                + processors.length + " stages");
+
+        BehemothConfiguration.setInputFormat(job);
+        job.setOutputFormat(SequenceFileOutputFormat.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(BehemothDocument.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(BehemothDocument.class);
+
+        job.setMapperClass(ProcessorChainMapper.class);
+        // several threads if behemoth.runner.threads > 1
+        ProcessorMapRunner.configure(job, ChainedDocumentProcessor.class);
+
+        // only the output of the last stage is written
+        job.setNumReduceTasks(0);
+
+        FileInputFormat.addInputPath(job, inputPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        try {
+            long start = System.currentTimeMillis();
+            RunningJob rj = JobClient.runJob(job);
+            long finish = System.currentTimeMillis();
+            LOG.info("ProcessorChainDriver completed. Timing: "
+                    + (finish - start) + " ms");
+            if (!rj.isSuccessful())
+                return -1;
+        } catch (Exception e) {
+            LOG.error("Exception", e);
+            return -1;
+        }
+
+        return 0;
+    }
+}
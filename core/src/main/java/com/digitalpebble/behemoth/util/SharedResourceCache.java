@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.MD5Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node-local cache of the resources which need to be unpacked or installed
+ * before a processor can be used, e.g. a UIMA pear. Each version of a
+ * resource is installed once per node in [behemoth.resources.dir]/[name]-[MD5
+ * of the source file] and shared by all the tasks and threads running on the
+ * node. The installation is protected by a file lock so that a single task
+ * installs it while the others wait; a marker file is written once the
+ * installation is complete so that an interrupted one is started again. Old
+ * versions are not removed.
+ **/
+public class SharedResourceCache {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SharedResourceCache.class);
+
+    /** Local directory where the resources are installed **/
+    public static final String DIR_PARAM_NAME = "behemoth.resources.dir";
+
+    private static final String COMPLETE_MARKER = ".installed";
+
+    /** Installs a resource into a directory **/
+    public interface Installer {
+        void install(File source, File target) throws IOException;
+    }
+
+    /** Locks held by the threads of this JVM, file locks are per process **/
+    private static final Map<String, Object> locks = new HashMap<String, Object>();
+
+    /** Digests of the source files already computed, keyed by path and date **/
+    private static final Map<String, String> versions = new HashMap<String, String>();
+
+    private SharedResourceCache() {
+    }
+
+    /**
+     * Returns the directory where the version of the resource found in the
+     * source file is installed, calling the installer if this has not been
+     * done yet on this node
+     **/
+    public static File get(Configuration conf, String name, File source,
+            Installer installer) throws IOException {
+        File dir = new File(conf.get(DIR_PARAM_NAME,
+                conf.get("hadoop.tmp.dir") + "/behemoth-resources"));
+        String key = name + "-" + getVersion(source);
+        File target = new File(dir, key);
+        if (new File(target, COMPLETE_MARKER).exists())
+            return target;
+
+        Object lock;
+        synchronized (locks) {
+            lock = locks.get(key);
+            if (lock == null) {
+                lock = new Object();
+                locks.put(key, lock);
+            }
+        }
+        synchronized (lock) {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+                throw new IOException("Can't create " + dir);
+            RandomAccessFile lockFile = new RandomAccessFile(new File(dir, key
+                    + ".lock"), "rw");
+            try {
+                FileChannel channel = lockFile.getChannel();
+                long start = System.currentTimeMillis();
+                FileLock fileLock = channel.lock();
+                try {
+                    // installed by another task while waiting for the lock
+                    if (new File(target, COMPLETE_MARKER).exists()) {
+                        LOG.info("Resource " + key + " installed by another "
+                                + "task, waited "
+                                + (System.currentTimeMillis() - start)
+                                + " msec");
+                        return target;
+                    }
+                    // remains of an interrupted installation
+                    if (target.exists() && !FileUtil.fullyDelete(target))
+                        throw new IOException("Can't delete " + target);
+                    if (!target.mkdirs())
+                        throw new IOException("Can't create " + target);
+                    installer.install(source, target);
+                    if (!new File(target, COMPLETE_MARKER).createNewFile())
+                        throw new IOException("Can't mark " + target
+                                + " as installed");
+                    LOG.info("Resource " + key + " installed in " + target
+                            + " in " + (System.currentTimeMillis() - start)
+                            + " msec");
+                    return target;
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    /** Returns the MD5 of the content of a file **/
+    static String getVersion(File source) throws IOException {
+        String id = source.getAbsolutePath() + "@" + source.lastModified()
+                + "@" + source.length();
+        synchronized (versions) {
+            String version = versions.get(id);
+            if (version != null)
+                return version;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        InputStream input = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } finally {
+            input.close();
+        }
+        String version = new MD5Hash(digest.digest()).toString();
+        synchronized (versions) {
+            versions.put(id, version);
+        }
+        return version;
+    }
+
+}
@@ -0,0 +1,281 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matches URLs against a large list of hosts or URL prefixes in a time
+ * proportional to the length of the URL, regardless of the size of the list.
+ * Hosts are kept in a hash set and match the host of a URL or any of its
+ * parent domains, prefixes are compiled into a trie which is walked as a
+ * deterministic automaton.
+ **/
+public abstract class URLListFilter {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(URLListFilter.class);
+
+    /** Returns true if the URL matches an entry of the list **/
+    public abstract boolean matches(String url);
+
+    /** Returns the number of entries in the list **/
+    public abstract int size();
+
+    /**
+     * Builds a filter matching the hosts in the collection and their
+     * subdomains
+     **/
+    public static URLListFilter forHosts(Collection<String> hosts) {
+        return new HostSet(hosts);
+    }
+
+    /** Builds a filter matching the URLs starting with one of the prefixes **/
+    public static URLListFilter forPrefixes(Collection<String> prefixes) {
+        return new PrefixTrie(prefixes);
+    }
+
+    /**
+     * Reads a list of entries, one per line. Empty lines and lines starting
+     * with '#' are ignored. The file is looked for in the working directory of
+     * the task (where the files added with -files are linked), then in the
+     * local copies of the DistributedCache and finally read from its
+     * filesystem.
+     **/
+    public static List<String> readList(Configuration conf, String location)
+            throws IOException {
+        Path path = new Path(location);
+        InputStream input = null;
+        File local = new File(path.getName());
+        if (local.isFile()) {
+            LOG.info("Reading list from working directory " + local);
+            input = new FileInputStream(local);
+        } else {
+            Path[] cached = DistributedCache.getLocalCacheFiles(conf);
+            if (cached != null) {
+                for (Path cachedPath : cached) {
+                    if (!cachedPath.getName().equals(path.getName()))
+                        continue;
+                    LOG.info("Reading list from DistributedCache "
+                            + cachedPath);
+                    input = new FileInputStream(cachedPath.toUri().getPath());
+                    break;
+                }
+            }
+        }
+        if (input == null) {
+            LOG.info("Reading list from " + path);
+            input = path.getFileSystem(conf).open(path);
+        }
+
+        List<String> entries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                entries.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the lowercased host of a URL or null if it can't be found. Does
+     * not rely on java.net.URL to avoid its costs on every document.
+     **/
+    static String getHost(String url) {
+        int start = url.indexOf("://");
+        if (start == -1)
+            return null;
+        start += 3;
+        int end = start;
+        int length = url.length();
+        while (end < length) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#')
+                break;
+            end++;
+        }
+        // remove the user info and the port
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start)
+            start = at + 1;
+        int colon = url.indexOf(':', start);
+        if (colon != -1 && colon < end)
+            end = colon;
+        if (end <= start)
+            return null;
+        return url.substring(start, end).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class HostSet extends URLListFilter {
+
+        private final Set<String> hosts;
+
+        HostSet(Collection<String> entries) {
+            hosts = new HashSet<String>(entries.size() * 2);
+            for (String entry : entries) {
+                String host = entry.toLowerCase(Locale.ENGLISH);
+                // tolerate full URLs in the list
+                if (host.indexOf("://") != -1)
+                    host = getHost(host);
+                if (host != null && host.length() > 0)
+                    hosts.add(host);
+            }
+        }
+
+        public boolean matches(String url) {
+            String host = getHost(url);
+            if (host == null)
+                return false;
+            // try the host then its parent domains
+            int pos = 0;
+            while (pos != -1) {
+                if (hosts.contains(pos == 0 ? host : host.substring(pos)))
+                    return true;
+                int dot = host.indexOf('.', pos);
+                pos = dot == -1 ? -1 : dot + 1;
+            }
+            return false;
+        }
+
+        public int size() {
+            return hosts.size();
+        }
+    }
+
+    /**
+     * Character trie stored in flat arrays (first child / next sibling) to
+     * keep the memory footprint of large lists low. The prefixes are added
+     * from the shortest to the longest so that the ones extending a prefix
+     * already in the list are simply not stored, as they can't change the
+     * outcome of a match.
+     **/
+    private static class PrefixTrie extends URLListFilter {
+
+        private char[] labels = new char[1024];
+        private int[] firstChild = new int[1024];
+        private int[] nextSibling = new int[1024];
+        private boolean[] terminal = new boolean[1024];
+        private int numNodes = 1;
+        private int size = 0;
+
+        PrefixTrie(Collection<String> entries) {
+            firstChild[0] = -1;
+            nextSibling[0] = -1;
+            List<String> sorted = new ArrayList<String>(entries);
+            Collections.sort(sorted, new Comparator<String>() {
+                public int compare(String s1, String s2) {
+                    return s1.length() - s2.length();
+                }
+            });
+            for (String entry : sorted) {
+                if (add(entry))
+                    size++;
+            }
+        }
+
+        private boolean add(String prefix) {
+            if (prefix.length() == 0)
+                return false;
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (terminal[node])
+                    return false;
+                char c = prefix.charAt(i);
+                int child = findChild(node, c);
+                if (child == -1)
+                    child = addChild(node, c);
+                node = child;
+            }
+            if (terminal[node])
+                return false;
+            terminal[node] = true;
+            return true;
+        }
+
+        private int findChild(int node, char c) {
+            int child = firstChild[node];
+            while (child != -1) {
+                if (labels[child] == c)
+                    return child;
+                child = nextSibling[child];
+            }
+            return -1;
+        }
+
+        private int addChild(int node, char c) {
+            if (numNodes == labels.length) {
+                int newLength = labels.length * 2;
+                labels = Arrays.copyOf(labels, newLength);
+                firstChild = Arrays.copyOf(firstChild, newLength);
+                nextSibling = Arrays.copyOf(nextSibling, newLength);
+                terminal = Arrays.copyOf(terminal, newLength);
+            }
+            int child = numNodes++;
+            labels[child] = c;
+            firstChild[child] = -1;
+            nextSibling[child] = firstChild[node];
+            firstChild[node] = child;
+            return child;
+        }
+
+        public boolean matches(String url) {
+            int node = 0;
+            for (int i = 0; i < url.length(); i++) {
+                node = findChild(node, url.charAt(i));
+                if (node == -1)
+                    return false;
+                if (terminal[node])
+                    return true;
+            }
+            return false;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+}
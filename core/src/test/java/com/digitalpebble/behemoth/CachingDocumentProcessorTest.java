@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+public class CachingDocumentProcessorTest extends TestCase {
+
+    /** Counts the documents it processes **/
+    public static class CountingProcessor extends
+            ChainedDocumentProcessorTest.StageProcessor {
+
+        static int processed = 0;
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            processed++;
+            inputDoc.getMetadata(true).put(new Text("lang"), new Text("en"));
+            inputDoc.getAnnotations().add(new Annotation());
+            return super.process(inputDoc, reporter);
+        }
+    }
+
+    private BehemothDocument newDoc(String url, String source) {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl(url);
+        doc.setContent("some content".getBytes());
+        doc.getMetadata(true).put(new Text("source"), new Text(source));
+        return doc;
+    }
+
+    public void testCache() throws IOException {
+        File dir = new File("target/test-cache");
+        FileUtil.fullyDelete(dir);
+        Configuration conf = BehemothConfiguration.create();
+        conf.set(CachingDocumentProcessor.CACHE_DIR_PARAM_NAME,
+                dir.getAbsolutePath());
+        CountingProcessor.processed = 0;
+
+        DocumentProcessor processor = ProcessorMapRunner.newProcessor(conf,
+                CountingProcessor.class.getName());
+        assertTrue(processor instanceof CachingDocumentProcessor);
+        BufferedReporter reporter = new BufferedReporter(null);
+
+        processor.process(newDoc("http://www.example.com/1", "crawl1"),
+                reporter);
+        BehemothDocument[] outputs = processor.process(
+                newDoc("http://www.example.com/2", "crawl1"), reporter);
+        assertEquals(1, CountingProcessor.processed);
+        assertEquals(1, reporter.getCounter("ProcessorCache",
+                "HIT CountingProcessor").getValue());
+        assertEquals(1, reporter.getCounter("ProcessorCache",
+                "MISS CountingProcessor").getValue());
+
+        // outputs of the first document applied to the second one
+        assertEquals(1, outputs.length);
+        BehemothDocument output = outputs[0];
+        assertEquals("http://www.example.com/2", output.getUrl());
+        assertEquals("some content", new String(output.getContent()));
+        assertEquals("S", output.getText());
+        assertEquals(1, output.getAnnotations().size());
+        assertEquals("crawl1", output.getMetadata().get(new Text("source"))
+                .toString());
+        assertEquals("en", output.getMetadata().get(new Text("lang"))
+                .toString());
+
+        // the metadata of the input are part of the key
+        processor.process(newDoc("http://www.example.com/3", "crawl2"),
+                reporter);
+        assertEquals(2, CountingProcessor.processed);
+        processor.close();
+
+        // a different configuration of the processor invalidates the cache
+        String fingerprint = CachingDocumentProcessor.getFingerprint(conf,
+                CountingProcessor.class);
+        conf.set("behemoth.some.param", "value");
+        String changed = CachingDocumentProcessor.getFingerprint(conf,
+                CountingProcessor.class);
+        assertFalse(fingerprint.equals(changed));
+        conf.set("unrelated.param", "value");
+        assertEquals(changed, CachingDocumentProcessor.getFingerprint(conf,
+                CountingProcessor.class));
+
+        // the stages of a chain are cached, not the chain itself
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                CountingProcessor.class.getName());
+        processor = ProcessorMapRunner.newProcessor(conf,
+                ChainedDocumentProcessor.class.getName());
+        assertTrue(processor instanceof ChainedDocumentProcessor);
+        processor.close();
+        FileUtil.fullyDelete(dir);
+    }
+
+    public void testRewriteURL() {
+        String cached = "http://www.example.com/1";
+        String current = "http://www.example.com/2";
+        assertEquals(current,
+                CachingDocumentProcessor.rewrite(cached, cached, current));
+        assertEquals(current + "!/attachment.pdf",
+                CachingDocumentProcessor.rewrite(cached + "!/attachment.pdf",
+                        cached, current));
+        assertEquals(cached + "0", CachingDocumentProcessor.rewrite(cached
+                + "0", cached, current));
+        assertEquals("http://www.example.com/other",
+                CachingDocumentProcessor.rewrite(
+                        "http://www.example.com/other", cached, current));
+    }
+
+}
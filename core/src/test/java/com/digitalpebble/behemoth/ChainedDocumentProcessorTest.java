@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+public class ChainedDocumentProcessorTest extends TestCase {
+
+    /** Sets the length of the URL as metadata **/
+    public static class LengthProcessor implements DocumentProcessor {
+
+        private Configuration conf;
+
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+        }
+
+        public Configuration getConf() {
+            return conf;
+        }
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            inputDoc.getMetadata(true).put(new Text("length"),
+                    new Text(Integer.toString(inputDoc.getUrl().length())));
+            return new BehemothDocument[] { inputDoc };
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Appends its stage to the text of the documents **/
+    public static class StageProcessor extends LengthProcessor {
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            String text = inputDoc.getText() == null ? "" : inputDoc
+                    .getText();
+            inputDoc.setText(text + "S");
+            return new BehemothDocument[] { inputDoc };
+        }
+    }
+
+    private BehemothDocument newDoc(String url) {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl(url);
+        return doc;
+    }
+
+    public void testChain() {
+        Configuration conf = BehemothConfiguration.create();
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                StageProcessor.class.getName() + ", "
+                        + LengthProcessor.class.getName() + ","
+                        + StageProcessor.class.getName());
+        ChainedDocumentProcessor chain = new ChainedDocumentProcessor();
+        chain.setConf(conf);
+        BehemothDocument[] outputs = chain.process(
+                newDoc("http://www.example.com/"), Reporter.NULL);
+        assertEquals(1, outputs.length);
+        assertEquals("SS", outputs[0].getText());
+        assertEquals("23",
+                outputs[0].getMetadata().get(new Text("length")).toString());
+        chain.close();
+    }
+
+    public void testStageFilters() {
+        Configuration conf = BehemothConfiguration.create();
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                LengthProcessor.class.getName() + ","
+                        + StageProcessor.class.getName());
+        // before the first stage
+        conf.set(ChainedDocumentProcessor.FILTER_PARAM_PREFIX + "0."
+                + DocumentFilter.DocumentFilterParamNameURLFilterKeep,
+                "http://.+");
+        // on the output of the first stage
+        conf.set(ChainedDocumentProcessor.FILTER_PARAM_PREFIX + "1."
+                + DocumentFilter.DocumentFilterParamNamePrefixKeep + "length",
+                "2[0-9]");
+
+        assertNull(ChainedDocumentProcessor.getStageFilter(conf, 2));
+
+        ChainedDocumentProcessor chain = new ChainedDocumentProcessor();
+        chain.setConf(conf);
+        assertEquals(0,
+                chain.process(newDoc("ftp://www.example.com/"), Reporter.NULL).length);
+        assertEquals(0,
+                chain.process(newDoc("http://example.com/"), Reporter.NULL).length);
+        BehemothDocument[] outputs = chain.process(
+                newDoc("http://www.example.com/"), Reporter.NULL);
+        assertEquals(1, outputs.length);
+        assertEquals("S", outputs[0].getText());
+        chain.close();
+    }
+
+}
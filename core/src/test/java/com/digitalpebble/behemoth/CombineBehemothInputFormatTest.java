@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+public class CombineBehemothInputFormatTest extends TestCase {
+
+    public void testCombine() throws Exception {
+        JobConf job = new JobConf(BehemothConfiguration.create());
+        FileSystem fs = FileSystem.getLocal(job);
+        Path dir = new Path(new File("target/test-combine").getAbsolutePath());
+        fs.delete(dir, true);
+
+        for (int i = 0; i < 10; i++) {
+            SequenceFile.Writer writer = SequenceFile.createWriter(fs, job,
+                    new Path(dir, "part-0000" + i), Text.class,
+                    BehemothDocument.class);
+            for (int j = 0; j < 3; j++) {
+                BehemothDocument doc = new BehemothDocument();
+                doc.setUrl("http://www.example.com/" + i + "/" + j);
+                doc.setText("text " + i + " " + j);
+                writer.append(new Text(doc.getUrl()), doc);
+            }
+            writer.close();
+        }
+        FileInputFormat.addInputPath(job, dir);
+
+        job.set(BehemothConfiguration.INPUT_FORMAT_PARAM_NAME,
+                CombineBehemothInputFormat.class.getName());
+        BehemothConfiguration.setInputFormat(job);
+        @SuppressWarnings("unchecked")
+        InputFormat<Text, BehemothDocument> format = job.getInputFormat();
+        assertTrue(format instanceof CombineBehemothInputFormat);
+
+        // all the files fit in a single split
+        InputSplit[] splits = format.getSplits(job, 10);
+        assertEquals(1, splits.length);
+        Set<String> urls = new HashSet<String>();
+        RecordReader<Text, BehemothDocument> reader = format.getRecordReader(
+                splits[0], job, Reporter.NULL);
+        Text key = reader.createKey();
+        BehemothDocument doc = reader.createValue();
+        while (reader.next(key, doc)) {
+            assertEquals(key.toString(), doc.getUrl());
+            urls.add(doc.getUrl());
+        }
+        reader.close();
+        assertEquals(30, urls.size());
+
+        // each file is larger than the maximum size of a split
+        job.setLong(CombineBehemothInputFormat.SPLIT_SIZE_PARAM_NAME, 10);
+        assertEquals(10, format.getSplits(job, 10).length);
+
+        fs.delete(dir, true);
+    }
+
+}
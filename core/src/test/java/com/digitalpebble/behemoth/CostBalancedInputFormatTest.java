@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+public class CostBalancedInputFormatTest extends TestCase {
+
+    private static final int NUM_TEXT = 40;
+
+    private static final int NUM_PDF = 8;
+
+    private FileSystem fs;
+
+    private Path dir;
+
+    private JobConf job;
+
+    protected void setUp() throws Exception {
+        job = new JobConf(BehemothConfiguration.create());
+        fs = FileSystem.getLocal(job);
+        dir = new Path(new File("target/test-cost").getAbsolutePath());
+        fs.delete(dir, true);
+
+        // a PDF costs 100 times more than a text document of the same size
+        Path metrics = new Path(dir, "metrics/"
+                + InstrumentedDocumentProcessor.SUMMARY_PREFIX + "local");
+        Writer writer = new OutputStreamWriter(fs.create(metrics), "UTF-8");
+        writer.write(InstrumentedDocumentProcessor.SUMMARY_HEADER + "\n");
+        writer.write("TikaProcessor\tall\t*\t20\t50500\t0\t0\t0\t0\t2000000\t0\t0\n");
+        writer.write("TikaProcessor\tmimetype\tapplication/pdf\t10\t100000\t0\t0\t0\t0\t1000000\t0\t0\n");
+        writer.write("TikaProcessor\tmimetype\ttext/plain\t10\t1000\t0\t0\t0\t0\t1000000\t0\t0\n");
+        writer.close();
+        job.set(CostModel.METRICS_PARAM_NAME, new Path(dir, "metrics")
+                .toString());
+        job.setLong(CostModel.DOC_BYTES_PARAM_NAME, 0);
+
+        SequenceFile.Writer corpus = SequenceFile.createWriter(fs, job,
+                new Path(dir, "corpus/part-00000"), Text.class,
+                BehemothDocument.class);
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_TEXT + NUM_PDF; i++) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl("http://www.example.com/" + i);
+            // random bytes so that the records are not compressed much
+            byte[] content = new byte[10000];
+            random.nextBytes(content);
+            doc.setContent(content);
+            doc.setContentType(i < NUM_TEXT ? "text/plain; charset=UTF-8"
+                    : "application/pdf");
+            corpus.append(new Text(doc.getUrl()), doc);
+        }
+        corpus.close();
+    }
+
+    protected void tearDown() throws Exception {
+        fs.delete(dir, true);
+    }
+
+    public void testModel() throws IOException {
+        CostModel model = new CostModel(job);
+        assertEquals(1, model.getWeight("application/pdf"), 0.0001);
+        assertEquals(0.01, model.getWeight("text/plain"), 0.0001);
+        assertEquals(0.01, model.getWeight("TEXT/plain;charset=UTF-8"),
+                0.0001);
+        // unknown MIME types get the average weight
+        assertEquals(0.505, model.getWeight("image/png"), 0.0001);
+        assertEquals(10000, model.estimate("application/pdf", 10000), 0.1);
+    }
+
+    public void testSplits() throws IOException {
+        Path corpus = new Path(dir, "corpus");
+        Path file = new Path(corpus, "part-00000");
+        FileInputFormat.addInputPath(job, corpus);
+        job.setInt(CostBalancedInputFormat.SPLITS_PARAM_NAME, 4);
+        job.setLong(CostBalancedInputFormat.CHUNK_SIZE_PARAM_NAME, 0);
+        CostBalancedInputFormat format = new CostBalancedInputFormat();
+
+        // no sidecar : split by size
+        assertEquals(1, format.getSplits(job, 1).length);
+
+        assertEquals(NUM_TEXT + NUM_PDF,
+                CostBalancedInputFormat.writeSidecar(fs, file, job));
+        assertTrue(fs.exists(new Path(corpus, "_costs/part-00000")));
+
+        InputSplit[] splits = format.getSplits(job, 1);
+        assertTrue(splits.length >= 4);
+        Set<String> urls = new HashSet<String>();
+        int textSplits = 0;
+        for (InputSplit split : splits) {
+            RecordReader<Text, BehemothDocument> reader = format
+                    .getRecordReader(split, job, Reporter.NULL);
+            Text key = reader.createKey();
+            BehemothDocument doc = reader.createValue();
+            int pdfs = 0;
+            int texts = 0;
+            while (reader.next(key, doc)) {
+                assertTrue(urls.add(doc.getUrl()));
+                if (doc.getContentType().equals("application/pdf"))
+                    pdfs++;
+                else
+                    texts++;
+            }
+            reader.close();
+            // a split holds all the text documents or at most 2 PDFs
+            assertTrue(pdfs <= 2);
+            if (texts > 0) {
+                assertEquals(NUM_TEXT, texts);
+                textSplits++;
+            }
+        }
+        assertEquals(1, textSplits);
+        assertEquals(NUM_TEXT + NUM_PDF, urls.size());
+    }
+
+}
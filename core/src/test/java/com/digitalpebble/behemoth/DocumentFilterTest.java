@@ -17,9 +17,16 @@
 
 package com.digitalpebble.behemoth;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 
+import com.digitalpebble.behemoth.util.URLListFilter;
+
 import junit.framework.TestCase;
 
 public class DocumentFilterTest extends TestCase {
@@ -141,4 +148,127 @@ public class DocumentFilterTest extends TestCase {
         assertEquals(true, DocumentFilter.isRequired(config));
     }
 
+    public void testExpressionFilter() {
+        Configuration config = BehemothConfiguration.create();
+        config.set(DocumentFilter.DocumentFilterParamNameExpression,
+                "md.lang = \"en\" AND NOT mimetype ~ \"image/.*\" AND length < 5MB");
+        assertEquals(true, DocumentFilter.isRequired(config));
+        DocumentFilter filter = DocumentFilter.getFilters(config);
+
+        BehemothDocument doc = new BehemothDocument();
+        doc.setContentType("text/html");
+        doc.setContent(new byte[100]);
+        doc.getMetadata(true).put(new Text("lang"), new Text("en"));
+        assertEquals(true, filter.keep(doc));
+
+        doc.setContentType("image/png");
+        assertEquals(false, filter.keep(doc));
+
+        doc.setContentType("text/html");
+        doc.setContent(new byte[5 * 1024 * 1024]);
+        assertEquals(false, filter.keep(doc));
+
+        doc.setContent(new byte[100]);
+        doc.getMetadata(true).put(new Text("lang"), new Text("fr"));
+        assertEquals(false, filter.keep(doc));
+    }
+
+    public void testExpressionPredicates() {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl("http://www.example.com/index.html");
+        doc.setText("some text");
+        Annotation token = new Annotation();
+        token.setType("Token");
+        doc.getAnnotations().add(token);
+        doc.getAnnotations().add(token);
+        Annotation sentence = new Annotation();
+        sentence.setType("Sentence");
+        doc.getAnnotations().add(sentence);
+
+        assertTrue(FilterExpression.parse("EXISTS url").matches(doc));
+        assertFalse(FilterExpression.parse("EXISTS md.lang").matches(doc));
+        assertTrue(FilterExpression.parse("NOT EXISTS md.lang OR md.lang=en")
+                .matches(doc));
+        assertTrue(FilterExpression.parse("textlength IN [1, 9]").matches(doc));
+        assertFalse(FilterExpression.parse("textlength IN [10, 20]").matches(
+                doc));
+        assertTrue(FilterExpression.parse("annotations.Token >= 2").matches(
+                doc));
+        assertTrue(FilterExpression.parse(
+                "annotations = 3 AND (annotations.Sentence > 1 OR url ~ '.+example.+')")
+                .matches(doc));
+        assertFalse(FilterExpression.parse("url !~ '.+example.+'")
+                .matches(doc));
+        // no content at all
+        assertFalse(FilterExpression.parse("length < 10").matches(doc));
+    }
+
+    public void testInvalidExpression() {
+        String[] invalid = new String[] { "md.lang =", "foo = 1",
+                "(url ~ 'a'", "length < abc", "url ~ '['", "url = 'a' bar" };
+        for (String expression : invalid) {
+            try {
+                FilterExpression.parse(expression);
+                fail("Expression should not be valid : " + expression);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testURLListFilters() throws IOException {
+        File hosts = File.createTempFile("hosts", ".txt");
+        File prefixes = File.createTempFile("prefixes", ".txt");
+        hosts.deleteOnExit();
+        prefixes.deleteOnExit();
+        FileWriter writer = new FileWriter(hosts);
+        writer.write("# hosts to keep\nexample.com\nwww.digitalpebble.com\n");
+        writer.close();
+        writer = new FileWriter(prefixes);
+        writer.write("http://www.example.com/private/\nhttp://blog.example.com/\n");
+        writer.close();
+
+        Configuration config = BehemothConfiguration.create();
+        config.set(DocumentFilter.DocumentFilterParamNameURLHostsKeep,
+                hosts.toURI().toString());
+        config.set(DocumentFilter.DocumentFilterParamNameURLPrefixesSkip,
+                prefixes.toURI().toString());
+        assertEquals(true, DocumentFilter.isRequired(config));
+        DocumentFilter filter = DocumentFilter.getFilters(config);
+
+        String[] kept = new String[] { "http://example.com/",
+                "https://www.example.com/index.html",
+                "http://user@Sub.Example.com:8080/page",
+                "http://www.digitalpebble.com" };
+        String[] skipped = new String[] { "http://digitalpebble.com/",
+                "http://www.example.com/private/index.html",
+                "http://blog.example.com/", "http://example.org/",
+                "http://notexample.com/", "not a URL" };
+        for (String url : kept) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl(url);
+            assertEquals(url, true, filter.keep(doc));
+        }
+        for (String url : skipped) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl(url);
+            assertEquals(url, false, filter.keep(doc));
+        }
+        // no URL
+        assertEquals(false, filter.keep(new BehemothDocument()));
+    }
+
+    public void testRedundantPrefixes() {
+        // the shorter prefix comes after the ones it covers
+        URLListFilter prefixes = URLListFilter.forPrefixes(Arrays.asList(
+                "http://www.example.com/a/b", "http://www.example.com/a/c",
+                "http://www.example.com/a", "http://www.example.com/a",
+                "http://www.example.org/"));
+        assertEquals(2, prefixes.size());
+        assertTrue(prefixes.matches("http://www.example.com/a/b"));
+        assertTrue(prefixes.matches("http://www.example.com/ab"));
+        assertTrue(prefixes.matches("http://www.example.org/index.html"));
+        assertFalse(prefixes.matches("http://www.example.com/"));
+    }
+
 }
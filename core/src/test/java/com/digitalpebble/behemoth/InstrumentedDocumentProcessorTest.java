@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+
+import com.digitalpebble.behemoth.util.LatencyHistogram;
+
+public class InstrumentedDocumentProcessorTest extends TestCase {
+
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++)
+            histogram.record(i);
+        assertEquals(10000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(10000, histogram.getMax());
+        // within the precision of the buckets
+        assertEquals(5000, histogram.getValueAtPercentile(50), 5000 * 0.035);
+        assertEquals(9900, histogram.getValueAtPercentile(99), 9900 * 0.035);
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(1000000000L);
+        histogram.add(other);
+        assertEquals(10001, histogram.getCount());
+        assertEquals(1000000000L, histogram.getMax());
+    }
+
+    public void testSummary() throws IOException {
+        File dir = new File("target/test-metrics");
+        FileUtil.fullyDelete(dir);
+
+        Configuration conf = BehemothConfiguration.create();
+        conf.setBoolean(InstrumentedDocumentProcessor.METRICS_PARAM_NAME, true);
+        conf.set(InstrumentedDocumentProcessor.METRICS_DIR_PARAM_NAME,
+                dir.getAbsolutePath());
+        conf.set("mapred.task.id", "attempt_test");
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                ChainedDocumentProcessorTest.StageProcessor.class.getName());
+
+        DocumentProcessor processor = ProcessorMapRunner.newProcessor(conf,
+                ChainedDocumentProcessorTest.StageProcessor.class.getName());
+        assertTrue(processor instanceof InstrumentedDocumentProcessor);
+        for (int i = 0; i < 10; i++) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl("http://www.example.com/" + i);
+            doc.setContentType("text/html; charset=UTF-8");
+            doc.setContent(new byte[i < 5 ? 10 : 2000]);
+            processor.process(doc, new BufferedReporter(null));
+        }
+        processor.close();
+
+        File summary = new File(dir,
+                InstrumentedDocumentProcessor.SUMMARY_PREFIX + "attempt_test");
+        assertTrue(summary.exists());
+        List<String[]> lines = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(summary));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("#"))
+                lines.add(line.split("\t"));
+        }
+        reader.close();
+        // all, one mimetype and two sizes
+        assertEquals(4, lines.size());
+        for (String[] fields : lines) {
+            assertEquals(12, fields.length);
+            assertEquals("StageProcessor", fields[0]);
+            if (fields[1].equals(InstrumentedDocumentProcessor.DIMENSION_ALL)) {
+                assertEquals("10", fields[3]);
+                // content plus one char of text
+                assertEquals(Integer.toString(5 * 10 + 5 * 2000 + 10),
+                        fields[10]);
+            } else if (fields[1]
+                    .equals(InstrumentedDocumentProcessor.DIMENSION_MIMETYPE))
+                assertEquals("text/html", fields[2]);
+            else
+                assertEquals("5", fields[3]);
+        }
+        FileUtil.fullyDelete(dir);
+    }
+
+}
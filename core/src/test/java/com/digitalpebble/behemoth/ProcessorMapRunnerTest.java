@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+public class ProcessorMapRunnerTest extends TestCase {
+
+    /** Marks the documents with the name of the thread processing them **/
+    public static class ThreadNameProcessor implements DocumentProcessor {
+
+        private Configuration conf;
+
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+        }
+
+        public Configuration getConf() {
+            return conf;
+        }
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            try {
+                // make the processing times uneven
+                Thread.sleep(inputDoc.getUrl().hashCode() % 5 + 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inputDoc.setText(Thread.currentThread().getName());
+            reporter.getCounter("TEST", "PROCESSED").increment(1);
+            return new BehemothDocument[] { inputDoc };
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Marks the documents with the size of the batch they were part of **/
+    public static class BatchSizeProcessor extends ThreadNameProcessor
+            implements BatchDocumentProcessor {
+
+        public List<BehemothDocument[]> processBatch(
+                List<BehemothDocument> inputDocs, Reporter reporter) {
+            List<BehemothDocument[]> outputs = new ArrayList<BehemothDocument[]>();
+            for (BehemothDocument doc : inputDocs) {
+                doc.setText(Integer.toString(inputDocs.size()));
+                outputs.add(new BehemothDocument[] { doc });
+            }
+            return outputs;
+        }
+    }
+
+    /** Marks the documents with the order in which they were processed **/
+    public static class StartOrderProcessor extends ThreadNameProcessor {
+
+        static final AtomicInteger started = new AtomicInteger();
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            inputDoc.setText(Integer.toString(started.getAndIncrement()));
+            return new BehemothDocument[] { inputDoc };
+        }
+    }
+
+    private static class ListReader implements
+            RecordReader<Text, BehemothDocument> {
+        private final Iterator<String> urls;
+        private long pos = 0;
+
+        ListReader(List<String> urls) {
+            this.urls = urls.iterator();
+        }
+
+        public boolean next(Text key, BehemothDocument value) {
+            if (!urls.hasNext())
+                return false;
+            String url = urls.next();
+            key.set(url);
+            value.setUrl(url);
+            // e.g. http://www.example.com/1?size=1000
+            int size = url.indexOf("?size=");
+            if (size != -1)
+                value.setContent(new byte[Integer.parseInt(url
+                        .substring(size + 6))]);
+            pos++;
+            return true;
+        }
+
+        public Text createKey() {
+            return new Text();
+        }
+
+        public BehemothDocument createValue() {
+            return new BehemothDocument();
+        }
+
+        public long getPos() {
+            return pos;
+        }
+
+        public void close() {
+        }
+
+        public float getProgress() {
+            return 0;
+        }
+    }
+
+    private List<BehemothDocument> run(JobConf job, List<String> urls,
+            BufferedReporter reporter) throws IOException {
+        final List<BehemothDocument> outputs = new ArrayList<BehemothDocument>();
+        ProcessorMapRunner runner = new ProcessorMapRunner();
+        runner.configure(job);
+        runner.run(new ListReader(urls),
+                new OutputCollector<Text, BehemothDocument>() {
+                    public void collect(Text key, BehemothDocument doc) {
+                        assertEquals(key.toString(), doc.getUrl());
+                        outputs.add(doc);
+                    }
+                }, reporter);
+        return outputs;
+    }
+
+    public void testOrderedRunner() throws IOException {
+        JobConf job = new JobConf(BehemothConfiguration.create());
+        job.setInt(ProcessorMapRunner.THREADS_PARAM_NAME, 4);
+        assertTrue(ProcessorMapRunner.configure(job,
+                ThreadNameProcessor.class));
+
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 200; i++)
+            urls.add("http://www.example.com/" + i);
+
+        BufferedReporter reporter = new BufferedReporter(null);
+        List<BehemothDocument> outputs = run(job, urls, reporter);
+        assertEquals(urls.size(), outputs.size());
+        for (int i = 0; i < urls.size(); i++)
+            assertEquals(urls.get(i), outputs.get(i).getUrl());
+        // counters aggregated from all the threads
+        assertEquals(200,
+                reporter.getCounter("TEST", "PROCESSED").getValue());
+    }
+
+    public void testBatches() throws IOException {
+        JobConf job = new JobConf(BehemothConfiguration.create());
+        job.setInt(ProcessorMapRunner.THREADS_PARAM_NAME, 2);
+        job.setInt(DocumentBatch.SIZE_PARAM_NAME, 8);
+        // passed on to the processors of the chain
+        job.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                BatchSizeProcessor.class.getName());
+        ProcessorMapRunner.configure(job, ChainedDocumentProcessor.class);
+
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 20; i++)
+            urls.add("http://www.example.com/" + i);
+
+        List<BehemothDocument> outputs = run(job, urls,
+                new BufferedReporter(null));
+        assertEquals(urls.size(), outputs.size());
+        for (int i = 0; i < urls.size(); i++) {
+            assertEquals(urls.get(i), outputs.get(i).getUrl());
+            // the last batch is incomplete
+            assertEquals(i < 16 ? "8" : "4", outputs.get(i).getText());
+        }
+    }
+
+    public void testUnorderedRunnerWithFilter() throws IOException {
+        JobConf job = new JobConf(BehemothConfiguration.create());
+        job.setInt(ProcessorMapRunner.THREADS_PARAM_NAME, 3);
+        job.setBoolean(ProcessorMapRunner.ORDERED_PARAM_NAME, false);
+        job.set(DocumentFilter.DocumentFilterParamNameURLFilterKeep,
+                ".+/[0-9]*0");
+        ProcessorMapRunner.configure(job, ThreadNameProcessor.class);
+
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+            urls.add("http://www.example.com/" + i);
+
+        List<BehemothDocument> outputs = run(job, urls,
+                new BufferedReporter(null));
+        assertEquals(10, outputs.size());
+        for (BehemothDocument doc : outputs)
+            assertTrue(doc.getText().startsWith("processor-"));
+    }
+
+    public void testLookahead() throws IOException {
+        JobConf job = new JobConf(BehemothConfiguration.create());
+        job.setInt(ProcessorMapRunner.THREADS_PARAM_NAME, 1);
+        job.setInt(ProcessorMapRunner.LOOKAHEAD_PARAM_NAME, 5);
+        job.set(ProcessorMapRunner.PROCESSOR_PARAM_NAME,
+                StartOrderProcessor.class.getName());
+        StartOrderProcessor.started.set(0);
+
+        List<String> urls = new ArrayList<String>();
+        int[] sizes = { 100, 5000, 200, 10000, 300 };
+        for (int i = 0; i < sizes.length; i++)
+            urls.add("http://www.example.com/" + i + "?size=" + sizes[i]);
+
+        List<BehemothDocument> outputs = run(job, urls,
+                new BufferedReporter(null));
+        assertEquals(urls.size(), outputs.size());
+        // written in the order of the input, processed largest first
+        String[] expected = { "4", "1", "3", "0", "2" };
+        for (int i = 0; i < urls.size(); i++) {
+            assertEquals(urls.get(i), outputs.get(i).getUrl());
+            assertEquals(expected[i], outputs.get(i).getText());
+        }
+    }
+
+}
@@ -77,4 +77,30 @@ public class SerializationTest extends TestCase {
         // check the values
     }
 
+    public void testMultiValuedMetadata() throws IOException {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl("test");
+        TextArrayWritable values = new TextArrayWritable(new String[] {
+                "first", "second" });
+        doc.getMetadata(true).put(new Text("keywords"), values);
+
+        Writer writer = SequenceFile.createWriter(fs, conf, file, Text.class,
+                BehemothDocument.class);
+        writer.append(new Text("test"), doc);
+        writer.close();
+
+        Reader reader = new org.apache.hadoop.io.SequenceFile.Reader(fs, file,
+                conf);
+        BehemothDocument doc2 = new BehemothDocument();
+        reader.next(new Text(), doc2);
+        reader.close();
+        fs.delete(file, true);
+
+        TextArrayWritable values2 = (TextArrayWritable) doc2.getMetadata()
+                .get(new Text("keywords"));
+        assertEquals(values, values2);
+        assertEquals("first,second", values2.toString());
+        assertEquals(2, values2.getValues().length);
+    }
+
 }
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+public class TimeLimitedDocumentProcessorTest extends TestCase {
+
+    /** Never returns for the documents whose URL contains 'slow' **/
+    public static class SlowProcessor extends
+            ChainedDocumentProcessorTest.StageProcessor {
+
+        static final AtomicInteger closed = new AtomicInteger();
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            inputDoc.getMetadata(true).put(new Text("started"), new Text());
+            if (inputDoc.getUrl().contains("slow")) {
+                while (true) {
+                    // ignores the interruptions
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            return super.process(inputDoc, reporter);
+        }
+
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    private BehemothDocument newDoc(String url) {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl(url);
+        doc.setContent(new byte[42]);
+        return doc;
+    }
+
+    public void testTimeout() throws IOException {
+        File dir = new File("target/test-quarantine");
+        FileUtil.fullyDelete(dir);
+
+        Configuration conf = BehemothConfiguration.create();
+        conf.setLong(TimeLimitedDocumentProcessor.TIMEOUT_PARAM_NAME, 200);
+        conf.set(TimeLimitedDocumentProcessor.QUARANTINE_DIR_PARAM_NAME,
+                dir.getAbsolutePath());
+        conf.set("mapred.task.id", "attempt_test");
+
+        DocumentProcessor processor = ProcessorMapRunner.newProcessor(conf,
+                SlowProcessor.class.getName());
+        assertTrue(processor instanceof TimeLimitedDocumentProcessor);
+        BufferedReporter reporter = new BufferedReporter(null);
+
+        SlowProcessor.closed.set(0);
+        BehemothDocument slow = newDoc("http://www.example.com/slow");
+        BehemothDocument[] outputs = processor.process(slow, reporter);
+        assertEquals(1, outputs.length);
+        assertSame(slow, outputs[0]);
+        // returned as it was before the processing
+        assertNull(outputs[0].getMetadata().get(new Text("started")));
+        assertEquals("timeout:SlowProcessor",
+                outputs[0].getMetadata()
+                        .get(TimeLimitedDocumentProcessor.STATUS_KEY)
+                        .toString());
+        assertEquals(1,
+                reporter.getCounter("TimeLimitedProcessor", "DOC TIMED OUT")
+                        .getValue());
+
+        // the next document is processed by a new instance
+        outputs = processor.process(newDoc("http://www.example.com/fast"),
+                reporter);
+        assertEquals("S", outputs[0].getText());
+
+        // the processor which timed out is closed once given up on
+        for (int i = 0; i < 50 && SlowProcessor.closed.get() == 0; i++)
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        assertEquals(1, SlowProcessor.closed.get());
+        processor.close();
+        assertEquals(2, SlowProcessor.closed.get());
+
+        BufferedReader reader = new BufferedReader(new FileReader(new File(
+                dir, TimeLimitedDocumentProcessor.QUARANTINE_PREFIX
+                        + "attempt_test")));
+        assertEquals("http://www.example.com/slow\t42\tSlowProcessor\t200",
+                reader.readLine());
+        assertNull(reader.readLine());
+        reader.close();
+        FileUtil.fullyDelete(dir);
+    }
+
+    public void testView() throws IOException {
+        BehemothDocument doc = newDoc("http://www.example.com/");
+        doc.getMetadata(true).put(new Text("a"), new Text("1"));
+        doc.getAnnotations().add(new Annotation());
+
+        BehemothDocument view = TimeLimitedDocumentProcessor.view(doc);
+        assertEquals(new Text("1"), view.getMetadata().get(new Text("a")));
+        assertEquals(1, view.getAnnotations().size());
+
+        view.getMetadata().put(new Text("b"), new Text("2"));
+        view.getAnnotations().clear();
+        view.getAnnotations().add(new Annotation());
+        view.getAnnotations().add(new Annotation());
+        // the original is not modified
+        assertEquals(1, doc.getMetadata().size());
+        assertEquals(1, doc.getAnnotations().size());
+        assertEquals(2, view.getMetadata().size());
+        assertEquals(2, view.getAnnotations().size());
+
+        // serialised like any other document
+        DataOutputBuffer out = new DataOutputBuffer();
+        view.write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        BehemothDocument copy = new BehemothDocument();
+        copy.readFields(in);
+        assertEquals(new Text("2"), copy.getMetadata().get(new Text("b")));
+        assertEquals(2, copy.getAnnotations().size());
+    }
+
+}
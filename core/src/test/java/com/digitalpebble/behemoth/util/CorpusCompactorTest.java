@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+
+public class CorpusCompactorTest extends TestCase {
+
+    public void testSortKey() {
+        assertEquals("http://www.example.com/a",
+                CorpusCompactor.getSortKey("url", "http://www.example.com/a"));
+        assertEquals("com.example.www http://www.example.com/a",
+                CorpusCompactor.getSortKey("host", "http://www.example.com/a"));
+    }
+
+    public void testCompaction() throws Exception {
+        Configuration conf = BehemothConfiguration.create();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path dir = new Path(new File("target/test-compactor").getAbsolutePath());
+        fs.delete(dir, true);
+
+        String[] urls = { "http://b.example.com/", "http://www.other.org/",
+                "http://a.example.com/2", "http://a.example.com/1" };
+        Path input = new Path(dir, "input");
+        for (int i = 0; i < urls.length; i++) {
+            SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+                    new Path(input, "part-0000" + i), Text.class,
+                    BehemothDocument.class, CompressionType.BLOCK,
+                    new DefaultCodec());
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl(urls[i]);
+            writer.append(new Text("key-" + i), doc);
+            // document without URL
+            if (i == 0) {
+                doc.setUrl("");
+                writer.append(new Text("nourl"), doc);
+            }
+            writer.close();
+        }
+
+        Path output = new Path(dir, "output");
+        assertEquals(0, ToolRunner.run(conf, new CorpusCompactor(),
+                new String[] { "-i", input.toString(), "-o",
+                        output.toString(), "-k", "host" }));
+        // the original keys are kept, the document without URL is sorted
+        // by its key
+        List<String> keys = readKeys(fs, conf, output);
+        assertEquals(5, keys.size());
+        assertEquals("key-3", keys.get(0));
+        assertEquals("key-2", keys.get(1));
+        assertEquals("key-0", keys.get(2));
+        assertEquals("nourl", keys.get(3));
+        assertEquals("key-1", keys.get(4));
+
+        assertEquals(0, ToolRunner.run(conf, new CorpusCompactor(),
+                new String[] { "-i", input.toString(), "-o",
+                        output.toString(), "-k", "host", "-u", "-w" }));
+        keys = readKeys(fs, conf, output);
+        assertEquals(5, keys.size());
+        assertEquals("http://a.example.com/1", keys.get(0));
+        assertEquals("http://a.example.com/2", keys.get(1));
+        assertEquals("http://b.example.com/", keys.get(2));
+        assertEquals("nourl", keys.get(3));
+        assertEquals("http://www.other.org/", keys.get(4));
+        fs.delete(dir, true);
+    }
+
+    private List<String> readKeys(FileSystem fs, Configuration conf,
+            Path output) throws Exception {
+        List<String> keys = new ArrayList<String>();
+        for (FileStatus part : fs.listStatus(output)) {
+            if (!part.getPath().getName().startsWith("part-"))
+                continue;
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                    part.getPath(), conf);
+            assertTrue(reader.isBlockCompressed());
+            Text key = new Text();
+            BehemothDocument doc = new BehemothDocument();
+            while (reader.next(key, doc)) {
+                keys.add(key.toString());
+                assertNull(doc.getMetadata());
+            }
+            reader.close();
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.ChainedDocumentProcessorTest;
+
+public class DeltaProcessorDriverTest extends TestCase {
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path dir;
+
+    protected void setUp() throws Exception {
+        conf = BehemothConfiguration.create();
+        fs = FileSystem.getLocal(conf);
+        dir = new Path(new File("target/test-delta").getAbsolutePath());
+        fs.delete(dir, true);
+    }
+
+    protected void tearDown() throws Exception {
+        fs.delete(dir, true);
+    }
+
+    private void write(Path path, BehemothDocument... docs) throws Exception {
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+                new Path(path, "part-00000"), Text.class,
+                BehemothDocument.class);
+        for (int i = 0; i < docs.length; i++) {
+            String url = docs[i].getUrl();
+            writer.append(new Text(url != null ? url : "key-" + i), docs[i]);
+        }
+        writer.close();
+    }
+
+    private BehemothDocument newDoc(String url, String content, String text) {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl(url);
+        doc.setContent(content.getBytes());
+        doc.setText(text);
+        return doc;
+    }
+
+    /** Embedded document as extracted by Tika **/
+    private BehemothDocument newEmbedded(String parent, String name,
+            int depth) {
+        BehemothDocument doc = newDoc(parent + "!/" + name, name, "processed");
+        doc.getMetadata(true).put(new Text("tika.parent"), new Text(parent));
+        doc.getMetadata().put(new Text("tika.depth"),
+                new Text(Integer.toString(depth)));
+        return doc;
+    }
+
+    public void testRootURL() {
+        BehemothDocument doc = newDoc("http://a/#!/b", "A", null);
+        assertEquals("http://a/#!/b", DeltaProcessorDriver.getRootURL(doc));
+        doc = newEmbedded("http://a/#!/b!/c.zip", "d.txt", 2);
+        assertEquals("http://a/#!/b", DeltaProcessorDriver.getRootURL(doc));
+        doc.getMetadata().put(DeltaProcessorDriver.ROOT_KEY,
+                new Text("http://root/"));
+        assertEquals("http://root/", DeltaProcessorDriver.getRootURL(doc));
+    }
+
+    public void testDelta() throws Exception {
+        Path previous = new Path(dir, "previous");
+        // extra output of a processor, marked by a previous delta run
+        BehemothDocument extra = newDoc("http://a/extra", "X", "processed");
+        extra.getMetadata(true).put(DeltaProcessorDriver.DIGEST_KEY,
+                new Text(DeltaProcessorDriver.getDigest(newDoc("http://a/",
+                        "A", null))));
+        extra.getMetadata().put(DeltaProcessorDriver.ROOT_KEY,
+                new Text("http://a/"));
+        write(previous, newDoc("http://a/", "A", "processed"),
+                newEmbedded("http://a/", "a.zip", 1),
+                newEmbedded("http://a/!/a.zip", "a.txt", 2), extra,
+                newDoc("http://b/", "B", "processed"),
+                newEmbedded("http://b/", "b.txt", 1),
+                newDoc("http://c/", "C", "processed"),
+                newDoc(null, "N", "processed"));
+        Path input = new Path(dir, "input");
+        // a is unchanged, b has changed, c is gone and d is new (twice)
+        // and two documents have no URL
+        write(input, newDoc("http://a/", "A", null),
+                newDoc("http://b/", "B2", null),
+                newDoc("http://d/", "D", null),
+                newDoc("http://d/", "D", null), newDoc(null, "N", null),
+                newDoc(null, "N", null));
+
+        Path output = new Path(dir, "output");
+        conf.setLong(DeltaProcessorDriver.BLOOM_SIZE_PARAM_NAME, 1000);
+        int res = ToolRunner.run(conf, new DeltaProcessorDriver(),
+                new String[] { "-i", input.toString(), "-prev",
+                        previous.toString(), "-o", output.toString(), "-p",
+                        ChainedDocumentProcessorTest.StageProcessor.class
+                                .getName(), "-r", "2" });
+        assertEquals(0, res);
+
+        Map<String, BehemothDocument> docs = new HashMap<String, BehemothDocument>();
+        int numDocs = 0;
+        for (FileStatus part : fs.listStatus(output)) {
+            if (!part.getPath().getName().startsWith("part-"))
+                continue;
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                    part.getPath(), conf);
+            Text key = new Text();
+            BehemothDocument doc = new BehemothDocument();
+            while (reader.next(key, doc)) {
+                String url = doc.getUrl();
+                docs.put(url == null || url.length() == 0 ? key.toString()
+                        : url, doc);
+                numDocs++;
+                doc = new BehemothDocument();
+            }
+            reader.close();
+        }
+        // the duplicate of d has been dropped, a is carried over with the
+        // documents derived from it
+        assertEquals(8, numDocs);
+        assertEquals(8, docs.size());
+        assertEquals("processed", docs.get("http://a/").getText());
+        assertEquals("processed", docs.get("http://a/!/a.zip").getText());
+        assertEquals("processed", docs.get("http://a/!/a.zip!/a.txt")
+                .getText());
+        assertEquals("processed", docs.get("http://a/extra").getText());
+        assertNull(docs.get("http://b/!/b.txt"));
+        // the documents without URL are processed under their key
+        assertEquals("S", docs.get("key-4").getText());
+        assertEquals("S", docs.get("key-5").getText());
+        assertEquals("S", docs.get("http://b/").getText());
+        assertEquals("S", docs.get("http://d/").getText());
+        assertNotNull(docs.get("http://a/").getMetadata()
+                .get(DeltaProcessorDriver.DIGEST_KEY));
+        assertEquals(1, docs.get("http://a/").getMetadata().size());
+    }
+
+}
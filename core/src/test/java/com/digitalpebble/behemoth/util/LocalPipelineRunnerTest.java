@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.ChainedDocumentProcessor;
+import com.digitalpebble.behemoth.ChainedDocumentProcessorTest;
+import com.digitalpebble.behemoth.DocumentFilter;
+
+public class LocalPipelineRunnerTest extends TestCase {
+
+    /** Returns documents without a URL **/
+    public static class NoURLProcessor extends
+            ChainedDocumentProcessorTest.StageProcessor {
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            inputDoc.setUrl(null);
+            return super.process(inputDoc, reporter);
+        }
+    }
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path dir;
+
+    protected void setUp() throws Exception {
+        conf = BehemothConfiguration.create();
+        fs = FileSystem.getLocal(conf);
+        dir = new Path(new File("target/test-local-pipeline").getAbsolutePath());
+        fs.delete(dir, true);
+    }
+
+    protected void tearDown() throws Exception {
+        fs.delete(dir, true);
+    }
+
+    public void testProcessCorpus() throws IOException {
+        Path input = new Path(dir, "input");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+                new Path(input, "part-00000"), Text.class,
+                BehemothDocument.class);
+        for (int i = 0; i < 100; i++) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl("http://www.example.com/" + i);
+            writer.append(new Text(doc.getUrl()), doc);
+        }
+        writer.close();
+
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                ChainedDocumentProcessorTest.StageProcessor.class.getName());
+        conf.set(DocumentFilter.DocumentFilterParamNameURLFilterKeep,
+                ".+/[0-9]*0");
+
+        LocalPipelineRunner runner = new LocalPipelineRunner();
+        runner.setConf(conf);
+        Path output = new Path(dir, "output");
+        assertEquals(10, runner.process(input, false, output, 4));
+        assertEquals(100, runner.getReporter()
+                .getCounter("LocalPipelineRunner", "DOC READ").getValue());
+
+        // one part file per thread
+        FileStatus[] parts = fs.listStatus(output);
+        assertEquals(4, parts.length);
+        Set<String> urls = new HashSet<String>();
+        for (FileStatus part : parts) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                    part.getPath(), conf);
+            Text key = new Text();
+            BehemothDocument doc = new BehemothDocument();
+            while (reader.next(key, doc)) {
+                assertEquals("S", doc.getText());
+                urls.add(doc.getUrl());
+            }
+            reader.close();
+        }
+        assertEquals(10, urls.size());
+        assertTrue(urls.contains("http://www.example.com/50"));
+    }
+
+    public void testKeepKeys() throws IOException {
+        Path input = new Path(dir, "input");
+        SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+                new Path(input, "part-00000"), Text.class,
+                BehemothDocument.class);
+        for (int i = 0; i < 10; i++) {
+            BehemothDocument doc = new BehemothDocument();
+            doc.setUrl("http://www.example.com/" + i);
+            writer.append(new Text("key-" + i), doc);
+        }
+        writer.close();
+
+        // the keys are kept whether the outputs have a URL or not
+        checkKeys(ChainedDocumentProcessorTest.StageProcessor.class);
+        checkKeys(NoURLProcessor.class);
+    }
+
+    private void checkKeys(Class<?> processorClass) throws IOException {
+        conf.set(ChainedDocumentProcessor.PROCESSORS_PARAM_NAME,
+                processorClass.getName());
+        LocalPipelineRunner runner = new LocalPipelineRunner();
+        runner.setConf(conf);
+        Path output = new Path(dir, "output");
+        fs.delete(output, true);
+        assertEquals(10, runner.process(new Path(dir, "input"), false, output,
+                2));
+
+        Set<String> keys = new HashSet<String>();
+        for (FileStatus part : fs.listStatus(output)) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+                    part.getPath(), conf);
+            Text key = new Text();
+            BehemothDocument doc = new BehemothDocument();
+            while (reader.next(key, doc))
+                keys.add(key.toString());
+            reader.close();
+        }
+        assertEquals(10, keys.size());
+        assertTrue(keys.contains("key-5"));
+    }
+
+}
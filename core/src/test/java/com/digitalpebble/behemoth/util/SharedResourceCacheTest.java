@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+
+public class SharedResourceCacheTest extends TestCase {
+
+    private final AtomicInteger installs = new AtomicInteger();
+
+    private final SharedResourceCache.Installer installer = new SharedResourceCache.Installer() {
+        public void install(File source, File target) throws IOException {
+            installs.incrementAndGet();
+            try {
+                // slow enough for the other threads to wait for the lock
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            write(new File(target, "resource.txt"), source.getName());
+        }
+    };
+
+    private static void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+    }
+
+    public void testSharedInstall() throws Exception {
+        File dir = new File("target/test-resources").getAbsoluteFile();
+        FileUtil.fullyDelete(dir);
+        dir.mkdirs();
+        final File source = new File(dir, "resource.txt");
+        write(source, "version 1");
+
+        final Configuration conf = new Configuration();
+        conf.set(SharedResourceCache.DIR_PARAM_NAME, new File(dir, "cache")
+                .getPath());
+
+        final File[] targets = new File[4];
+        Thread[] threads = new Thread[targets.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        targets[index] = SharedResourceCache.get(conf, "test",
+                                source, installer);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(1, installs.get());
+        for (File target : targets) {
+            assertEquals(targets[0], target);
+            assertTrue(new File(target, "resource.txt").exists());
+        }
+
+        // a new version is installed next to the previous one
+        write(source, "version 2");
+        source.setLastModified(source.lastModified() + 2000);
+        File newTarget = SharedResourceCache.get(conf, "test", source,
+                installer);
+        assertEquals(2, installs.get());
+        assertFalse(newTarget.equals(targets[0]));
+
+        // an incomplete installation is started again
+        new File(newTarget, ".installed").delete();
+        assertEquals(newTarget,
+                SharedResourceCache.get(conf, "test", source, installer));
+        assertEquals(3, installs.get());
+
+        FileUtil.fullyDelete(dir);
+    }
+
+}
@@ -32,7 +32,6 @@ import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RunningJob;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -40,6 +39,7 @@ import org.apache.hadoop.util.ToolRunner;
 import com.digitalpebble.behemoth.BehemothConfiguration;
 import com.digitalpebble.behemoth.BehemothDocument;
 import com.digitalpebble.behemoth.BehemothReducer;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
 
 public class GATEDriver extends Configured implements Tool {
     private static final Logger LOG = LoggerFactory.getLogger(GATEDriver.class);
@@ -94,7 +94,7 @@ public class GATEDriver extends Configured implements Tool {
         job.setJobName("Processing " + args[0] + " with GATE application from "
                 + zip_application_path);
 
-        job.setInputFormat(SequenceFileInputFormat.class);
+        BehemothConfiguration.setInputFormat(job);
         job.setOutputFormat(SequenceFileOutputFormat.class);
 
         job.setOutputKeyClass(Text.class);
@@ -105,6 +105,8 @@ public class GATEDriver extends Configured implements Tool {
         } else {
             job.setOutputValueClass(BehemothDocument.class);
             job.setMapperClass(GATEMapper.class);
+            // several threads if behemoth.runner.threads > 1
+            ProcessorMapRunner.configure(job, GATEProcessorFactory.class);
         }
 
         // detect if any filters have been defined
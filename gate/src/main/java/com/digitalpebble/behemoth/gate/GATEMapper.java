@@ -37,7 +37,8 @@ public class GATEMapper extends AbstractGATEMapper implements
             OutputCollector<Text, BehemothDocument> output, Reporter reporter)
             throws IOException {
 
-        BehemothDocument[] outputDocs = processor.process(behedoc, reporter);
+        BehemothDocument[] outputDocs = instrumented.process(behedoc,
+                reporter);
         for (BehemothDocument doc : outputDocs) {
             // TODO output under a different key?
             output.collect(key, doc);
@@ -49,13 +49,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.behemoth.Annotation;
+import com.digitalpebble.behemoth.BatchDocumentProcessor;
 import com.digitalpebble.behemoth.BehemothDocument;
-import com.digitalpebble.behemoth.DocumentProcessor;
 
 /**
  * Encapsulates a GATE application
  **/
-public class GATEProcessor implements DocumentProcessor {
+public class GATEProcessor implements BatchDocumentProcessor {
 
     private static final Logger LOG = LoggerFactory
             .getLogger(GATEProcessor.class);
@@ -143,52 +143,8 @@ public class GATEProcessor implements DocumentProcessor {
             // process it with GATE
             this.GATEapplication.execute();
 
-            AnnotationSet annots;
-            if ("".equals(filters.getAnnotationSetName()))
-                annots = gatedocument.getAnnotations();
-            else
-                annots = gatedocument.getAnnotations(filters
-                        .getAnnotationSetName());
-
-            // enrich the input doc with the annotations from
-            // the GATE application
-            // transfer the annotations from the GATE document
-            // to the Behemoth one using the filters
-            List<com.digitalpebble.behemoth.Annotation> beheannotations = convertGATEAnnotationsToBehemoth(
-                    annots, inputDoc);
-
-            // sort the annotations before adding them?
-            Collections.sort(beheannotations);
-
-            // clear the existing behemoth annotations
-            if (clearBehemothAnnotations) {
-                inputDoc.getAnnotations().clear();
-            }
-
-            inputDoc.getAnnotations().addAll(beheannotations);
-
-            // add counters about num of annotations added
-            if (reporter != null)
-                for (com.digitalpebble.behemoth.Annotation annot : beheannotations) {
-                    reporter.incrCounter("GATE", annot.getType(), 1);
-                }
-
-            // Add the document features from GATE to Behemoth
-            Set<String> docFeatFilter = this.filters.getDocFeaturesFilter();
-            MapWritable beheMD = inputDoc.getMetadata(true);
-            if (docFeatFilter.size() > 0) {
-                for (String docFeatName : docFeatFilter) {
-                    Object featValue = gatedocument.getFeatures().get(
-                            docFeatName);
-                    if (featValue != null) {
-                        beheMD.put(new Text(docFeatName),
-                                new Text(featValue.toString()));
-                    }
-                }
-            }
-
-            if (reporter != null)
-                reporter.incrCounter("GATE", "Document", 1);
+            transferAnnotations(gatedocument, inputDoc,
+                    clearBehemothAnnotations, reporter);
 
         } catch (Exception e) {
             LOG.error(inputDoc.getUrl(), e);
@@ -205,6 +161,123 @@ public class GATEProcessor implements DocumentProcessor {
         return new BehemothDocument[] { inputDoc };
     }
 
+    /**
+     * Processes the documents as a single GATE corpus. If the processing of
+     * the corpus fails, the documents are processed one by one so that only
+     * the faulty ones are left without annotations.
+     **/
+    public synchronized List<BehemothDocument[]> processBatch(
+            List<BehemothDocument> inputDocs, Reporter reporter) {
+        List<BehemothDocument[]> outputs = new ArrayList<BehemothDocument[]>(
+                inputDocs.size());
+        if (inputDocs.size() == 1) {
+            outputs.add(process(inputDocs.get(0), reporter));
+            return outputs;
+        }
+        if (reporter != null)
+            reporter.setStatus("GATE : batch of " + inputDocs.size()
+                    + " documents from " + inputDocs.get(0).getUrl());
+
+        boolean clearBehemothAnnotations = config.getBoolean(
+                "gate.deleteBehemothAnnotations", false);
+
+        List<gate.Document> gatedocuments = new ArrayList<gate.Document>(
+                inputDocs.size());
+        // number of documents which have got their annotations
+        int done = 0;
+        try {
+            for (BehemothDocument inputDoc : inputDocs)
+                gatedocuments.add(generateGATEDoc(inputDoc));
+            corpus.addAll(gatedocuments);
+            this.GATEapplication.setCorpus(corpus);
+            this.GATEapplication.execute();
+            for (; done < inputDocs.size(); done++) {
+                BehemothDocument inputDoc = inputDocs.get(done);
+                List<com.digitalpebble.behemoth.Annotation> annotations = inputDoc
+                        .getAnnotations();
+                int size = annotations.size();
+                try {
+                    transferAnnotations(gatedocuments.get(done), inputDoc,
+                            clearBehemothAnnotations, reporter);
+                } catch (RuntimeException e) {
+                    // remove what was transferred before the failure so
+                    // that the document is not annotated twice by the retry
+                    annotations.subList(size, annotations.size()).clear();
+                    inputDoc.setAnnotations(annotations);
+                    throw e;
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Batch failed, processing the documents one by one", e);
+        } finally {
+            corpus.clear();
+            for (gate.Document gatedocument : gatedocuments)
+                Factory.deleteResource(gatedocument);
+        }
+
+        for (int i = 0; i < inputDocs.size(); i++) {
+            if (i < done)
+                outputs.add(new BehemothDocument[] { inputDocs.get(i) });
+            else
+                outputs.add(process(inputDocs.get(i), reporter));
+        }
+        return outputs;
+    }
+
+    /**
+     * Enriches the Behemoth document with the annotations and features of the
+     * GATE one, using the filters
+     **/
+    private void transferAnnotations(gate.Document gatedocument,
+            BehemothDocument inputDoc, boolean clearBehemothAnnotations,
+            Reporter reporter) {
+        AnnotationSet annots;
+        if ("".equals(filters.getAnnotationSetName()))
+            annots = gatedocument.getAnnotations();
+        else
+            annots = gatedocument.getAnnotations(filters
+                    .getAnnotationSetName());
+
+        // enrich the input doc with the annotations from
+        // the GATE application
+        // transfer the annotations from the GATE document
+        // to the Behemoth one using the filters
+        List<com.digitalpebble.behemoth.Annotation> beheannotations = convertGATEAnnotationsToBehemoth(
+                annots, inputDoc);
+
+        // sort the annotations before adding them?
+        Collections.sort(beheannotations);
+
+        // replace the existing behemoth annotations, leaving the original
+        // list as it was
+        if (clearBehemothAnnotations)
+            inputDoc.setAnnotations(beheannotations);
+        else
+            inputDoc.getAnnotations().addAll(beheannotations);
+
+        // add counters about num of annotations added
+        if (reporter != null)
+            for (com.digitalpebble.behemoth.Annotation annot : beheannotations) {
+                reporter.incrCounter("GATE", annot.getType(), 1);
+            }
+
+        // Add the document features from GATE to Behemoth
+        Set<String> docFeatFilter = this.filters.getDocFeaturesFilter();
+        MapWritable beheMD = inputDoc.getMetadata(true);
+        if (docFeatFilter.size() > 0) {
+            for (String docFeatName : docFeatFilter) {
+                Object featValue = gatedocument.getFeatures().get(docFeatName);
+                if (featValue != null) {
+                    beheMD.put(new Text(docFeatName),
+                            new Text(featValue.toString()));
+                }
+            }
+        }
+
+        if (reporter != null)
+            reporter.incrCounter("GATE", "Document", 1);
+    }
+
     public void setConfig(Configuration conf) {
         config = conf;
     }
@@ -35,7 +35,6 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -46,6 +45,7 @@ import com.digitalpebble.behemoth.BehemothConfiguration;
 import com.digitalpebble.behemoth.BehemothDocument;
 import com.digitalpebble.behemoth.BehemothReducer;
 import com.digitalpebble.behemoth.DocumentFilter;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
 
 public class LanguageIdDriver extends Configured implements Tool {
     private static final String LANGUAGE_ID_DRIVER = "LanguageIdDriver";
@@ -124,7 +124,7 @@ public class LanguageIdDriver extends Configured implements Tool {
 
         job.setJobName("Processing with Language Identifier");
 
-        job.setInputFormat(SequenceFileInputFormat.class);
+        BehemothConfiguration.setInputFormat(job);
         job.setOutputFormat(SequenceFileOutputFormat.class);
 
         job.setMapOutputKeyClass(Text.class);
@@ -133,6 +133,8 @@ public class LanguageIdDriver extends Configured implements Tool {
         job.setOutputValueClass(BehemothDocument.class);
 
         job.setMapperClass(LanguageIdMapper.class);
+        // several threads if behemoth.runner.threads > 1
+        ProcessorMapRunner.configure(job, LanguageIdProcessor.class);
 
         job.setNumReduceTasks(0);
 
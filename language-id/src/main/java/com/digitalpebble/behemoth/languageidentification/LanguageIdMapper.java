@@ -30,7 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.CachingDocumentProcessor;
 import com.digitalpebble.behemoth.DocumentFilter;
+import com.digitalpebble.behemoth.DocumentProcessor;
 
 public class LanguageIdMapper extends MapReduceBase implements
         Mapper<Text, BehemothDocument, Text, BehemothDocument> {
@@ -40,13 +42,16 @@ public class LanguageIdMapper extends MapReduceBase implements
 
     protected static LanguageIdProcessor processor;
 
+    /** the processor with a cache of its outputs if any **/
+    private DocumentProcessor cached;
+
     private DocumentFilter filter;
 
     public void map(Text text, BehemothDocument inputDoc,
             OutputCollector<Text, BehemothDocument> outputCollector,
             Reporter reporter) throws IOException {
 
-        BehemothDocument[] documents = processor.process(inputDoc, reporter);
+        BehemothDocument[] documents = cached.process(inputDoc, reporter);
         if (documents != null) {
             for (int i = 0; i < documents.length; i++) {
                 boolean keep = filter.keep(documents[i]);
@@ -70,6 +75,7 @@ public class LanguageIdMapper extends MapReduceBase implements
                     + " msec");
         } else
             LOG.info("Reusing existing language processor");
+        cached = CachingDocumentProcessor.wrap(processor, job);
 
     }
 }
@@ -44,6 +44,8 @@ public class LanguageIdProcessor implements DocumentProcessor {
 
     private Configuration config;
 
+    private static boolean profilesLoaded = false;
+
     private final String[] defaultLanguagesToLoad = new String[] { "af", "ar",
             "bg", "bn", "cs", "da", "de", "el", "en", "es", "et", "fa", "fi",
             "fr", "gu", "he", "hi", "hr", "hu", "id", "it", "ja", "kn", "ko",
@@ -57,10 +59,18 @@ public class LanguageIdProcessor implements DocumentProcessor {
 
     public void setConf(Configuration conf) {
         config = conf;
+        loadProfiles(defaultLanguagesToLoad);
+    }
 
-        // TODO get list of languages to load from conf
+    /**
+     * The profiles are held statically by the DetectorFactory and shared by
+     * all the instances of the processor
+     **/
+    private static synchronized void loadProfiles(String[] languagesToLoad) {
+        if (profilesLoaded)
+            return;
 
-        String[] languagesToLoad = defaultLanguagesToLoad;
+        // TODO get list of languages to load from conf
 
         List<String> json_profiles = new ArrayList<String>();
 
@@ -74,6 +84,7 @@ public class LanguageIdProcessor implements DocumentProcessor {
 
         try {
             DetectorFactory.loadProfile(json_profiles);
+            profilesLoaded = true;
         } catch (LangDetectException e) {
             LOG.info("Can't load language profiles");
         }
@@ -31,6 +31,21 @@ hadoop jar ./behemoth-core*job.jar com.digitalpebble.behemoth.util.ContentExtrac
 module=tika
 hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -i textcorpus -o textcorpusTika 
 
+# same with 16 threads per task, writing the documents as soon as they are parsed
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -n 16 -u -i textcorpus -o textcorpusTika
+
+# same with the parsing done in child JVMs restarted every 1000 documents, so that a crashing parser does not kill the task
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D tika.fork.pool.size=1 -D tika.fork.java="java -Xmx1g" -D tika.fork.max.docs=1000 -i textcorpus -o textcorpusTika
+
+# same with the text and HTML documents parsed by the built-in lightweight parsers instead of Tika
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D tika.fastpath=text/html=com.digitalpebble.behemoth.tika.SimpleHtmlParser,text/*=com.digitalpebble.behemoth.tika.PlainTextParser -i textcorpus -o textcorpusTika
+
+# same with the attachments of emails and entries of archives returned as separate documents
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D tika.embedded=true -i textcorpus -o textcorpusTika
+
+# same with only the main content of the HTML pages kept in the text
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D tika.boilerpipe=true -D tika.boilerpipe.extractor=de.l3s.boilerpipe.extractors.ArticleExtractor -i textcorpus -o textcorpusTika
+
 # process with Language-ID
 module=language-id
 hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.languageidentification.LanguageIdDriver -i textcorpusTika -o textcorpusTikaLang
@@ -52,6 +67,31 @@ hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.d
 #set filter mode
 hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.CorpusFilter -D document.filter.md.mode=OR 
 
+#filter on a large list of hosts shipped with -files
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.CorpusFilter -files hosts.txt -D document.filter.url.hosts.keep=hosts.txt -i textcorpusTika -o textcorpusTika-hosts
+
+#filter with a boolean expression
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.CorpusFilter -D document.filter.expression='md.lang=en AND NOT mimetype~"image/.*" AND length<5MB' -i textcorpusTika -o textcorpusTika-en
+
+#chain Tika, language identification and a filter on the language in a single job
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.ProcessorChainDriver -libjars behemoth-tika-1.0-SNAPSHOT-job.jar,behemoth-language-id-1.0-SNAPSHOT-job.jar -D behemoth.chain.filter.2.document.filter.md.keep.lang=en -p com.digitalpebble.behemoth.tika.TikaProcessor,com.digitalpebble.behemoth.languageidentification.LanguageIdProcessor -i textcorpus -o textcorpusTika-EN
+
+#same chain in the local JVM without submitting a job, reading the files of a directory
+java -cp "behemoth-tika-1.0-SNAPSHOT-job.jar:behemoth-language-id-1.0-SNAPSHOT-job.jar:$(hadoop classpath)" com.digitalpebble.behemoth.util.LocalPipelineRunner -D behemoth.chain.filter.2.document.filter.md.keep.lang=en -p com.digitalpebble.behemoth.tika.TikaProcessor,com.digitalpebble.behemoth.languageidentification.LanguageIdProcessor -t 8 -f -i ./docs -o textcorpusTika-EN
+
+#process only the documents which are new or have changed since the previous run
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.DeltaProcessorDriver -libjars behemoth-tika-1.0-SNAPSHOT-job.jar -D behemoth.delta.bloom.size=50000000 -p com.digitalpebble.behemoth.tika.TikaProcessor -r 40 -i textcorpus-week2 -prev textcorpusTika-week1 -o textcorpusTika-week2
+
+#merge the small part files of a corpus into files of about 512MB sorted by host
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.CorpusCompactor -s 512 -k host -sort -i textcorpusTika-week2 -o textcorpusTika-week2-compact
+
+#balance the splits of a Tika job by processing cost learned from the metrics of a previous run
+hadoop jar $behe_home/$module/target/behemoth-$module-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.util.CostIndexer -i textcorpus-week2
+hadoop jar $behe_home/tika/target/behemoth-tika-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D behemoth.input.format=com.digitalpebble.behemoth.CostBalancedInputFormat -D behemoth.cost.metrics=textcorpusTika-week1 -D behemoth.metrics=true -i textcorpus-week2 -o textcorpusTika-week2
+
+#process a corpus made of many small part files with fewer map tasks
+hadoop jar $behe_home/tika/target/behemoth-tika-1.0-SNAPSHOT-job.jar com.digitalpebble.behemoth.tika.TikaDriver -D behemoth.input.format=com.digitalpebble.behemoth.CombineBehemothInputFormat -D behemoth.combine.split.size=536870912 -i ClueWeb09 -o ClueWeb09Tika
+
 # Cluster/DocumentID dump
 hadoop jar ./behemoth-mahout*job.jar com.digitalpebble.behemoth.mahout.util.ClusterDocIDDumper -i  .../clusteredPoints -o cluster-mapping
 
@@ -30,7 +30,6 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -77,7 +76,7 @@ public class SOLRIndexerJob extends Configured implements Tool {
 
         job.setJobName("Indexing " + inputPath + " into SOLR");
 
-        job.setInputFormat(SequenceFileInputFormat.class);
+        BehemothConfiguration.setInputFormat(job);
         job.setOutputFormat(SOLROutputFormat.class);
 
         job.setOutputKeyClass(Text.class);
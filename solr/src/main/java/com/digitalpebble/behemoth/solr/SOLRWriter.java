@@ -18,6 +18,7 @@ package com.digitalpebble.behemoth.solr;
 
 import com.digitalpebble.behemoth.Annotation;
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.TextArrayWritable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -211,12 +212,17 @@ public class SOLRWriter {
         MapWritable metadata = doc.getMetadata();
         if (includeMetadata && metadata != null) {
             for (Entry<Writable, Writable> entry : metadata.entrySet()) {
-              if (useMetadataPrefix) {
-                String key = metadataPrefix + entry.getKey().toString();
-                inputDoc.addField(key, entry.getValue().toString());
+              String key = entry.getKey().toString();
+              if (useMetadataPrefix)
+                key = metadataPrefix + key;
+              // one value per element of a multivalued metadata
+              if (entry.getValue() instanceof TextArrayWritable) {
+                for (String value : ((TextArrayWritable) entry.getValue())
+                        .getValues())
+                  inputDoc.addField(key, value);
               }
               else {
-                inputDoc.addField(entry.getKey().toString(), entry.getValue().toString()); 
+                inputDoc.addField(key, entry.getValue().toString());
               }
             }
         }
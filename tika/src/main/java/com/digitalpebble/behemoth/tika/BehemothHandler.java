@@ -28,4 +28,11 @@ public interface BehemothHandler extends ContentHandler {
     public String getText();
 
     public List<Annotation> getAnnotations();
+
+    /**
+     * Sets the limits on the output of the handler, an OutputLimitException
+     * is thrown when one of them is reached. Values lower than 0 mean no
+     * limit.
+     **/
+    public void setLimits(int maxChars, int maxAnnotations, int maxDepth);
 }
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+
+/**
+ * Determines the content type of a document in stages of increasing cost. The
+ * declared content type (e.g. the HTTP Content-Type of a WARC or Nutch
+ * segment) is used as is if it belongs to tika.detect.trusted. Otherwise the
+ * magic bytes of a bounded prefix of the content are compared with the
+ * declared type and the type associated with the extension of the URL, which
+ * is cached. The full detector, which reads the whole content and looks inside
+ * the containers (zip, OLE2), is only used when they disagree or when the
+ * magic bytes point to a container. An instance must not be used by several
+ * threads at the same time.
+ **/
+public class ContentTypeDetector {
+
+    public static final String TRUSTED = "TRUSTED";
+    public static final String MAGIC = "MAGIC";
+    public static final String HINT = "HINT";
+    public static final String FULL = "FULL";
+
+    /** Types whose subtypes can only be told apart by the full detector **/
+    private static final Set<String> CONTAINERS = new HashSet<String>(
+            Arrays.asList("application/zip", "application/x-tika-msoffice",
+                    "application/x-tika-ooxml"));
+
+    private static final int MAX_HINTS = 10000;
+
+    private final MimeTypes mimetypes;
+    private final MediaTypeRegistry registry;
+    private final Detector detector;
+
+    private final int prefixSize;
+    private final boolean trustAll;
+    private final Set<String> trusted = new HashSet<String>();
+
+    private final Map<String, MediaType> hints = new HashMap<String, MediaType>();
+
+    private String stage;
+
+    public ContentTypeDetector(Configuration conf, MimeTypes mimetypes,
+            Detector detector) {
+        this.mimetypes = mimetypes;
+        this.registry = mimetypes.getMediaTypeRegistry();
+        this.detector = detector;
+        prefixSize = conf.getInt("tika.detect.prefix.size", 8192);
+        // trust all the declared types by default
+        String[] types = conf.getStrings("tika.detect.trusted", "*");
+        boolean all = false;
+        for (int i = 0; types != null && i < types.length; i++) {
+            String type = types[i].trim();
+            if (type.equals("*"))
+                all = true;
+            else if (getBaseType(type) != null)
+                trusted.add(getBaseType(type));
+        }
+        trustAll = all;
+    }
+
+    /**
+     * Returns true if the declared type can be used without detection. The
+     * types are compared on their base type, which is only defensive for the
+     * types of the documents as BehemothDocument.setContentType() already
+     * strips their parameters, but catches a difference of case.
+     **/
+    public boolean isTrusted(String declared) {
+        if (declared == null || declared.length() == 0)
+            return false;
+        return trustAll || trusted.contains(getBaseType(declared));
+    }
+
+    /**
+     * Returns the type in lower case without its parameters e.g. text/html for
+     * 'Text/HTML; charset=UTF-8', or null if it can't be parsed. Used for the
+     * types listed in the configuration, which may carry parameters, and
+     * defensively for the types of the documents.
+     **/
+    static String getBaseType(String type) {
+        if (type == null)
+            return null;
+        MediaType mediaType = MediaType.parse(type);
+        if (mediaType == null)
+            return null;
+        return mediaType.getBaseType().toString();
+    }
+
+    /**
+     * Returns the stage at which the type was determined by the last call to
+     * detect() i.e. TRUSTED, MAGIC, HINT or FULL
+     **/
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Returns the content type of a document
+     * 
+     * @param declared
+     *            the content type declared by the source of the document or
+     *            null
+     **/
+    public String detect(String url, byte[] content, String declared)
+            throws IOException {
+        if (isTrusted(declared)) {
+            stage = TRUSTED;
+            return declared;
+        }
+
+        // magic bytes only
+        int length = Math.min(content.length, prefixSize);
+        MediaType magic = mimetypes.detect(new ByteArrayInputStream(content,
+                0, length), new Metadata());
+
+        if (!CONTAINERS.contains(magic.toString())) {
+            MediaType claim = null;
+            if (declared != null && declared.length() > 0)
+                claim = MediaType.parse(declared);
+            MediaType hint = getHint(url);
+            if (agrees(claim, magic) && agrees(hint, magic)) {
+                // keep the most specific
+                MediaType best = magic;
+                if (claim != null && registry.isSpecializationOf(claim, best))
+                    best = claim;
+                if (hint != null && registry.isSpecializationOf(hint, best))
+                    best = hint;
+                stage = best == magic ? MAGIC : HINT;
+                return best.getBaseType().toString();
+            }
+        }
+
+        Metadata metadata = new Metadata();
+        if (url != null)
+            metadata.set(Metadata.RESOURCE_NAME_KEY, url);
+        if (declared != null && declared.length() > 0)
+            metadata.set(Metadata.CONTENT_TYPE, declared);
+        stage = FULL;
+        return detector.detect(new ByteArrayInputStream(content), metadata)
+                .getBaseType().toString();
+    }
+
+    private boolean agrees(MediaType hint, MediaType magic) {
+        if (hint == null || magic.equals(MediaType.OCTET_STREAM))
+            return true;
+        return hint.equals(magic) || registry.isSpecializationOf(hint, magic)
+                || registry.isSpecializationOf(magic, hint);
+    }
+
+    /**
+     * Returns the type associated with the extension of the path of a URL or
+     * null if there is none
+     **/
+    MediaType getHint(String url) {
+        String extension = getExtension(url);
+        if (extension == null)
+            return null;
+        MediaType hint = hints.get(extension);
+        if (hint == null) {
+            if (hints.size() >= MAX_HINTS)
+                hints.clear();
+            hint = mimetypes.getMimeType("x." + extension).getType();
+            hints.put(extension, hint);
+        }
+        if (hint.equals(MediaType.OCTET_STREAM))
+            return null;
+        return hint;
+    }
+
+    /** Returns the lowercased extension of the path of a URL or null **/
+    static String getExtension(String url) {
+        if (url == null)
+            return null;
+        // skip the scheme and host
+        int path = 0;
+        int scheme = url.indexOf("://");
+        if (scheme != -1) {
+            path = url.indexOf('/', scheme + 3);
+            if (path == -1)
+                return null;
+        }
+        int end = url.length();
+        int query = url.indexOf('?', path);
+        if (query != -1)
+            end = query;
+        int fragment = url.indexOf('#', path);
+        if (fragment != -1 && fragment < end)
+            end = fragment;
+        int dot = url.lastIndexOf('.', end - 1);
+        // the dot must be in the last segment of the path
+        if (dot < path || url.lastIndexOf('/', end - 1) > dot)
+            return null;
+        if (end - dot - 1 == 0 || end - dot - 1 > 10)
+            return null;
+        for (int i = dot + 1; i < end; i++) {
+            if (!Character.isLetterOrDigit(url.charAt(i)))
+                return null;
+        }
+        return url.substring(dot + 1, end).toLowerCase(Locale.ENGLISH);
+    }
+}
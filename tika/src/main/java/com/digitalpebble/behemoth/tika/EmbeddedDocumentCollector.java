@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.metadata.Metadata;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.DocumentListener;
+
+/**
+ * Turns the resources embedded in a document (attachments of emails, entries
+ * of archives...) into separate BehemothDocuments instead of letting Tika add
+ * their text to the one of the parent. Each resource is processed by the
+ * TikaProcessor as soon as the parser hands it over and its raw bytes are
+ * dropped once parsed. The sub-documents are passed on to the
+ * DocumentListener if one is set, along with the input document they come
+ * from, so that none of them is kept in memory, or accumulated to be returned
+ * with their parent otherwise. The URL of a sub-document is the one of its parent followed by !/ and the name of
+ * the resource (the name alone if the parent has no URL), its metadata
+ * tika.parent and tika.depth give the URL of the parent and the depth of
+ * nesting.
+ **/
+class EmbeddedDocumentCollector implements EmbeddedDocumentExtractor {
+
+    static final Text PARENT = new Text("tika.parent");
+    static final Text DEPTH = new Text("tika.depth");
+
+    private final TikaProcessor processor;
+    private final BehemothDocument parent;
+    private final BehemothDocument root;
+    private final int depth;
+    private final Reporter reporter;
+    private final DocumentListener listener;
+
+    private final List<BehemothDocument> documents = new ArrayList<BehemothDocument>();
+
+    private int numResources = 0;
+
+    /** time spent processing the sub-documents **/
+    private long nanos = 0;
+
+    EmbeddedDocumentCollector(TikaProcessor processor,
+            BehemothDocument parent, BehemothDocument root, int depth,
+            Reporter reporter, DocumentListener listener) {
+        this.processor = processor;
+        this.parent = parent;
+        this.root = root;
+        this.depth = depth;
+        this.reporter = reporter;
+        this.listener = listener;
+    }
+
+    public boolean shouldParseEmbedded(Metadata metadata) {
+        return processor.acceptEmbedded(depth, reporter);
+    }
+
+    public void parseEmbedded(InputStream stream, ContentHandler handler,
+            Metadata metadata, boolean outputHtml) throws SAXException,
+            IOException {
+        long start = System.nanoTime();
+        numResources++;
+        String name = metadata.get(Metadata.RESOURCE_NAME_KEY);
+        if (name == null || name.trim().length() == 0)
+            name = "embedded-" + numResources;
+
+        String parentURL = parent.getUrl();
+        BehemothDocument child = new BehemothDocument();
+        child.setUrl(parentURL == null ? name.trim() : parentURL + "!/"
+                + name.trim());
+        child.setContent(IOUtils.toByteArray(stream));
+        String type = metadata.get(Metadata.CONTENT_TYPE);
+        if (type != null)
+            child.setContentType(type);
+        MapWritable md = child.getMetadata(true);
+        if (parentURL != null)
+            md.put(PARENT, new Text(parentURL));
+        md.put(DEPTH, new Text(Integer.toString(depth)));
+
+        BehemothDocument[] outputs = processor.processEmbedded(child, depth,
+                reporter);
+        if (outputs != null) {
+            for (BehemothDocument output : outputs) {
+                output.setContent(null);
+                if (listener != null)
+                    listener.output(root, output);
+                else
+                    documents.add(output);
+            }
+        }
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the sub-documents and their own sub-documents, empty if they
+     * have been passed on to a listener
+     **/
+    List<BehemothDocument> getDocuments() {
+        return documents;
+    }
+
+    long getNanos() {
+        return nanos;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Lightweight parser for simple formats, used by the TikaProcessor instead of
+ * the Tika parsers for the MIME types listed in tika.fastpath. Works directly
+ * on the content of the document and sends the same XHTML events as Tika to
+ * the handler.
+ **/
+public abstract class FastPathParser extends AbstractParser {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Charset FALLBACK = Charset.forName("windows-1252");
+
+    public void parse(InputStream stream, ContentHandler handler,
+            Metadata metadata, ParseContext context) throws IOException,
+            SAXException, TikaException {
+        parse(IOUtils.toByteArray(stream), handler, metadata, context);
+    }
+
+    public void parse(byte[] content, ContentHandler handler,
+            Metadata metadata, ParseContext context) throws IOException,
+            SAXException, TikaException {
+        // as done by the CompositeParser of Tika
+        metadata.add("X-Parsed-By", getClass().getName());
+        parseContent(content, handler, metadata, context);
+    }
+
+    protected abstract void parseContent(byte[] content,
+            ContentHandler handler, Metadata metadata, ParseContext context)
+            throws IOException, SAXException, TikaException;
+
+    /**
+     * Returns the name of the charset declared within the content or null,
+     * used when the content has no byte order mark
+     **/
+    protected String sniffCharset(byte[] content) {
+        return null;
+    }
+
+    /**
+     * Decodes the content using its byte order mark, the charset declared in
+     * it, UTF-8 if it is valid or windows-1252 otherwise. The charset is
+     * stored in the Content-Encoding metadata and added to the Content-Type.
+     **/
+    protected String decode(byte[] content, Metadata metadata) {
+        Charset charset = null;
+        int offset = 0;
+        if (content.length >= 3 && (content[0] & 0xFF) == 0xEF
+                && (content[1] & 0xFF) == 0xBB && (content[2] & 0xFF) == 0xBF) {
+            charset = UTF8;
+            offset = 3;
+        } else if (content.length >= 2 && (content[0] & 0xFF) == 0xFE
+                && (content[1] & 0xFF) == 0xFF) {
+            charset = Charset.forName("UTF-16BE");
+            offset = 2;
+        } else if (content.length >= 2 && (content[0] & 0xFF) == 0xFF
+                && (content[1] & 0xFF) == 0xFE) {
+            charset = Charset.forName("UTF-16LE");
+            offset = 2;
+        } else {
+            String declared = sniffCharset(content);
+            if (declared != null) {
+                try {
+                    charset = Charset.forName(declared);
+                } catch (IllegalArgumentException e) {
+                    // unknown or illegal name
+                }
+            }
+        }
+
+        String text = null;
+        if (charset == null) {
+            try {
+                text = UTF8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(content)).toString();
+                charset = UTF8;
+            } catch (CharacterCodingException e) {
+                charset = FALLBACK;
+            }
+        }
+        if (text == null)
+            text = new String(content, offset, content.length - offset,
+                    charset);
+        metadata.set(Metadata.CONTENT_ENCODING, charset.name());
+        String type = metadata.get(Metadata.CONTENT_TYPE);
+        if (type != null && type.indexOf("charset=") == -1)
+            metadata.set(Metadata.CONTENT_TYPE, type + "; charset="
+                    + charset.name());
+        return text;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown by the handlers to abort a parse once one of the limits set on their
+ * output is reached. What was produced before the limit is kept by the
+ * handler.
+ **/
+public class OutputLimitException extends SAXException {
+
+    public static final String CHARS = "chars";
+    public static final String ANNOTATIONS = "annotations";
+    public static final String DEPTH = "depth";
+
+    private final String limit;
+
+    public OutputLimitException(String limit, int value) {
+        super("Output limit reached : " + limit + " " + value);
+        this.limit = limit;
+    }
+
+    /** Returns the name of the limit which was reached **/
+    public String getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the OutputLimitException which caused the throwable, the
+     * parsers often wrap the exceptions of the handler, or null if there is
+     * none
+     **/
+    public static OutputLimitException find(Throwable t) {
+        while (t != null) {
+            if (t instanceof OutputLimitException)
+                return (OutputLimitException) t;
+            if (t instanceof SAXException
+                    && ((SAXException) t).getException() != null)
+                t = ((SAXException) t).getException();
+            else
+                t = t.getCause();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Decodes plain text without the charset detection of the Tika TXTParser and
+ * wraps it in a single paragraph, as the TXTParser does.
+ **/
+public class PlainTextParser extends FastPathParser {
+
+    private static final Set<MediaType> TYPES = Collections
+            .singleton(MediaType.TEXT_PLAIN);
+
+    public Set<MediaType> getSupportedTypes(ParseContext context) {
+        return TYPES;
+    }
+
+    protected void parseContent(byte[] content, ContentHandler handler,
+            Metadata metadata, ParseContext context) throws IOException,
+            SAXException {
+        String text = decode(content, metadata);
+        XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+        xhtml.startDocument();
+        xhtml.startElement("p");
+        xhtml.characters(text);
+        xhtml.endElement("p");
+        xhtml.endDocument();
+    }
+}
@@ -0,0 +1,466 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.html.DefaultHtmlMapper;
+import org.apache.tika.parser.html.HtmlMapper;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.ccil.cowan.tagsoup.HTMLSchema;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Streaming HTML tokenizer which maps the elements and attributes with the
+ * HtmlMapper of the parse context (DefaultHtmlMapper by default) like the Tika
+ * HtmlParser, so that the TikaMarkupHandler produces the same annotations. It
+ * does not build a DOM nor fix the structure of the document : closing tags
+ * without a matching open element are ignored and the elements still open at
+ * the end are closed.
+ **/
+public class SimpleHtmlParser extends FastPathParser {
+
+    private static final Set<MediaType> TYPES = Collections
+            .singleton(MediaType.TEXT_HTML);
+
+    private static final Set<String> VOID_ELEMENTS = new HashSet<String>(
+            Arrays.asList("AREA", "BASE", "BR", "COL", "EMBED", "HR", "IMG",
+                    "INPUT", "LINK", "META", "PARAM", "SOURCE", "TRACK", "WBR"));
+
+    /**
+     * Elements closed implicitly when another element starts, as long as no
+     * element of SCOPES is found before them in the open elements
+     **/
+    private static final Map<String, Set<String>> IMPLIED_END = new HashMap<String, Set<String>>();
+
+    private static final Set<String> SCOPES = new HashSet<String>(
+            Arrays.asList("ul", "ol", "dl", "table"));
+
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Schema of TagSoup, used by the Tika HtmlParser, for the named entities
+     * so that they are decoded in the same way
+     **/
+    private static final HTMLSchema SCHEMA = new HTMLSchema();
+
+    static {
+        Set<String> paragraph = Collections.singleton("p");
+        for (String block : new String[] { "p", "h1", "h2", "h3", "h4", "h5",
+                "h6", "ul", "ol", "dl", "table", "pre", "blockquote",
+                "address", "form" })
+            IMPLIED_END.put(block, paragraph);
+        IMPLIED_END.put("li", Collections.singleton("li"));
+        Set<String> cells = new HashSet<String>(Arrays.asList("td", "th"));
+        IMPLIED_END.put("td", cells);
+        IMPLIED_END.put("th", cells);
+        IMPLIED_END.put("tr", Collections.singleton("tr"));
+        Set<String> definitions = new HashSet<String>(Arrays.asList("dt",
+                "dd"));
+        IMPLIED_END.put("dt", definitions);
+        IMPLIED_END.put("dd", definitions);
+    }
+
+    public Set<MediaType> getSupportedTypes(ParseContext context) {
+        return TYPES;
+    }
+
+    /** Looks for a charset declaration in the first KB of the content **/
+    protected String sniffCharset(byte[] content) {
+        int length = Math.min(content.length, 1024);
+        String head = new String(content, 0, length, LATIN1)
+                .toLowerCase(Locale.ENGLISH);
+        int pos = head.indexOf("charset=");
+        if (pos == -1)
+            return null;
+        pos += 8;
+        while (pos < length
+                && (head.charAt(pos) == '"' || head.charAt(pos) == '\''))
+            pos++;
+        int end = pos;
+        while (end < length) {
+            char c = head.charAt(end);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_'
+                    && c != '.' && c != ':')
+                break;
+            end++;
+        }
+        if (end == pos)
+            return null;
+        return head.substring(pos, end);
+    }
+
+    protected void parseContent(byte[] content, ContentHandler handler,
+            Metadata metadata, ParseContext context) throws IOException,
+            SAXException {
+        HtmlMapper mapper = context.get(HtmlMapper.class,
+                DefaultHtmlMapper.INSTANCE);
+        String html = decode(content, metadata);
+        new Tokenizer(html, mapper, new XHTMLContentHandler(handler,
+                metadata), metadata).run();
+    }
+
+    /** State of the parsing of a document **/
+    private static class Tokenizer {
+
+        private final String html;
+        private final int length;
+        private final HtmlMapper mapper;
+        private final XHTMLContentHandler xhtml;
+        private final Metadata metadata;
+
+        private final StringBuilder text = new StringBuilder();
+        private final List<String> open = new ArrayList<String>();
+        private final AttributesImpl attributes = new AttributesImpl();
+
+        private int pos = 0;
+        private boolean bodyStarted = false;
+
+        Tokenizer(String html, HtmlMapper mapper, XHTMLContentHandler xhtml,
+                Metadata metadata) {
+            this.html = html;
+            this.length = html.length();
+            this.mapper = mapper;
+            this.xhtml = xhtml;
+            this.metadata = metadata;
+        }
+
+        void run() throws SAXException {
+            xhtml.startDocument();
+            while (pos < length) {
+                char c = html.charAt(pos);
+                if (c == '<')
+                    tag();
+                else if (c == '&')
+                    entity(text);
+                else {
+                    text.append(c);
+                    pos++;
+                }
+            }
+            flushText();
+            while (!open.isEmpty())
+                xhtml.endElement(open.remove(open.size() - 1));
+            xhtml.endDocument();
+        }
+
+        /** Sends the text accumulated so far to the handler **/
+        private void flushText() throws SAXException {
+            if (text.length() == 0)
+                return;
+            // leave the head open until some text or element is found
+            if (!bodyStarted && isWhitespace(text)) {
+                text.setLength(0);
+                return;
+            }
+            bodyStarted = true;
+            xhtml.characters(text.toString());
+            text.setLength(0);
+        }
+
+        private void tag() throws SAXException {
+            int start = pos + 1;
+            if (html.startsWith("!--", start)) {
+                skipPast("-->", start + 3);
+                return;
+            }
+            if (start < length
+                    && (html.charAt(start) == '!' || html.charAt(start) == '?')) {
+                skipPast(">", start);
+                return;
+            }
+            boolean closing = start < length && html.charAt(start) == '/';
+            if (closing)
+                start++;
+            int end = start;
+            while (end < length) {
+                char c = html.charAt(end);
+                if (!Character.isLetterOrDigit(c) && c != ':' && c != '-'
+                        && c != '_')
+                    break;
+                end++;
+            }
+            if (end == start) {
+                // not a tag
+                text.append('<');
+                pos++;
+                return;
+            }
+            flushText();
+            String name = html.substring(start, end).toUpperCase(
+                    Locale.ENGLISH);
+            pos = end;
+            attributes.clear();
+            readAttributes(name, closing);
+
+            if (closing) {
+                endElement(name);
+                return;
+            }
+
+            if (mapper.isDiscardElement(name)) {
+                skipContent(name, null);
+                return;
+            }
+            if (name.equals("TITLE")) {
+                StringBuilder title = new StringBuilder();
+                skipContent(name, title);
+                metadata.set(TikaCoreProperties.TITLE, title.toString().trim());
+                return;
+            }
+            if (name.equals("META")) {
+                int nameIndex = attributes.getIndex("name");
+                if (nameIndex == -1)
+                    nameIndex = attributes.getIndex("http-equiv");
+                int contentIndex = attributes.getIndex("content");
+                if (nameIndex != -1 && contentIndex != -1)
+                    metadata.add(attributes.getValue(nameIndex),
+                            attributes.getValue(contentIndex));
+                return;
+            }
+
+            String safe = mapper.mapSafeElement(name);
+            if (safe == null)
+                return;
+            bodyStarted = true;
+            closeImplied(safe);
+            xhtml.startElement(safe, attributes);
+            if (VOID_ELEMENTS.contains(name))
+                xhtml.endElement(safe);
+            else
+                open.add(safe);
+        }
+
+        /**
+         * Closes the elements ended by the start of a new one, e.g. a li
+         * closes the previous li of the same list
+         **/
+        private void closeImplied(String safe) throws SAXException {
+            Set<String> implied = IMPLIED_END.get(safe);
+            if (implied == null)
+                return;
+            for (int i = open.size() - 1; i >= 0; i--) {
+                String element = open.get(i);
+                if (implied.contains(element)) {
+                    closeUpTo(element);
+                    return;
+                }
+                if (SCOPES.contains(element))
+                    return;
+            }
+        }
+
+        /** Closes the innermost element with that name and its children **/
+        private void closeUpTo(String safe) throws SAXException {
+            String last;
+            do {
+                last = open.remove(open.size() - 1);
+                xhtml.endElement(last);
+            } while (!last.equals(safe));
+        }
+
+        private void endElement(String name) throws SAXException {
+            String safe = mapper.mapSafeElement(name);
+            if (safe == null || !open.contains(safe))
+                return;
+            // close the elements left open within it
+            closeUpTo(safe);
+        }
+
+        /**
+         * Reads the attributes of a tag up to its closing bracket, keeping the
+         * ones allowed by the mapper
+         **/
+        private void readAttributes(String element, boolean closing) {
+            String lcElement = null;
+            while (pos < length) {
+                char c = html.charAt(pos);
+                if (c == '>') {
+                    pos++;
+                    return;
+                }
+                if (Character.isWhitespace(c) || c == '/') {
+                    pos++;
+                    continue;
+                }
+                int start = pos;
+                while (pos < length) {
+                    c = html.charAt(pos);
+                    if (c == '=' || c == '>' || c == '/'
+                            || Character.isWhitespace(c))
+                        break;
+                    pos++;
+                }
+                String name = html.substring(start, pos).toLowerCase(
+                        Locale.ENGLISH);
+                String value = "";
+                skipWhitespace();
+                if (pos < length && html.charAt(pos) == '=') {
+                    pos++;
+                    skipWhitespace();
+                    value = readValue();
+                }
+                if (closing || name.length() == 0)
+                    continue;
+                if (lcElement == null)
+                    lcElement = element.toLowerCase(Locale.ENGLISH);
+                String safe = mapper.mapSafeAttribute(lcElement, name);
+                if (element.equals("META"))
+                    safe = name;
+                if (safe != null && attributes.getIndex(safe) == -1)
+                    attributes.addAttribute("", safe, safe, "CDATA", value);
+            }
+        }
+
+        private String readValue() {
+            if (pos >= length)
+                return "";
+            char quote = html.charAt(pos);
+            StringBuilder value = new StringBuilder();
+            if (quote == '"' || quote == '\'') {
+                pos++;
+                while (pos < length && html.charAt(pos) != quote) {
+                    if (html.charAt(pos) == '&')
+                        entity(value);
+                    else
+                        value.append(html.charAt(pos++));
+                }
+                pos++;
+            } else {
+                while (pos < length) {
+                    char c = html.charAt(pos);
+                    if (c == '>' || Character.isWhitespace(c))
+                        break;
+                    if (c == '&')
+                        entity(value);
+                    else {
+                        value.append(c);
+                        pos++;
+                    }
+                }
+            }
+            return value.toString();
+        }
+
+        /**
+         * Skips the content of an element up to its closing tag, keeping its
+         * text in the buffer if not null
+         **/
+        private void skipContent(String name, StringBuilder buffer) {
+            while (pos < length) {
+                char c = html.charAt(pos);
+                if (c == '<' && pos + 1 < length
+                        && html.charAt(pos + 1) == '/'
+                        && html.regionMatches(true, pos + 2, name, 0,
+                                name.length())) {
+                    pos += 2 + name.length();
+                    skipPast(">", pos);
+                    return;
+                }
+                if (buffer == null)
+                    pos++;
+                else if (c == '&')
+                    entity(buffer);
+                else {
+                    buffer.append(c);
+                    pos++;
+                }
+            }
+        }
+
+        private void skipPast(String marker, int from) {
+            int end = html.indexOf(marker, from);
+            pos = end == -1 ? length : end + marker.length();
+        }
+
+        private void skipWhitespace() {
+            while (pos < length && Character.isWhitespace(html.charAt(pos)))
+                pos++;
+        }
+
+        /** Decodes the entity at the current position **/
+        private void entity(StringBuilder buffer) {
+            int end = pos + 1;
+            while (end < length && end - pos < 12) {
+                char c = html.charAt(end);
+                if (!Character.isLetterOrDigit(c) && c != '#')
+                    break;
+                end++;
+            }
+            // decoded without a trailing semicolon as well, like TagSoup
+            String decoded = null;
+            if (end > pos + 1) {
+                String name = html.substring(pos + 1, end);
+                if (name.charAt(0) == '#')
+                    decoded = numericEntity(name);
+                else {
+                    int codePoint = SCHEMA.getEntity(name);
+                    if (codePoint != 0)
+                        decoded = new String(Character.toChars(codePoint));
+                }
+            }
+            if (decoded == null) {
+                buffer.append('&');
+                pos++;
+                return;
+            }
+            buffer.append(decoded);
+            pos = end;
+            if (pos < length && html.charAt(pos) == ';')
+                pos++;
+        }
+
+        private static String numericEntity(String name) {
+            try {
+                int codePoint;
+                if (name.length() > 1
+                        && (name.charAt(1) == 'x' || name.charAt(1) == 'X'))
+                    codePoint = Integer.parseInt(name.substring(2), 16);
+                else
+                    codePoint = Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static boolean isWhitespace(CharSequence chars) {
+            for (int i = 0; i < chars.length(); i++) {
+                if (!Character.isWhitespace(chars.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -24,9 +24,10 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
- *
- *
+ * @deprecated can't be read back as it has no default constructor, use
+ *             {@link com.digitalpebble.behemoth.TextArrayWritable} instead
  **/
+@Deprecated
 public class TextArrayWritable implements Writable {
     // Hmm, is this the best way to do this?
     private String[] array;
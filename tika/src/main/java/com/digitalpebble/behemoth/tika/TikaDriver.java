@@ -19,6 +19,7 @@ package com.digitalpebble.behemoth.tika;
 import com.digitalpebble.behemoth.BehemothConfiguration;
 import com.digitalpebble.behemoth.BehemothDocument;
 import com.digitalpebble.behemoth.BehemothReducer;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
 
 import org.apache.commons.cli2.CommandLine;
 import org.apache.commons.cli2.Group;
@@ -38,7 +39,6 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -86,6 +86,20 @@ public class TikaDriver extends Configured implements Tool, TikaConstants {
         Option mimeTypeOpt = buildOption("mimeType", "m",
                 "The mime type to use (optional)", true, false, "");
         options.add(mimeTypeOpt);
+        Option threadsOpt = buildOption("threads", "n",
+                "Number of threads parsing the documents of a task (optional)",
+                true, false, null);
+        options.add(threadsOpt);
+        Option queueOpt = buildOption(
+                "queueSize",
+                "q",
+                "Number of documents read ahead of the output (optional, default twice the number of threads)",
+                true, false, null);
+        options.add(queueOpt);
+        Option unorderedOpt = buildOption("unordered", "u",
+                "Write the documents as soon as they are parsed (optional)",
+                false, false, null);
+        options.add(unorderedOpt);
         for (Option opt : options) {
             gBuilder = gBuilder.withOption(opt);
         }
@@ -116,9 +130,23 @@ public class TikaDriver extends Configured implements Tool, TikaConstants {
                 job.set(TIKA_PROCESSOR_KEY, handlerName);
             }
 
+            if (cmdLine.hasOption(threadsOpt)) {
+                job.setInt(ProcessorMapRunner.THREADS_PARAM_NAME, Integer
+                        .parseInt(cmdLine.getValue(threadsOpt).toString()));
+            }
+
+            if (cmdLine.hasOption(queueOpt)) {
+                job.setInt(ProcessorMapRunner.QUEUE_SIZE_PARAM_NAME, Integer
+                        .parseInt(cmdLine.getValue(queueOpt).toString()));
+            }
+
+            if (cmdLine.hasOption(unorderedOpt)) {
+                job.setBoolean(ProcessorMapRunner.ORDERED_PARAM_NAME, false);
+            }
+
             job.setJobName("Tika : " + inputPath.toString());
 
-            job.setInputFormat(SequenceFileInputFormat.class);
+            BehemothConfiguration.setInputFormat(job);
             job.setOutputFormat(SequenceFileOutputFormat.class);
 
             job.setMapOutputKeyClass(Text.class);
@@ -127,6 +155,8 @@ public class TikaDriver extends Configured implements Tool, TikaConstants {
             job.setOutputValueClass(BehemothDocument.class);
 
             job.setMapperClass(TikaMapper.class);
+            // several threads if behemoth.runner.threads > 1
+            ProcessorMapRunner.configure(job, TikaProcessorFactory.class);
 
             boolean isFilterRequired = BehemothReducer.isRequired(job);
             if (isFilterRequired)
@@ -17,7 +17,15 @@
 package com.digitalpebble.behemoth.tika;
 
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.CachingDocumentProcessor;
+import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.DocumentListener;
+import com.digitalpebble.behemoth.DocumentProcessorFactory;
+import com.digitalpebble.behemoth.InstrumentedDocumentProcessor;
+import com.digitalpebble.behemoth.StreamingDocumentProcessor;
+import com.digitalpebble.behemoth.TimeLimitedDocumentProcessor;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
@@ -34,7 +42,10 @@ import java.io.IOException;
  * using Tika. Users wanting to override the default work of the TikaProcessor
  * can set the "tika.processor" value in the JobConf and give it a fully
  * qualified class name. The implementation must extend TikaProcessor and it
- * must have a zero arg. constructor.
+ * must have a zero arg. constructor. The TikaDriver replaces it with the
+ * {@link com.digitalpebble.behemoth.ProcessorMapRunner} when several threads
+ * are used. The embedded documents extracted with tika.embedded are written
+ * as soon as they are parsed.
  */
 public class TikaMapper extends MapReduceBase implements
         Mapper<Text, BehemothDocument, Text, BehemothDocument> {
@@ -42,12 +53,29 @@ public class TikaMapper extends MapReduceBase implements
 
     protected TikaProcessor processor;
 
+    /** the processor with its time limit, cache and instrumentation if any **/
+    private DocumentProcessor instrumented;
+
+    /** key and output of the document being processed **/
+    private Text currentKey;
+    private OutputCollector<Text, BehemothDocument> currentOutput;
+
+    private final DocumentListener embeddedListener = new DocumentListener() {
+        public void output(BehemothDocument input, BehemothDocument document)
+                throws IOException {
+            currentOutput.collect(currentKey, document);
+        }
+    };
+
     @Override
     public void map(Text text, BehemothDocument inputDoc,
             OutputCollector<Text, BehemothDocument> outputCollector,
             Reporter reporter) throws IOException {
 
-        BehemothDocument[] documents = processor.process(inputDoc, reporter);
+        currentKey = text;
+        currentOutput = outputCollector;
+        BehemothDocument[] documents = instrumented.process(inputDoc,
+                reporter);
         if (documents != null) {
             for (int i = 0; i < documents.length; i++) {
                 try {
@@ -60,24 +88,31 @@ public class TikaMapper extends MapReduceBase implements
     }
 
     @Override
-    public void configure(JobConf job) {
-
-        String handlerName = job.get(TikaConstants.TIKA_PROCESSOR_KEY);
-        if (handlerName != null) {
-            Class<?> handlerClass = job.getClass(handlerName, TikaProcessor.class);
-            try {
-                processor = (TikaProcessor) handlerClass.newInstance();
-            } catch (InstantiationException e) {
-                LOG.error("Exception", e);
-                // TODO: what's the best way to do this?
-                throw new RuntimeException(e);
-            } catch (IllegalAccessException e) {
-                LOG.error("Exception", e);
-                throw new RuntimeException(e);
+    public void configure(final JobConf job) {
+        processor = newTikaProcessor(job);
+        // replaces the processor after a timeout
+        DocumentProcessorFactory factory = new DocumentProcessorFactory() {
+            public DocumentProcessor newProcessor(Configuration conf) {
+                return newTikaProcessor(job);
             }
-        } else {
-            processor = new TikaProcessor();
-        }
-        processor.setConf(job);
+        };
+        DocumentProcessor limited = TimeLimitedDocumentProcessor.wrap(
+                processor, factory, job);
+        DocumentProcessor cached = CachingDocumentProcessor
+                .wrap(limited, job);
+        instrumented = InstrumentedDocumentProcessor.wrap(cached, job);
+        // through the wrappers, which know about the documents in flight
+        if (instrumented instanceof StreamingDocumentProcessor)
+            ((StreamingDocumentProcessor) instrumented)
+                    .setListener(embeddedListener);
+    }
+
+    private TikaProcessor newTikaProcessor(JobConf job) {
+        return TikaProcessorFactory.newTikaProcessor(job);
+    }
+
+    @Override
+    public void close() throws IOException {
+        instrumented.close();
     }
 }
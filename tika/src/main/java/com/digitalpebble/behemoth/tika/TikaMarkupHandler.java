@@ -17,9 +17,12 @@
 
 package com.digitalpebble.behemoth.tika;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
@@ -29,7 +32,10 @@ import com.digitalpebble.behemoth.Annotation;
 
 /*******************************************************************************
  * SAX Handler which gets events from the Tika parser events and create Behemoth
- * annotations accordingly.
+ * annotations accordingly. The open elements are kept on a stack so that an
+ * end tag is matched with the innermost element of the same name. Only the
+ * elements and attributes allowed by the filters are converted into
+ * annotations, the others cost a push and a pop on the stack.
  * 
  ******************************************************************************/
 
@@ -39,47 +45,140 @@ public class TikaMarkupHandler implements BehemothHandler {
 
     private List<Annotation> annotationBuffer;
 
-    private LinkedList<Annotation> startedAnnotations;
+    /** names of the open elements **/
+    private String[] openNames = new String[32];
+
+    /** annotations of the open elements, null for the ones not kept **/
+    private Annotation[] openAnnotations = new Annotation[32];
+
+    private int depth = 0;
+
+    private int numOpenAnnotations = 0;
+
+    /** types of the elements to keep, null for all **/
+    private final Set<String> types;
+
+    /** attributes to keep for a given type, all if the type is not listed **/
+    private final Map<String, Set<String>> features;
+
+    /**
+     * Single instance of the element names, shared by their annotations.
+     * Preferred to String.intern() which goes through a global table.
+     **/
+    private final Map<String, String> names = new HashMap<String, String>();
+
+    private int maxChars = -1;
+    private int maxAnnotations = -1;
+    private int maxDepth = -1;
 
     public TikaMarkupHandler() {
+        this(null, null);
+    }
+
+    /**
+     * @param types
+     *            the names of the elements converted into annotations or
+     *            null for all of them
+     * @param features
+     *            the names of the attributes kept as features for a type,
+     *            all the attributes are kept for the types not in the map
+     **/
+    public TikaMarkupHandler(Set<String> types,
+            Map<String, Set<String>> features) {
+        this.types = types;
+        this.features = features;
         textBuffer = new StringBuilder();
-        annotationBuffer = new LinkedList<Annotation>();
-        startedAnnotations = new LinkedList<Annotation>();
+        annotationBuffer = new ArrayList<Annotation>(64);
+    }
+
+    public void setLimits(int maxChars, int maxAnnotations, int maxDepth) {
+        this.maxChars = maxChars;
+        this.maxAnnotations = maxAnnotations;
+        this.maxDepth = maxDepth;
     }
 
     public void characters(char[] ch, int start, int length)
             throws SAXException {
+        if (maxChars >= 0 && textBuffer.length() + length > maxChars) {
+            // keep what fits
+            textBuffer.append(ch, start, maxChars - textBuffer.length());
+            abort(OutputLimitException.CHARS, maxChars);
+        }
         textBuffer.append(ch, start, length);
     }
 
+    /**
+     * Closes the annotations started so far at the current offset so that the
+     * partial output is consistent, then aborts the parse
+     **/
+    private void abort(String limit, int value) throws OutputLimitException {
+        int endOffset = textBuffer.length();
+        while (depth > 0)
+            pop(endOffset);
+        throw new OutputLimitException(limit, value);
+    }
+
     public void startDocument() throws SAXException {
-        textBuffer = new StringBuilder();
-        annotationBuffer = new LinkedList<Annotation>();
-        startedAnnotations = new LinkedList<Annotation>();
+        textBuffer.setLength(0);
+        annotationBuffer.clear();
+        Arrays.fill(openAnnotations, 0, depth, null);
+        depth = 0;
+        numOpenAnnotations = 0;
     }
 
     public void endDocument() throws SAXException {
-        // there should be no annotation left at this stage
-        if (startedAnnotations.size() != 0) {
-            // TODO log + error message
-        }
     }
 
     public void startElement(String uri, String localName, String qName,
             Attributes atts) throws SAXException {
-        int startOffset = textBuffer.length();
+        if (maxDepth >= 0 && depth >= maxDepth)
+            abort(OutputLimitException.DEPTH, maxDepth);
+
+        String name = names.get(localName);
+        if (name == null) {
+            name = localName;
+            // the names come from the documents
+            if (names.size() < 1024)
+                names.put(name, name);
+        }
+        Annotation annot = null;
+        if (types == null || types.contains(name)) {
+            int numAnnotations = annotationBuffer.size() + numOpenAnnotations;
+            if (maxAnnotations >= 0 && numAnnotations >= maxAnnotations)
+                abort(OutputLimitException.ANNOTATIONS, maxAnnotations);
+            annot = newAnnotation(name, atts);
+            numOpenAnnotations++;
+        }
 
+        if (depth == openNames.length) {
+            openNames = Arrays.copyOf(openNames, depth * 2);
+            openAnnotations = Arrays.copyOf(openAnnotations, depth * 2);
+        }
+        openNames[depth] = name;
+        openAnnotations[depth] = annot;
+        depth++;
+    }
+
+    private Annotation newAnnotation(String name, Attributes atts) {
         Annotation annot = new Annotation();
-        annot.setStart(startOffset);
+        annot.setStart(textBuffer.length());
         // use the localname as a type
-        annot.setType(localName);
+        annot.setType(name);
         // convert the attributes into features
-        for (int i = 0; i < atts.getLength(); i++) {
+        int numAtts = atts.getLength();
+        if (numAtts == 0)
+            return annot;
+        Set<String> allowed = features != null ? features.get(name) : null;
+        Map<String, String> feats = new HashMap<String, String>(
+                numAtts * 4 / 3 + 1);
+        for (int i = 0; i < numAtts; i++) {
             String key = atts.getLocalName(i);
-            String value = atts.getValue(i);
-            annot.getFeatures().put(key, value);
+            if (allowed == null || allowed.contains(key))
+                feats.put(key, atts.getValue(i));
         }
-        this.startedAnnotations.addLast(annot);
+        if (!feats.isEmpty())
+            annot.setFeatures(feats);
+        return annot;
     }
 
     public void endElement(String uri, String localName, String qName)
@@ -89,30 +188,36 @@ public class TikaMarkupHandler implements BehemothHandler {
 
         // add a \n after the head if the text is not empty
         // i.e. there is a title
-        if (localName.equals("head") && endOffset > 0)
+        // the newline counts towards the limit like any other character
+        if (localName.equals("head") && endOffset > 0) {
+            if (maxChars >= 0 && endOffset + 1 > maxChars)
+                abort(OutputLimitException.CHARS, maxChars);
             textBuffer.append("\n");
-
-        // try to get the corresponding annotation
-        // we start from the last temporary
-        // and go up the stack
-        Iterator<Annotation> iter = startedAnnotations.iterator();
-        Annotation startedAnnot = null;
-        while (iter.hasNext()) {
-            Annotation temp = iter.next();
-            if (temp.getType().equals(localName)) {
-                startedAnnot = temp;
-                break;
-            }
         }
-        // found something?
-        if (startedAnnot == null) {
-            // TODO log etc...
+
+        // the element is normally at the top of the stack
+        int pos = depth - 1;
+        while (pos >= 0 && !localName.equals(openNames[pos]))
+            pos--;
+        // no matching start
+        if (pos < 0)
             return;
-        }
+        // close the elements which were not ended
+        while (depth > pos)
+            pop(endOffset);
+    }
 
-        startedAnnot.setEnd(endOffset);
-        startedAnnotations.remove(startedAnnot);
-        annotationBuffer.add(startedAnnot);
+    /** Removes the top of the stack, keeping its annotation if any **/
+    private void pop(int endOffset) {
+        depth--;
+        Annotation annot = openAnnotations[depth];
+        openAnnotations[depth] = null;
+        openNames[depth] = null;
+        if (annot == null)
+            return;
+        annot.setEnd(endOffset);
+        annotationBuffer.add(annot);
+        numOpenAnnotations--;
     }
 
     public void ignorableWhitespace(char[] ch, int start, int length)
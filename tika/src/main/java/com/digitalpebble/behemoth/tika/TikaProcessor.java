@@ -20,7 +20,13 @@ package com.digitalpebble.behemoth.tika;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.MapWritable;
@@ -28,26 +34,54 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.fork.ForkParser;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.mime.MediaType;
-import org.apache.tika.mime.MimeType;
-import org.apache.tika.mime.MimeTypeException;
 import org.apache.tika.mime.MimeTypes;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.html.BoilerpipeContentHandler;
 import org.apache.tika.parser.html.HtmlMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+
+import de.l3s.boilerpipe.BoilerpipeExtractor;
 
 import com.digitalpebble.behemoth.BehemothDocument;
-import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.DocumentListener;
+import com.digitalpebble.behemoth.StreamingDocumentProcessor;
+import com.digitalpebble.behemoth.TextArrayWritable;
 
 /**
  * Tika as a document processor. Extracts the text and metadata from the
- * original content + converts the XHTML tags into annotations.
+ * original content + converts the XHTML tags into annotations. The parser,
+ * detector and parse context are built once in setConf() and reused for all
+ * the documents; the TikaConfig is shared by all the instances as the Tika
+ * parsers are thread safe. An instance must not be used by several threads at
+ * the same time.
+ * <p>
+ * The MIME types listed in tika.fastpath are parsed by lightweight parsers
+ * (e.g. PlainTextParser, SimpleHtmlParser) instead of Tika.
+ * </p>
+ * <p>
+ * If tika.boilerpipe is true, the HTML documents go through a boilerpipe
+ * extractor before reaching the handler, which then only sees the text blocks
+ * of the main content and their markup. The annotations are built from the
+ * kept text so their offsets remain consistent with it.
+ * </p>
+ * <p>
+ * If tika.fork.pool.size is greater than 0, the documents are parsed in a pool
+ * of child JVMs so that a parser running out of memory, looping forever or
+ * crashing does not kill the task. The text and markup are streamed back to
+ * the handler of the task as SAX events. A child which dies is replaced for the
+ * next document, while the others keep their parsers warm.
+ * </p>
  */
 
-public class TikaProcessor implements DocumentProcessor, TikaConstants {
+public class TikaProcessor implements StreamingDocumentProcessor,
+        TikaConstants {
 
     private static final Logger LOG = LoggerFactory
             .getLogger(TikaProcessor.class);
@@ -56,21 +90,94 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
 
     private String mimeType = "text/plain";
 
-    private MimeTypes mimetypes = TikaConfig.getDefaultConfig()
-            .getMimeRepository();
-    private Detector detector = TikaConfig.getDefaultConfig().getDetector();
+    /** Loading the default configuration scans the classpath **/
+    private static TikaConfig defaultConfig;
+
+    private MimeTypes mimetypes;
+    private Detector detector;
+    private Parser parser;
+    private ParseContext context;
+    private boolean doMarkup = true;
 
     private static final String contentLengthThresholdFilterParamName = "tika.filter.content.byte";
     private static final String forceMTDetectionParamName = "tika.forceMimetypeDetection";
     private static final String forceReparseParamName = "tika.forceReparse";
+    private static final String maxCharsParamName = "tika.max.chars";
+    private static final String maxAnnotationsParamName = "tika.max.annotations";
+    private static final String maxDepthParamName = "tika.max.depth";
+    private static final String annotationsFilterParamName = "tika.annotations.filter";
+    private static final String featuresFilterParamName = "tika.features.filter";
+    private static final String embeddedParamName = "tika.embedded";
+    private static final String embeddedMaxDepthParamName = "tika.embedded.max.depth";
+    private static final String embeddedMaxParamName = "tika.embedded.max";
+    private static final String metadataKeepParamName = "tika.metadata.keep";
+    private static final String multiValuedParamName = "tika.metadata.multivalued";
+    private static final String boilerpipeParamName = "tika.boilerpipe";
+    private static final String boilerpipeExtractorParamName = "tika.boilerpipe.extractor";
+    private static final String boilerpipeTypesParamName = "tika.boilerpipe.types";
+    private static final String fastPathParamName = "tika.fastpath";
+    private static final String forkPoolSizeParamName = "tika.fork.pool.size";
+    private static final String forkJavaParamName = "tika.fork.java";
+    private static final String forkTimeoutParamName = "tika.fork.timeout";
+    private static final String forkMaxDocsParamName = "tika.fork.max.docs";
 
     private int contentLengthThresholdFilter = -1;
     private boolean forceMTDetection = false;
     
     private boolean forceReparse = false;
 
+    private int maxChars = -1;
+    private int maxAnnotations = -1;
+    private int maxDepth = -1;
+
+    /** Names or prefixes (ending with *) of the metadata kept, null for all **/
+    private List<String> metadataKeep;
+    private boolean multiValued = false;
+
+    /** Marks the metadata names which are not kept **/
+    private static final Text EXCLUDED = new Text();
+
+    /**
+     * Keys of the metadata per Tika name, shared by all the documents
+     * processed by this instance
+     **/
+    private final Map<String, Text> metadataKeys = new HashMap<String, Text>();
+
+    /** Removes the boilerplate of the documents if not null **/
+    private BoilerpipeExtractor boilerpipe;
+    private Set<String> boilerpipeTypes;
+
+    /** Elements converted into annotations, null for all **/
+    private Set<String> markupTypes;
+    private Map<String, Set<String>> markupFeatures;
+
     private boolean okCounters = true;
 
+    private ContentTypeDetector typeDetector;
+
+    /** Lightweight parsers used instead of Tika, by MIME type **/
+    private final Map<String, FastPathParser> fastPaths = new HashMap<String, FastPathParser>();
+
+    private long detectionNanos = 0;
+    private long parsingNanos = 0;
+    private long reportedDetectionMsec = 0;
+    private long reportedParsingMsec = 0;
+
+    private boolean extractEmbedded = false;
+    private int embeddedMaxDepth = 5;
+    private int embeddedMax = 1000;
+
+    /** depth of the document being processed, 0 for the input documents **/
+    private int embeddedDepth = 0;
+    private DocumentListener embeddedListener;
+    /** input document the embedded ones being processed come from **/
+    private BehemothDocument rootDoc;
+    private int numEmbedded = 0;
+
+    private ForkParser forkParser;
+    private int forkMaxDocs = 0;
+    private int forkedDocs = 0;
+
     public Configuration getConf() {
         return config;
     }
@@ -82,9 +189,194 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
                 contentLengthThresholdFilterParamName, -1);
         forceMTDetection = config.getBoolean(forceMTDetectionParamName, false);
         forceReparse = config.getBoolean(forceReparseParamName, false);
+        doMarkup = config.getBoolean("tika.convert.markup", true);
+        maxChars = config.getInt(maxCharsParamName, -1);
+        maxAnnotations = config.getInt(maxAnnotationsParamName, -1);
+        maxDepth = config.getInt(maxDepthParamName, -1);
+
+        boilerpipe = null;
+        if (config.getBoolean(boilerpipeParamName, false)) {
+            boilerpipe = newBoilerpipeExtractor(config.get(
+                    boilerpipeExtractorParamName,
+                    "de.l3s.boilerpipe.extractors.ArticleExtractor"));
+            boilerpipeTypes = new HashSet<String>();
+            for (String type : config.getStrings(boilerpipeTypesParamName,
+                    "text/html", "application/xhtml+xml")) {
+                String baseType = ContentTypeDetector.getBaseType(type);
+                if (baseType != null)
+                    boilerpipeTypes.add(baseType);
+            }
+        }
+
+        metadataKeys.clear();
+        metadataKeep = null;
+        for (String keep : config.getStrings(metadataKeepParamName, "")) {
+            keep = keep.trim();
+            if (keep.length() == 0)
+                continue;
+            if (metadataKeep == null)
+                metadataKeep = new ArrayList<String>();
+            metadataKeep.add(keep);
+        }
+        multiValued = config.getBoolean(multiValuedParamName, false);
+
+        markupTypes = null;
+        for (String type : config.getStrings(annotationsFilterParamName, "")) {
+            type = type.trim();
+            if (type.length() == 0)
+                continue;
+            if (markupTypes == null)
+                markupTypes = new HashSet<String>();
+            markupTypes.add(type);
+        }
+        // the feature filters have the following form : type.attribute
+        markupFeatures = new HashMap<String, Set<String>>();
+        for (String filter : config.getStrings(featuresFilterParamName, "")) {
+            String[] fp = filter.trim().split("\\.");
+            if (fp.length != 2)
+                continue;
+            Set<String> names = markupFeatures.get(fp[0]);
+            if (names == null) {
+                names = new HashSet<String>();
+                markupFeatures.put(fp[0], names);
+            }
+            names.add(fp[1]);
+        }
+
+        TikaConfig tikaConfig = getTikaConfig();
+        mimetypes = tikaConfig.getMimeRepository();
+        detector = tikaConfig.getDetector();
+        parser = tikaConfig.getParser();
+        context = new ParseContext();
+        typeDetector = new ContentTypeDetector(conf, mimetypes, detector);
+
+        // TODO generalise the approach so that can set any class via context
+        String customMapper = config.get("tika.context.HtmlMapper.class");
+        if (customMapper != null) {
+            try {
+                Class<? extends HtmlMapper> customMapperClass = config
+                        .getClassByName(customMapper).asSubclass(
+                                HtmlMapper.class);
+                // specify a custom HTML mapper via the Context
+                context.set(HtmlMapper.class, customMapperClass.newInstance());
+            } catch (Exception e) {
+                LOG.error("Can't use class " + customMapper
+                        + " for HtmlMapper, using default");
+            }
+        }
+
+        fastPaths.clear();
+        for (String route : config.getStrings(fastPathParamName,
+                new String[0])) {
+            int equals = route.indexOf('=');
+            if (equals == -1)
+                throw new RuntimeException("Invalid route in "
+                        + fastPathParamName + " : " + route);
+            String type = route.substring(0, equals).trim();
+            String className = route.substring(equals + 1).trim();
+            try {
+                fastPaths.put(type, config.getClassByName(className)
+                        .asSubclass(FastPathParser.class).newInstance());
+            } catch (Exception e) {
+                throw new RuntimeException("Can't use " + className
+                        + " as a fast path for " + type, e);
+            }
+        }
+
+        forkMaxDocs = config.getInt(forkMaxDocsParamName, 0);
+        if (config.getInt(forkPoolSizeParamName, 0) > 0)
+            forkParser = newForkParser();
+
+        extractEmbedded = config.getBoolean(embeddedParamName, false);
+        embeddedMaxDepth = config.getInt(embeddedMaxDepthParamName, 5);
+        embeddedMax = config.getInt(embeddedMaxParamName, 1000);
+        if (extractEmbedded && forkParser != null) {
+            // the extractor can't be sent to the child JVMs
+            LOG.warn(embeddedParamName + " is ignored with "
+                    + forkPoolSizeParamName);
+            extractEmbedded = false;
+        }
+    }
+
+    /**
+     * Builds a pool of child JVMs running the parser. The children are
+     * started lazily by the ForkParser on the first documents.
+     **/
+    private ForkParser newForkParser() {
+        ForkParser fork = new ForkParser(TikaProcessor.class.getClassLoader(),
+                parser);
+        fork.setPoolSize(config.getInt(forkPoolSizeParamName, 1));
+        // the memory threshold of the children is their max heap size
+        String java = config.get(forkJavaParamName, "java -Xmx512m");
+        fork.setJavaCommand(Arrays.asList(java.trim().split("\\s+")));
+        // a child exits when it has not communicated with the task for that
+        // long, which covers the parsers looping forever. This is only
+        // refreshed when the child reads or writes, so a slow parser which
+        // outputs nothing for a while is killed as well
+        fork.setServerPulseMillis(config.getLong(forkTimeoutParamName, 60000));
+        return fork;
+    }
+
+    /**
+     * Returns the shared instance of a boilerpipe extractor or a new one if it
+     * has none
+     **/
+    private BoilerpipeExtractor newBoilerpipeExtractor(String className) {
+        try {
+            Class<? extends BoilerpipeExtractor> extractorClass = config
+                    .getClassByName(className).asSubclass(
+                            BoilerpipeExtractor.class);
+            try {
+                return (BoilerpipeExtractor) extractorClass.getField(
+                        "INSTANCE").get(null);
+            } catch (NoSuchFieldException e) {
+                return extractorClass.newInstance();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Can't use " + className
+                    + " to remove the boilerplate", e);
+        }
+    }
+
+    /**
+     * Returns the parser routed for a MIME type in tika.fastpath, looking
+     * for its base type then its major type e.g. text/*. The type of a
+     * document has no parameters already, normalising it is only defensive.
+     **/
+    private FastPathParser getFastPath(String type) {
+        if (fastPaths.isEmpty())
+            return null;
+        type = ContentTypeDetector.getBaseType(type);
+        if (type == null)
+            return null;
+        FastPathParser fastPath = fastPaths.get(type);
+        if (fastPath == null) {
+            int slash = type.indexOf('/');
+            if (slash != -1)
+                fastPath = fastPaths.get(type.substring(0, slash + 1) + "*");
+        }
+        return fastPath;
+    }
+
+    private static synchronized TikaConfig getDefaultConfig() {
+        if (defaultConfig == null)
+            defaultConfig = TikaConfig.getDefaultConfig();
+        return defaultConfig;
+    }
+
+    /**
+     * Returns the configuration the parser, detector and MIME types are taken
+     * from, the shared default one unless overridden e.g. by the benchmark
+     **/
+    TikaConfig getTikaConfig() {
+        return getDefaultConfig();
     }
 
     public void close() {
+        if (forkParser != null) {
+            forkParser.close();
+            forkParser = null;
+        }
     }
 
     /**
@@ -94,6 +386,11 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
      */
     public BehemothDocument[] process(BehemothDocument inputDoc,
             Reporter reporter) {
+        if (embeddedDepth == 0) {
+            numEmbedded = 0;
+            rootDoc = inputDoc;
+        }
+
         // check that it has some text or content
         if (inputDoc.getContent() == null && inputDoc.getText() == null) {
             LOG.info("No content or text for " + inputDoc.getUrl()
@@ -103,40 +400,31 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
             return new BehemothDocument[] { inputDoc };
         }
 
-        // determine the content type if missing
-        if (inputDoc.getContentType() == null
-                || inputDoc.getContentType().equals("") == true) {
-            String mt = null;
-            // using the original content
-            if (mimeType == null | forceMTDetection) {
-                if (inputDoc.getContent() != null) {
-                    Metadata meta = new Metadata();
-                    meta.set(Metadata.RESOURCE_NAME_KEY, inputDoc.getUrl());
-                    MimeType mimetype = null;
-                    try {
-                        MediaType mediaType = detector
-                                .detect(new ByteArrayInputStream(inputDoc
-                                        .getContent()), meta);
-                        mimetype = mimetypes.forName(mediaType.getType() + "/"
-                                + mediaType.getSubtype());
-                    } catch (IOException e) {
-                        LOG.error("Exception", e);
-                    } catch (MimeTypeException e) {
-                        LOG.error("Exception", e);
-                    }
-                    mt = mimetype.getName();
-                } else if (mimeType == null && inputDoc.getText() != null) {
-                    // force it to text
-                    mt = "text/plain";
-                }
-            } else {
-                mt = mimeType;// allow outside user to specify a mime type if
-                // they know all the content, saves time and
-                // reduces error
-            }
-            if (mt != null) {
-                inputDoc.setContentType(mt);
+        // determine the content type if missing or not trusted
+        String declared = inputDoc.getContentType();
+        if ("".equals(declared))
+            declared = null;
+        if (declared == null && mimeType != null && !forceMTDetection) {
+            // allow outside user to specify a mime type if they know all the
+            // content, saves time and reduces error
+            inputDoc.setContentType(mimeType);
+        } else if (inputDoc.getContent() != null
+                && !typeDetector.isTrusted(declared)) {
+            long start = System.nanoTime();
+            try {
+                inputDoc.setContentType(typeDetector.detect(inputDoc.getUrl(),
+                        inputDoc.getContent(), declared));
+                if (reporter != null)
+                    reporter.getCounter("TIKA",
+                            "DETECTED " + typeDetector.getStage()).increment(1);
+            } catch (IOException e) {
+                LOG.error("Exception", e);
             }
+            detectionNanos += System.nanoTime() - start;
+            reportTime(reporter);
+        } else if (declared == null && inputDoc.getText() != null) {
+            // force it to text
+            inputDoc.setContentType("text/plain");
         }
 
         // skip the processing if the input document already has some text
@@ -178,61 +466,220 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
             okCounters = false;
         }
 
-        // TODO check config whether want the markup or just the text and
-        // metadata?
-        BehemothHandler handler = new TikaMarkupHandler();
-
-        boolean doMarkup = config.getBoolean("tika.convert.markup", true);
-
-        if (!doMarkup) {
+        BehemothHandler handler;
+        if (doMarkup)
+            handler = new TikaMarkupHandler(markupTypes, markupFeatures);
+        else
             handler = new TikaTextHandler();
+        handler.setLimits(maxChars, maxAnnotations, maxDepth);
+
+        // the handler only gets the events of the main content, so that the
+        // offsets of the annotations match the text
+        ContentHandler parseHandler = handler;
+        if (boilerpipe != null
+                && boilerpipeTypes.contains(ContentTypeDetector
+                        .getBaseType(inputDoc.getContentType()))) {
+            BoilerpipeContentHandler boilerpipeHandler = new BoilerpipeContentHandler(
+                    handler, boilerpipe);
+            boilerpipeHandler.setIncludeMarkup(true);
+            parseHandler = boilerpipeHandler;
+            if (reporter != null)
+                reporter.getCounter("TIKA", "BOILERPLATE REMOVED")
+                        .increment(1);
         }
 
-        ParseContext context = new ParseContext();
-
-        // TODO generalise the approach so that can set any class via context
-        String customMapper = config.get("tika.context.HtmlMapper.class");
-        if (customMapper != null) {
+        OutputLimitException limit = null;
+        long start = System.nanoTime();
+        FastPathParser fastPath = getFastPath(inputDoc.getContentType());
+        EmbeddedDocumentCollector embedded = null;
+        try {
+            if (fastPath != null) {
+                fastPath.parse(inputDoc.getContent(), parseHandler,
+                        metadata, context);
+                if (reporter != null)
+                    reporter.getCounter("TIKA", "FAST PATH").increment(1);
+            } else if (forkParser != null)
+                parseForked(is, parseHandler, metadata, reporter);
+            else if (extractEmbedded) {
+                embedded = new EmbeddedDocumentCollector(this, inputDoc,
+                        rootDoc, embeddedDepth + 1, reporter,
+                        embeddedListener);
+                parser.parse(is, parseHandler, metadata,
+                        newEmbeddedContext(embedded));
+            } else
+                parser.parse(is, parseHandler, metadata, context);
+        } catch (Exception e) {
+            limit = OutputLimitException.find(e);
+            if (limit == null) {
+                LOG.error(inputDoc.getUrl().toString(), e);
+                if (reporter != null)
+                    reporter.getCounter("TIKA", "PARSING_ERROR").increment(1);
+                return withEmbedded(inputDoc, embedded);
+            }
+        } finally {
             try {
-                @SuppressWarnings("unchecked")
-                Class<HtmlMapper> customMapperClass = (Class<HtmlMapper>) Class
-                        .forName(customMapper);
-                // specify a custom HTML mapper via the Context
-                context.set(HtmlMapper.class, customMapperClass.newInstance());
-            } catch (Exception e) {
-                LOG.error("Can't use class " + customMapper
-                        + " for HtmlMapper, using default");
+                is.close();
+            } catch (IOException e) {
             }
+            // the sub-documents account for their own time
+            parsingNanos += System.nanoTime() - start
+                    - (embedded != null ? embedded.getNanos() : 0);
+            reportTime(reporter);
         }
 
+        // the hooks can be overridden, their failures count as parsing errors
         try {
-            // determine which parser to use
-            Parser parser = TikaConfig.getDefaultConfig().getParser();
-            parser.parse(is, handler, metadata, context);
             processMetadata(inputDoc, metadata);
             processText(inputDoc, handler.getText());
             processMarkupAnnotations(inputDoc, handler.getAnnotations());
-            if (reporter != null)
-                reporter.getCounter("TIKA", "ANNOTATIONS ADDED").increment(
-                        handler.getAnnotations().size());
         } catch (Exception e) {
-            LOG.error(inputDoc.getUrl().toString(), e);
+            LOG.error(inputDoc.getUrl(), e);
             if (reporter != null)
                 reporter.getCounter("TIKA", "PARSING_ERROR").increment(1);
-            return new BehemothDocument[] { inputDoc };
-        } finally {
-            try {
-                is.close();
-            } catch (IOException e) {
-            }
+            return withEmbedded(inputDoc, embedded);
+        }
+        if (reporter != null)
+            reporter.getCounter("TIKA", "ANNOTATIONS ADDED").increment(
+                    handler.getAnnotations().size());
+
+        // keep the partial output and flag the document
+        if (limit != null) {
+            LOG.info("Truncated output for " + inputDoc.getUrl() + " : "
+                    + limit.getMessage());
+            inputDoc.getMetadata(true).put(new Text("tika.truncated"),
+                    new Text(limit.getLimit()));
+            if (reporter != null)
+                reporter.getCounter("TIKA", "TRUNCATED " + limit.getLimit())
+                        .increment(1);
         }
 
-        // TODO if the content type is an archive maybe process and return
-        // all the subdocuments
         if (reporter != null)
             reporter.getCounter("TIKA", "DOC-PARSED").increment(1);
 
-        return new BehemothDocument[] { inputDoc };
+        return withEmbedded(inputDoc, embedded);
+    }
+
+    /** Returns the document followed by its sub-documents if any **/
+    private BehemothDocument[] withEmbedded(BehemothDocument inputDoc,
+            EmbeddedDocumentCollector embedded) {
+        if (embedded == null || embedded.getDocuments().isEmpty())
+            return new BehemothDocument[] { inputDoc };
+        List<BehemothDocument> documents = embedded.getDocuments();
+        BehemothDocument[] outputs = new BehemothDocument[documents.size() + 1];
+        outputs[0] = inputDoc;
+        for (int i = 0; i < documents.size(); i++)
+            outputs[i + 1] = documents.get(i);
+        return outputs;
+    }
+
+    /**
+     * Returns a parse context in which the embedded documents are handed to
+     * the collector
+     **/
+    private ParseContext newEmbeddedContext(EmbeddedDocumentCollector embedded) {
+        ParseContext embeddedContext = new ParseContext();
+        HtmlMapper mapper = context.get(HtmlMapper.class);
+        if (mapper != null)
+            embeddedContext.set(HtmlMapper.class, mapper);
+        embeddedContext.set(EmbeddedDocumentExtractor.class, embedded);
+        return embeddedContext;
+    }
+
+    /**
+     * Sets the listener to which the embedded documents are passed as soon as
+     * they have been processed when tika.embedded is true. They are returned
+     * with their parent by process() if no listener is set.
+     **/
+    public boolean setListener(DocumentListener listener) {
+        embeddedListener = listener;
+        return true;
+    }
+
+    /**
+     * Returns true if a document embedded at the given depth can be returned
+     * as a sub-document, within the limits set by tika.embedded.max.depth and
+     * tika.embedded.max per input document
+     **/
+    boolean acceptEmbedded(int depth, Reporter reporter) {
+        if (depth > embeddedMaxDepth || numEmbedded >= embeddedMax) {
+            if (reporter != null)
+                reporter.getCounter("TIKA", "EMBEDDED SKIPPED").increment(1);
+            return false;
+        }
+        numEmbedded++;
+        return true;
+    }
+
+    /** Processes a document embedded at the given depth **/
+    BehemothDocument[] processEmbedded(BehemothDocument child, int depth,
+            Reporter reporter) {
+        if (reporter != null)
+            reporter.getCounter("TIKA", "EMBEDDED").increment(1);
+        int parentDepth = embeddedDepth;
+        embeddedDepth = depth;
+        try {
+            return process(child, reporter);
+        } finally {
+            embeddedDepth = parentDepth;
+        }
+    }
+
+    /**
+     * Reports the time spent detecting and parsing as counters, so that the
+     * throughput of the detection can be told apart from the one of the
+     * parsing
+     **/
+    private void reportTime(Reporter reporter) {
+        if (reporter == null)
+            return;
+        long detectionMsec = detectionNanos / 1000000;
+        if (detectionMsec > reportedDetectionMsec) {
+            reporter.getCounter("TIKA", "DETECTION MSEC").increment(
+                    detectionMsec - reportedDetectionMsec);
+            reportedDetectionMsec = detectionMsec;
+        }
+        long parsingMsec = parsingNanos / 1000000;
+        if (parsingMsec > reportedParsingMsec) {
+            reporter.getCounter("TIKA", "PARSING MSEC").increment(
+                    parsingMsec - reportedParsingMsec);
+            reportedParsingMsec = parsingMsec;
+        }
+    }
+
+    /**
+     * Parses a document in one of the child JVMs. The metadata are not
+     * returned by the children as such and are rebuilt from the meta and
+     * title elements of the head of the XHTML events. The children are
+     * recycled after tika.fork.max.docs documents so that slow leaks in the
+     * parsers don't accumulate.
+     **/
+    private void parseForked(InputStream is, ContentHandler handler,
+            Metadata metadata, Reporter reporter) throws Exception {
+        if (forkMaxDocs > 0 && forkedDocs >= forkMaxDocs) {
+            // the children are all idle between two documents
+            forkParser.close();
+            forkParser = newForkParser();
+            forkedDocs = 0;
+            if (reporter != null)
+                reporter.getCounter("TIKA", "FORK RECYCLED").increment(1);
+        }
+        forkedDocs++;
+        try {
+            // the ForkParser appends the values found in the XHTML to those
+            // sent to the child, they replace them in the original instead
+            Metadata sent = new Metadata();
+            for (String name : metadata.names()) {
+                for (String value : metadata.getValues(name))
+                    sent.add(name, value);
+            }
+            forkParser.parse(is, new XHTMLMetadataHandler(handler, metadata),
+                    sent, context);
+        } catch (TikaException e) {
+            // the child died while parsing and will be replaced
+            if (e.getCause() instanceof IOException && reporter != null)
+                reporter.getCounter("TIKA", "FORK CRASHED").increment(1);
+            throw e;
+        }
     }
 
     /**
@@ -261,7 +708,12 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
     }
 
     /**
-     * Classes that wish to handle Metadata separately may override this method
+     * Classes that wish to handle Metadata separately may override this method.
+     * Only the names allowed by tika.metadata.keep are stored, multiple values
+     * are stored as a single Text separated by commas or as a
+     * TextArrayWritable if tika.metadata.multivalued is true. The Text keys are
+     * shared between the documents and must be treated as immutable: copy a
+     * key before modifying it, e.g. with new Text(key).
      * 
      * @param metadata
      *            the extracted {@link org.apache.tika.metadata.Metadata}
@@ -269,25 +721,59 @@ public class TikaProcessor implements DocumentProcessor, TikaConstants {
     protected void processMetadata(BehemothDocument inputDoc, Metadata metadata) {
         MapWritable mapW = inputDoc.getMetadata(true);
         for (String name : metadata.names()) {
+            Text key = getMetadataKey(name);
+            if (key == null)
+                continue;
             String[] values = metadata.getValues(name);
-            // temporary fix to avoid
-            // Exception in thread "main" java.io.IOException: can't find class:
-            // com.digitalpebble.behemoth.tika.TextArrayWritable because
-            // com.digitalpebble.behemoth.tika.TextArrayWritable
-            // at
-            // org.apache.hadoop.io.AbstractMapWritable.readFields(AbstractMapWritable.java:204)
-            // simply store multiple values as a , separated Text
-            StringBuilder buff = new StringBuilder();
-            for (int i = 0; i < values.length; i++) {
-                if (i > 0)
-                    buff.append(",");
-                buff.append(values[i]);
+            if (values.length == 1)
+                mapW.put(key, new Text(values[0]));
+            else if (multiValued)
+                mapW.put(key, new TextArrayWritable(values));
+            else {
+                // store multiple values as a , separated Text
+                StringBuilder buff = new StringBuilder();
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0)
+                        buff.append(",");
+                    buff.append(values[i]);
+                }
+                mapW.put(key, new Text(buff.toString()));
             }
-            // TODO prefix md?
-            mapW.put(new Text(name), new Text(buff.toString()));
-            // mapW.put(new Text(name), new TextArrayWritable(values));
         }
         inputDoc.setMetadata(mapW);
     }
 
+    /**
+     * Returns the key under which a Tika metadata is stored or null if it must
+     * not be stored. The keys are cached and shared by the documents, they
+     * must not be modified.
+     **/
+    private Text getMetadataKey(String name) {
+        Text key = metadataKeys.get(name);
+        if (key != null)
+            return key == EXCLUDED ? null : key;
+        // the names come from the documents and are not bounded
+        if (metadataKeys.size() >= 10000)
+            metadataKeys.clear();
+        key = EXCLUDED;
+        if (isKept(name))
+            key = new Text(name);
+        metadataKeys.put(name, key);
+        return key == EXCLUDED ? null : key;
+    }
+
+    /** Checks a metadata name against the names and prefixes to keep **/
+    private boolean isKept(String name) {
+        if (metadataKeep == null)
+            return true;
+        for (String keep : metadataKeep) {
+            if (keep.endsWith("*")) {
+                if (name.startsWith(keep.substring(0, keep.length() - 1)))
+                    return true;
+            } else if (name.equals(keep))
+                return true;
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.DocumentProcessorFactory;
+
+/**
+ * Creates instances of the TikaProcessor class set in tika.processor (default
+ * TikaProcessor), which must have a zero arg. constructor. Used by the
+ * ProcessorMapRunner to give each thread its own processor.
+ **/
+public class TikaProcessorFactory implements DocumentProcessorFactory,
+        TikaConstants {
+
+    public DocumentProcessor newProcessor(Configuration conf) {
+        return newTikaProcessor(conf);
+    }
+
+    public static TikaProcessor newTikaProcessor(Configuration conf) {
+        Class<? extends TikaProcessor> processorClass = conf.getClass(
+                TIKA_PROCESSOR_KEY, TikaProcessor.class, TikaProcessor.class);
+        // calls setConf()
+        return ReflectionUtils.newInstance(processorClass, conf);
+    }
+
+}
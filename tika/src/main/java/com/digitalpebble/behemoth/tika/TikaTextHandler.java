@@ -30,12 +30,24 @@ public class TikaTextHandler implements BehemothHandler {
 
     private StringBuilder textBuffer;
 
+    private int maxChars = -1;
+
     public TikaTextHandler() {
         textBuffer = new StringBuilder();
     }
 
+    public void setLimits(int maxChars, int maxAnnotations, int maxDepth) {
+        this.maxChars = maxChars;
+    }
+
     public void characters(char[] ch, int start, int length)
             throws SAXException {
+        if (maxChars >= 0 && textBuffer.length() + length > maxChars) {
+            // keep what fits
+            textBuffer.append(ch, start, maxChars - textBuffer.length());
+            throw new OutputLimitException(OutputLimitException.CHARS,
+                    maxChars);
+        }
         textBuffer.append(ch, start, length);
     }
 
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Rebuilds the metadata of a document from the head of the XHTML produced by
+ * a parser, as the ForkParser does not send back the metadata set in the
+ * child JVM. The XHTMLContentHandler writes them as meta elements, except the
+ * title which is the content of the title element. The values found in the head
+ * replace those already present in the metadata for the same name, duplicate
+ * values being ignored.
+ **/
+class XHTMLMetadataHandler extends ContentHandlerDecorator {
+
+    private final Metadata metadata;
+
+    /** names of the metadata already found in the head **/
+    private final Set<String> found = new HashSet<String>();
+
+    private boolean inHead = false;
+
+    private StringBuilder title;
+
+    XHTMLMetadataHandler(ContentHandler handler, Metadata metadata) {
+        super(handler);
+        this.metadata = metadata;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name,
+            Attributes atts) throws SAXException {
+        if ("head".equals(localName))
+            inHead = true;
+        else if (inHead && "title".equals(localName))
+            title = new StringBuilder();
+        else if (inHead && "meta".equals(localName)) {
+            String key = atts.getValue("", "name");
+            String value = atts.getValue("", "content");
+            if (key != null && value != null)
+                add(key, value);
+        }
+        super.startElement(uri, localName, name, atts);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length)
+            throws SAXException {
+        if (title != null)
+            title.append(ch, start, length);
+        super.characters(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name)
+            throws SAXException {
+        if ("head".equals(localName))
+            inHead = false;
+        else if (title != null && "title".equals(localName)) {
+            String value = title.toString().trim();
+            if (value.length() > 0)
+                add(Metadata.TITLE, value);
+            title = null;
+        }
+        super.endElement(uri, localName, name);
+    }
+
+    private void add(String key, String value) {
+        if (found.add(key))
+            metadata.remove(key);
+        // the same value can be written more than once
+        else if (Arrays.asList(metadata.getValues(key)).contains(value))
+            return;
+        metadata.add(key, value);
+    }
+}
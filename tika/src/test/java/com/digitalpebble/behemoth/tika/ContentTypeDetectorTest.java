@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tika.config.TikaConfig;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+
+public class ContentTypeDetectorTest extends TestCase {
+
+    private static final byte[] HTML = "<html><head><title>test</title></head><body>test</body></html>"
+            .getBytes();
+
+    private ContentTypeDetector newDetector(String trusted) {
+        Configuration conf = BehemothConfiguration.create();
+        conf.set("tika.detect.trusted", trusted);
+        TikaConfig tika = TikaConfig.getDefaultConfig();
+        return new ContentTypeDetector(conf, tika.getMimeRepository(),
+                tika.getDetector());
+    }
+
+    public void testExtension() {
+        assertEquals("pdf", ContentTypeDetector
+                .getExtension("http://www.example.com/a/b.PDF?v=1.2"));
+        assertEquals("html", ContentTypeDetector.getExtension("file.html"));
+        assertNull(ContentTypeDetector.getExtension("http://www.example.com"));
+        assertNull(ContentTypeDetector
+                .getExtension("http://www.example.com/a.b/c"));
+        assertNull(ContentTypeDetector
+                .getExtension("http://www.example.com/c#a.b"));
+    }
+
+    public void testTrusted() throws Exception {
+        ContentTypeDetector detector = newDetector("*");
+        assertEquals("application/pdf",
+                detector.detect("doc.html", HTML, "application/pdf"));
+        assertEquals(ContentTypeDetector.TRUSTED, detector.getStage());
+
+        detector = newDetector("text/html");
+        assertTrue(detector.isTrusted("text/html"));
+        assertTrue(detector.isTrusted("text/html; charset=UTF-8"));
+        assertTrue(detector.isTrusted("Text/HTML"));
+        assertEquals("text/html",
+                ContentTypeDetector.getBaseType("Text/HTML; charset=UTF-8"));
+        // parameters in the configuration are ignored
+        detector = newDetector("text/html; charset=UTF-8");
+        assertTrue(detector.isTrusted("text/html"));
+        assertFalse(detector.isTrusted("application/pdf"));
+        assertFalse(detector.isTrusted(null));
+    }
+
+    public void testStages() throws Exception {
+        ContentTypeDetector detector = newDetector("");
+
+        // magic bytes and extension agree
+        assertEquals("text/html", detector.detect(
+                "http://www.example.com/index.html", HTML, null));
+        assertFalse(ContentTypeDetector.FULL.equals(detector.getStage()));
+
+        // the extension is more specific than the magic bytes
+        assertEquals("text/csv", detector.detect(
+                "http://www.example.com/data.csv", "a,b\n1,2\n".getBytes(),
+                "text/plain"));
+        assertEquals(ContentTypeDetector.HINT, detector.getStage());
+
+        // the declared type disagrees with the content
+        detector.detect("http://www.example.com/", HTML, "application/pdf");
+        assertEquals(ContentTypeDetector.FULL, detector.getStage());
+
+        // containers are looked into
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("test.txt"));
+        zip.write("test".getBytes());
+        zip.close();
+        assertEquals("application/zip", detector.detect(
+                "http://www.example.com/test", bytes.toByteArray(), null));
+        assertEquals(ContentTypeDetector.FULL, detector.getStage());
+    }
+}
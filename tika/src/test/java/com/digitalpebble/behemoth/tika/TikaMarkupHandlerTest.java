@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.digitalpebble.behemoth.Annotation;
+
+public class TikaMarkupHandlerTest extends TestCase {
+
+    private static final AttributesImpl NONE = new AttributesImpl();
+
+    private void text(TikaMarkupHandler handler, String text)
+            throws Exception {
+        handler.characters(text.toCharArray(), 0, text.length());
+    }
+
+    /** div[ a div[ b ] c ] **/
+    private List<Annotation> parse(TikaMarkupHandler handler)
+            throws Exception {
+        AttributesImpl atts = new AttributesImpl();
+        atts.addAttribute("", "class", "class", "CDATA", "outer");
+        atts.addAttribute("", "id", "id", "CDATA", "1");
+        handler.startDocument();
+        handler.startElement("", "div", "div", atts);
+        text(handler, "a");
+        handler.startElement("", "div", "div", NONE);
+        handler.startElement("", "span", "span", NONE);
+        text(handler, "b");
+        handler.endElement("", "span", "span");
+        handler.endElement("", "div", "div");
+        text(handler, "c");
+        handler.endElement("", "div", "div");
+        handler.endDocument();
+        assertEquals("abc", handler.getText());
+        return handler.getAnnotations();
+    }
+
+    public void testNestedElements() throws Exception {
+        List<Annotation> annotations = parse(new TikaMarkupHandler());
+        assertEquals(3, annotations.size());
+        // in the order in which they end
+        assertEquals("span\t1\t2", annotations.get(0).toString());
+        // the inner div is closed first
+        assertEquals("div\t1\t2", annotations.get(1).toString());
+        Annotation outer = annotations.get(2);
+        assertEquals(0, outer.getStart());
+        assertEquals(3, outer.getEnd());
+        assertEquals("outer", outer.getFeatures().get("class"));
+    }
+
+    public void testFilters() throws Exception {
+        Set<String> types = new HashSet<String>();
+        types.add("div");
+        Map<String, Set<String>> features = new HashMap<String, Set<String>>();
+        features.put("div", Collections.singleton("id"));
+        List<Annotation> annotations = parse(new TikaMarkupHandler(types,
+                features));
+        assertEquals(2, annotations.size());
+        assertEquals("div\t1\t2", annotations.get(0).toString());
+        Annotation outer = annotations.get(1);
+        assertEquals("div", outer.getType());
+        assertEquals(1, outer.getFeatureNum());
+        assertEquals("1", outer.getFeatures().get("id"));
+    }
+
+    public void testUnclosedElements() throws Exception {
+        TikaMarkupHandler handler = new TikaMarkupHandler();
+        handler.startDocument();
+        handler.startElement("", "ul", "ul", NONE);
+        handler.startElement("", "li", "li", NONE);
+        text(handler, "one");
+        // li not ended
+        handler.endElement("", "ul", "ul");
+        handler.endElement("", "p", "p");
+        handler.endDocument();
+        assertEquals(2, handler.getAnnotations().size());
+        assertEquals("li\t0\t3", handler.getAnnotations().get(0).toString());
+        assertEquals("ul\t0\t3", handler.getAnnotations().get(1).toString());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.tika;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.tika.config.TikaConfig;
+
+import com.digitalpebble.behemoth.BehemothConfiguration;
+import com.digitalpebble.behemoth.BehemothDocument;
+
+/**
+ * Measures the time spent per document by a TikaProcessor which reuses its
+ * parser and context, compared to building a new TikaConfig and ParseContext
+ * for each document as done previously. Both go through process() so that the
+ * detection and the handling of the metadata are included. Run its main method
+ * with the test classpath of the module, the optional argument being the
+ * number of documents per round. It is not run by the unit tests.
+ **/
+public class TikaProcessorBenchmark {
+
+    /** Builds a new TikaConfig and ParseContext before each document **/
+    static class RebuildingTikaProcessor extends TikaProcessor {
+
+        TikaConfig getTikaConfig() {
+            try {
+                return new TikaConfig();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public BehemothDocument[] process(BehemothDocument inputDoc,
+                Reporter reporter) {
+            setConf(getConf());
+            return super.process(inputDoc, reporter);
+        }
+    }
+
+    private static final String HTML = "<html><head><title>A title</title></head>"
+            + "<body><p>This is a <b>simple</b> test</p></body></html>";
+
+    private static BehemothDocument newDocument() {
+        BehemothDocument doc = new BehemothDocument();
+        doc.setUrl("http://www.example.com/test.html");
+        doc.setContent(HTML.getBytes());
+        doc.setContentType("text/html");
+        return doc;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Configuration conf = BehemothConfiguration.create();
+        TikaProcessor processor = new TikaProcessor();
+        processor.setConf(conf);
+        TikaProcessor rebuilding = new RebuildingTikaProcessor();
+        rebuilding.setConf(conf);
+
+        for (int round = 0; round < 3; round++) {
+            // the first round warms up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                processor.process(newDocument(), null);
+            long reused = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+                rebuilding.process(newDocument(), null);
+            long rebuilt = System.nanoTime() - start;
+
+            System.out.println("Round " + round + " : reused "
+                    + (reused / iterations / 1000) + " usec/doc, rebuilt "
+                    + (rebuilt / iterations / 1000) + " usec/doc");
+        }
+    }
+
+}
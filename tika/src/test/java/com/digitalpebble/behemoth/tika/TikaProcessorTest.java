@@ -17,12 +17,22 @@
 
 package com.digitalpebble.behemoth.tika;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
 import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
 
+import com.digitalpebble.behemoth.Annotation;
 import com.digitalpebble.behemoth.BehemothConfiguration;
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.DocumentListener;
 
 public class TikaProcessorTest extends TestCase {
 
@@ -58,4 +68,310 @@ public class TikaProcessorTest extends TestCase {
         assertEquals("A TITLE\nThis is a simple test", outText);
     }
 
+    /** Custom processor set with tika.processor **/
+    public static class UpperCaseTikaProcessor extends TikaProcessor {
+        protected void processText(BehemothDocument inputDoc,
+                String textContent) {
+            super.processText(inputDoc, textContent.toUpperCase());
+        }
+    }
+
+    public void testFactory() {
+        Configuration conf = BehemothConfiguration.create();
+        conf.set(TikaConstants.TIKA_PROCESSOR_KEY,
+                UpperCaseTikaProcessor.class.getName());
+        TikaProcessor custom = (TikaProcessor) new TikaProcessorFactory()
+                .newProcessor(conf);
+        assertTrue(custom instanceof UpperCaseTikaProcessor);
+        assertSame(conf, custom.getConf());
+
+        BehemothDocument doc = new BehemothDocument();
+        doc.setContent("<html><body>simple test</body></html>".getBytes());
+        doc.setUrl("dummyDoc.html");
+        doc.setContentType("text/html");
+        BehemothDocument output = custom.process(doc, null)[0];
+        assertEquals("SIMPLE TEST", output.getText().trim());
+    }
+
+    private BehemothDocument processWithLimit(String name, int value) {
+        Configuration conf = BehemothConfiguration.create();
+        conf.setInt(name, value);
+        TikaProcessor limited = new TikaProcessor();
+        limited.setConf(conf);
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < 100; i++)
+            html.append("<p>paragraph <b>").append(i).append("</b></p>");
+        html.append("</body></html>");
+        BehemothDocument doc = new BehemothDocument();
+        doc.setContent(html.toString().getBytes());
+        doc.setUrl("dummyDoc.html");
+        doc.setContentType("text/html");
+        return limited.process(doc, null)[0];
+    }
+
+    public void testOutputLimits() {
+        BehemothDocument output = processWithLimit("tika.max.chars", 50);
+        assertEquals(50, output.getText().length());
+        assertEquals(new Text("chars"),
+                output.getMetadata().get(new Text("tika.truncated")));
+
+        output = processWithLimit("tika.max.annotations", 20);
+        assertEquals(20, output.getAnnotations().size());
+        assertEquals(new Text("annotations"),
+                output.getMetadata().get(new Text("tika.truncated")));
+        assertTrue(output.getText().trim().startsWith("paragraph 0"));
+
+        output = processWithLimit("tika.max.depth", 2);
+        assertEquals(new Text("depth"),
+                output.getMetadata().get(new Text("tika.truncated")));
+
+        // no limit reached
+        output = processWithLimit("tika.max.chars", 100000);
+        assertNull(output.getMetadata().get(new Text("tika.truncated")));
+        assertTrue(output.getText().contains("paragraph 99"));
+
+        // the newline after the head counts towards the limit
+        for (int max = 1; max < 20; max++) {
+            Configuration conf = BehemothConfiguration.create();
+            conf.setInt("tika.max.chars", max);
+            output = parse(conf, "<html><head><title>title</title></head>"
+                    + "<body>body</body></html>", "text/html");
+            assertTrue(output.getText().length() <= max);
+        }
+    }
+
+    private BehemothDocument parse(Configuration conf, String content,
+            String type) {
+        TikaProcessor processor = new TikaProcessor();
+        processor.setConf(conf);
+        BehemothDocument doc = new BehemothDocument();
+        doc.setContent(content.getBytes());
+        doc.setUrl("dummyDoc");
+        doc.setContentType(type);
+        return processor.process(doc, null)[0];
+    }
+
+    public void testFastPath() {
+        Configuration conf = BehemothConfiguration.create();
+        Configuration fast = BehemothConfiguration.create();
+        fast.set("tika.fastpath", "text/html=" + SimpleHtmlParser.class.getName()
+                + ",text/*=" + PlainTextParser.class.getName());
+
+        String html = "<!DOCTYPE html><html><head><title>A &amp; B</title>"
+                + "<meta name=\"keywords\" content=\"test\">"
+                + "<script>var a = '<p>';</script><style>p {}</style></head>"
+                + "<body><!-- comment --><h1 class=x>Header</h1>"
+                + "<p>A <a href=\"http://www.example.com/\">link</a> and "
+                + "<span>some</span> text</p><ul><li>one<li>two</ul>"
+                + "<p>caf&eacute; &mdash; &Omega; &#233; &#x263A; &unknown; &amp</p>"
+                + "<table><tr><td>cell</td></tr></table></body></html>";
+        BehemothDocument expected = parse(conf, html, "text/html");
+        BehemothDocument actual = parse(fast, html, "text/html");
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(new Text("test"),
+                actual.getMetadata().get(new Text("keywords")));
+        // the routes are matched on the base type
+        assertTrue(parse(fast, html, "Text/HTML; charset=UTF-8")
+                .getMetadata().get(new Text("X-Parsed-By")).toString()
+                .contains(SimpleHtmlParser.class.getName()));
+        assertEquals(expected.getAnnotations().size(), actual
+                .getAnnotations().size());
+        for (int i = 0; i < expected.getAnnotations().size(); i++) {
+            Annotation e = expected.getAnnotations().get(i);
+            Annotation a = actual.getAnnotations().get(i);
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getEnd(), a.getEnd());
+        }
+
+        String text = "some plain text\nin two lines\n";
+        expected = parse(conf, text, "text/plain");
+        actual = parse(fast, text, "text/plain");
+        assertEquals(expected.getText(), actual.getText());
+        // routed with text/*
+        actual = parse(fast, text, "text/csv");
+        assertEquals(text, actual.getText().trim() + "\n");
+    }
+
+    private static byte[] zip(String[] names, byte[][] contents)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        for (int i = 0; i < names.length; i++) {
+            zip.putNextEntry(new ZipEntry(names[i]));
+            zip.write(contents[i]);
+            zip.closeEntry();
+        }
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    public void testEmbeddedDocuments() throws IOException {
+        byte[] inner = zip(new String[] { "c.txt" },
+                new byte[][] { "third document".getBytes() });
+        byte[] outer = zip(new String[] { "a.txt", "b.html", "inner.zip" },
+                new byte[][] { "first document".getBytes(),
+                        "<html><body>second document</body></html>".getBytes(),
+                        inner });
+
+        Configuration conf = BehemothConfiguration.create();
+        conf.setBoolean("tika.embedded", true);
+        TikaProcessor processor = new TikaProcessor();
+        processor.setConf(conf);
+        BehemothDocument doc = new BehemothDocument();
+        doc.setContent(outer);
+        doc.setUrl("http://www.example.com/archive.zip");
+        BehemothDocument[] outputs = processor.process(doc, null);
+
+        assertEquals(5, outputs.length);
+        assertSame(doc, outputs[0]);
+        assertEquals("application/zip", doc.getContentType());
+        assertFalse(doc.getText().contains("document"));
+
+        assertEquals("http://www.example.com/archive.zip!/a.txt",
+                outputs[1].getUrl());
+        assertEquals("first document", outputs[1].getText().trim());
+        assertEquals(new Text("http://www.example.com/archive.zip"), outputs[1]
+                .getMetadata().get(new Text("tika.parent")));
+        assertEquals(new Text("1"),
+                outputs[1].getMetadata().get(new Text("tika.depth")));
+        assertEquals("text/html", outputs[2].getContentType());
+        assertEquals("second document", outputs[2].getText().trim());
+        // the inner archive is followed by its own entries
+        assertEquals("http://www.example.com/archive.zip!/inner.zip",
+                outputs[3].getUrl());
+        assertEquals(
+                "http://www.example.com/archive.zip!/inner.zip!/c.txt",
+                outputs[4].getUrl());
+        assertEquals(new Text("2"),
+                outputs[4].getMetadata().get(new Text("tika.depth")));
+
+        // limit on the depth
+        conf.setInt("tika.embedded.max.depth", 1);
+        processor.setConf(conf);
+        doc = new BehemothDocument();
+        doc.setContent(outer);
+        doc.setUrl("http://www.example.com/archive.zip");
+        assertEquals(4, processor.process(doc, null).length);
+        assertNull(outputs[1].getContent());
+
+        // sub-documents passed on as soon as they are parsed
+        final List<BehemothDocument> streamed = new ArrayList<BehemothDocument>();
+        final List<BehemothDocument> inputs = new ArrayList<BehemothDocument>();
+        conf.setInt("tika.embedded.max.depth", 5);
+        processor.setConf(conf);
+        assertTrue(processor.setListener(new DocumentListener() {
+            public void output(BehemothDocument input,
+                    BehemothDocument document) {
+                inputs.add(input);
+                streamed.add(document);
+            }
+        }));
+        doc = new BehemothDocument();
+        doc.setContent(outer);
+        doc.setUrl(null);
+        assertEquals(1, processor.process(doc, null).length);
+        assertEquals(4, streamed.size());
+        // the nested documents come from the input document too
+        for (BehemothDocument input : inputs)
+            assertSame(doc, input);
+        assertEquals("a.txt", streamed.get(0).getUrl());
+        assertNull(streamed.get(0).getMetadata().get(new Text("tika.parent")));
+        assertNull(streamed.get(0).getContent());
+    }
+
+    public void testMetadata() {
+        Configuration conf = BehemothConfiguration.create();
+        conf.set("tika.metadata.keep", "author,dc:*");
+        conf.setBoolean("tika.metadata.multivalued", true);
+        String html = "<html><head><title>A TITLE</title>"
+                + "<meta name=\"author\" content=\"first\">"
+                + "<meta name=\"author\" content=\"second\">"
+                + "<meta name=\"generator\" content=\"none\">"
+                + "</head><body>test</body></html>";
+        BehemothDocument output = parse(conf, html, "text/html");
+        assertEquals(2, output.getMetadata().size());
+        assertEquals(new Text("A TITLE"),
+                output.getMetadata().get(new Text("dc:title")));
+        assertEquals(new com.digitalpebble.behemoth.TextArrayWritable(
+                new String[] { "first", "second" }), output.getMetadata()
+                .get(new Text("author")));
+
+        // the default
+        conf.unset("tika.metadata.multivalued");
+        output = parse(conf, html, "text/html");
+        assertEquals(new Text("first,second"),
+                output.getMetadata().get(new Text("author")));
+    }
+
+    public void testBoilerplateRemoval() {
+        StringBuilder html = new StringBuilder(
+                "<html><head><title>A TITLE</title></head><body>"
+                        + "<ul><li><a href=\"/home\">Home</a></li>"
+                        + "<li><a href=\"/news\">News</a></li></ul><div>");
+        for (int i = 0; i < 5; i++)
+            html.append("<p>Sentence number ").append(i)
+                    .append(" of the article is long enough to be kept by")
+                    .append(" the extractor, as it contains many words and")
+                    .append(" reads like the main content of the page.</p>");
+        html.append("</div><div><a href=\"/legal\">Legal notice</a>")
+                .append("</div></body></html>");
+
+        Configuration conf = BehemothConfiguration.create();
+        BehemothDocument output = parse(conf, html.toString(), "text/html");
+        assertTrue(output.getText().contains("Legal notice"));
+
+        conf.setBoolean("tika.boilerpipe", true);
+        output = parse(conf, html.toString(), "text/html");
+        String text = output.getText();
+        assertTrue(text.contains("Sentence number 0 of the article"));
+        assertTrue(text.contains("Sentence number 4 of the article"));
+        assertFalse(text.contains("Legal notice"));
+        assertFalse(text.contains("Home"));
+        assertFalse(output.getAnnotations().isEmpty());
+        for (Annotation annotation : output.getAnnotations()) {
+            assertTrue(annotation.getStart() <= annotation.getEnd());
+            assertTrue(annotation.getEnd() <= text.length());
+        }
+
+        output = parse(conf, html.toString(), "Text/HTML; charset=UTF-8");
+        assertFalse(output.getText().contains("Legal notice"));
+
+        // other types are left untouched
+        output = parse(conf, "Legal notice", "text/plain");
+        assertTrue(output.getText().contains("Legal notice"));
+    }
+
+    public void testForkedParsing() {
+        Configuration conf = BehemothConfiguration.create();
+        conf.setInt("tika.fork.pool.size", 1);
+        conf.setInt("tika.fork.max.docs", 1);
+        TikaProcessor forked = new TikaProcessor();
+        forked.setConf(conf);
+        try {
+            // the second document is parsed by a new child
+            for (int i = 0; i < 2; i++) {
+                BehemothDocument doc = new BehemothDocument();
+                doc.setContent(("<html><head><title>A TITLE</title></head>"
+                        + "<body>test " + i + "</body></html>").getBytes());
+                doc.setUrl("dummyDoc" + i + ".html");
+                doc.setContentType("text/html");
+                BehemothDocument output = forked.process(doc, null)[0];
+                String outText = output.getText().trim()
+                        .replaceAll("\\n+", "\n");
+                assertEquals("A TITLE\ntest " + i, outText);
+                assertFalse(output.getAnnotations().isEmpty());
+                // rebuilt from the XHTML returned by the child
+                assertEquals(new Text("A TITLE"), output.getMetadata().get(
+                        new Text("dc:title")));
+                assertEquals(new Text("A TITLE"), output.getMetadata().get(
+                        new Text("title")));
+                assertEquals(new Text("text/html; charset=ISO-8859-1"),
+                        output.getMetadata().get(new Text("Content-Type")));
+            }
+        } finally {
+            forked.close();
+        }
+    }
+
 }
@@ -1,6 +1,7 @@
 package com.digitalpebble.behemoth.uima;
 
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.util.SharedResourceCache;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Reporter;
@@ -13,12 +14,14 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.pear.tools.PackageBrowser;
+import org.apache.uima.pear.tools.PackageInstaller;
 import org.apache.uima.resource.ResourceManager;
 import org.apache.uima.resource.ResourceSpecifier;
 import org.apache.uima.util.XMLInputSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
@@ -112,6 +115,37 @@ public class UIMABase extends MapReduceBase {
         }
     }
 
+    /**
+     * Returns the pear installed once per node and version in the
+     * SharedResourceCache (see behemoth.resources.dir), so that the tasks and
+     * threads running on a node do not install it again
+     **/
+    protected static PackageBrowser installSharedPear(Configuration conf,
+            File pearFile) {
+        try {
+            File dir = SharedResourceCache.get(conf,
+                    "uima-" + pearFile.getName(), pearFile,
+                    new SharedResourceCache.Installer() {
+                        public void install(File source, File target) {
+                            PackageInstaller.installPackage(target, source,
+                                    true);
+                        }
+                    });
+            // the pear is installed in a directory named after its component
+            File[] children = dir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isDirectory())
+                        return new PackageBrowser(child);
+                }
+            }
+            throw new RuntimeException("UIMA pear not found in " + dir);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't install UIMA pear " + pearFile,
+                    e);
+        }
+    }
+
     protected void newCAS(PackageBrowser instPear, ResourceManager rsrcMgr) {
         // Create analysis engine from the installed PEAR package using
         // the created PEAR specifier
@@ -31,13 +31,13 @@ import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
-import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
 import com.digitalpebble.behemoth.BehemothConfiguration;
 import com.digitalpebble.behemoth.BehemothDocument;
+import com.digitalpebble.behemoth.ProcessorMapRunner;
 
 public class UIMADriver extends Configured implements Tool {
 
@@ -83,7 +83,7 @@ public class UIMADriver extends Configured implements Tool {
         job.setJarByClass(this.getClass());
         job.setJobName("Processing with UIMA application : " + pearPath);
 
-        job.setInputFormat(SequenceFileInputFormat.class);
+        BehemothConfiguration.setInputFormat(job);
         job.setOutputFormat(SequenceFileOutputFormat.class);
 
         job.setMapOutputKeyClass(Text.class);
@@ -92,6 +92,8 @@ public class UIMADriver extends Configured implements Tool {
         job.setOutputValueClass(BehemothDocument.class);
 
         job.setMapperClass(UIMAMapper.class);
+        // several threads if behemoth.runner.threads > 1
+        ProcessorMapRunner.configure(job, UIMAProcessorFactory.class);
 
         job.setNumReduceTasks(0);
 
@@ -25,21 +25,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.hadoop.filecache.DistributedCache;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.TaskAttemptID;
 import org.apache.uima.UIMAFramework;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.Type;
 import org.apache.uima.pear.tools.PackageBrowser;
-import org.apache.uima.pear.tools.PackageInstaller;
 import org.apache.uima.resource.ResourceSpecifier;
-import org.apache.uima.util.FileUtils;
 import org.apache.uima.util.XMLInputSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,8 +48,6 @@ public class UIMAMapper extends UIMABase implements
 
     private List<Type> uimatypes = new ArrayList<Type>();
 
-    private File installDir;
-
     public void map(Text id, BehemothDocument behemoth,
             OutputCollector<Text, BehemothDocument> output, Reporter reporter)
             throws IOException {
@@ -83,41 +76,12 @@ public class UIMAMapper extends UIMABase implements
 
         storeshortnames = config.getBoolean("uima.store.short.names", true);
 
-        File pearpath = new File(conf.get("uima.pear.path"));
-        String pearname = pearpath.getName();
-
-        URL urlPEAR = null;
-
-        try {
-            Path[] localArchives = DistributedCache.getLocalCacheFiles(conf);
-            // identify the right archive
-            for (Path la : localArchives) {
-                String localPath = la.toUri().toString();
-                LOG.info("Inspecting local paths " + localPath);
-                if (!localPath.endsWith(pearname))
-                    continue;
-                urlPEAR = new URL("file://" + localPath);
-                break;
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(
-                    "Impossible to retrieve gate application from distributed cache",
-                    e);
-        }
-
-        if (urlPEAR == null)
-            throw new RuntimeException("UIMA pear " + pearpath
-                    + " not available in distributed cache");
+        URL urlPEAR = UIMAProcessorFactory.getPearURL(conf);
 
         File pearFile = new File(urlPEAR.getPath());
 
-        // should check whether a different mapper has already unpacked it
-        // but for now we just unpack in a different location for every mapper
-        TaskAttemptID attempt = TaskAttemptID.forName(conf
-                .get("mapred.task.id"));
-        installDir = new File(pearFile.getParentFile(), attempt.toString());
-        PackageBrowser instPear = PackageInstaller.installPackage(installDir,
-                pearFile, true);
+        // installed once per node and shared with the other tasks
+        PackageBrowser instPear = installSharedPear(conf, pearFile);
 
         // get the resources required for the AnalysisEngine
         org.apache.uima.resource.ResourceManager rsrcMgr = UIMAFramework
@@ -143,9 +107,6 @@ public class UIMAMapper extends UIMABase implements
             cas.release();
         if (tae != null)
             tae.destroy();
-        if (installDir != null) {
-            FileUtils.deleteRecursive(installDir);
-        }
     }
 
 }
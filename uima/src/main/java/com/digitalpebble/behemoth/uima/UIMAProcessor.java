@@ -17,7 +17,6 @@ import org.apache.uima.UIMAFramework;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.Type;
 import org.apache.uima.pear.tools.PackageBrowser;
-import org.apache.uima.pear.tools.PackageInstaller;
 import org.apache.uima.resource.ResourceSpecifier;
 import org.apache.uima.util.XMLInputSource;
 
@@ -33,6 +32,10 @@ public class UIMAProcessor extends UIMABase implements DocumentProcessor {
 
     private List<Type> uimatypes = new ArrayList<Type>();
 
+    /**
+     * Uses the copy of the pear installed for all the processors of the node
+     * (see {@link UIMABase#installSharedPear})
+     **/
     public UIMAProcessor(URL appliPath) {
         urlPEAR = appliPath;
     }
@@ -76,8 +79,7 @@ public class UIMAProcessor extends UIMABase implements DocumentProcessor {
         config = conf;
         storeshortnames = config.getBoolean("uima.store.short.names", true);
         File pearFile = new File(urlPEAR.getPath());
-        PackageBrowser instPear = PackageInstaller.installPackage(
-                pearFile.getParentFile(), pearFile, true);
+        PackageBrowser instPear = installSharedPear(conf, pearFile);
 
         // get the resources required for the AnalysisEngine
         org.apache.uima.resource.ResourceManager rsrcMgr = UIMAFramework
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpebble.behemoth.uima;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.digitalpebble.behemoth.DocumentProcessor;
+import com.digitalpebble.behemoth.DocumentProcessorFactory;
+
+/**
+ * Creates UIMAProcessors for the pear put on the distributed cache by the
+ * UIMADriver. The pear is installed once per node and shared by the
+ * processors of all the tasks.
+ **/
+public class UIMAProcessorFactory implements DocumentProcessorFactory {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(UIMAProcessorFactory.class);
+
+    public DocumentProcessor newProcessor(Configuration conf) {
+        UIMAProcessor processor = new UIMAProcessor(getPearURL(conf));
+        processor.setConf(conf);
+        return processor;
+    }
+
+    /** Returns the URL of the local copy of the pear set in uima.pear.path **/
+    public static URL getPearURL(Configuration conf) {
+        File pearpath = new File(conf.get("uima.pear.path"));
+        String pearname = pearpath.getName();
+
+        URL urlPEAR = null;
+
+        try {
+            Path[] localArchives = DistributedCache.getLocalCacheFiles(conf);
+            // identify the right archive
+            for (Path la : localArchives) {
+                String localPath = la.toUri().toString();
+                LOG.info("Inspecting local paths " + localPath);
+                if (!localPath.endsWith(pearname))
+                    continue;
+                urlPEAR = new URL("file://" + localPath);
+                break;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Impossible to retrieve UIMA pear from distributed cache",
+                    e);
+        }
+
+        if (urlPEAR == null)
+            throw new RuntimeException("UIMA pear " + pearpath
+                    + " not available in distributed cache");
+
+        return urlPEAR;
+    }
+
+}
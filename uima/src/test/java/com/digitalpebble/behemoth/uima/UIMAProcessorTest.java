@@ -38,6 +38,7 @@ public class UIMAProcessorTest extends TestCase {
         Configuration conf = BehemothConfiguration.create();
         conf.set("uima.pear.path", appDescriptor.getPath());
         conf.set("uima.annotations.filter", "org.apache.uima.TokenAnnotation");
+        conf.set("behemoth.resources.dir", "target/resources");
         uima = new UIMAProcessor(appDescriptor);
         uima.setConf(conf);
     }